@@ -0,0 +1,296 @@
+import com.mpatric.mp3agic.ID3v2;
+import com.mpatric.mp3agic.Mp3File;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 专辑封面：从 ID3v2 APIC 帧取出内嵌图片，在后台按要显示的尺寸缩小解码并裁成正方形。
+ * <p>
+ * 解码后的图按像素字节数计入一个有上限的 LRU (只在 FX 线程上访问)，曲库再大内存也不会涨；
+ * 缩好的缩略图另外压缩存进磁盘缓存目录 (以 路径 + 大小 + 修改时间 校验)，
+ * 下次只读几 KB 的小文件，不用再解析标签。没有封面的曲目也记下来，不反复去读。
+ * 同一张图同时有多个请求时只解码一次；请求取消后 (单元格已经滚走) 不再回调。
+ *
+ * 磁盘缓存格式：int magic, int version, long size, long mtime, int width, int height, deflate(BGRA 像素)
+ * width = 0 表示没有封面。
+ */
+public class ArtworkCache {
+
+    /** 一次请求，单元格换了曲目或者切歌时取消 */
+    public static final class Request {
+        private volatile boolean cancelled;
+
+        public void cancel() { cancelled = true; }
+    }
+
+    private static final int MAGIC = 0x45415254; // "EART"
+    private static final int VERSION = 1;
+    private static final long ENTRY_OVERHEAD = 128;
+    // 没有封面的占位
+    private static final Object NONE = new Object();
+    private static final Request DONE = new Request();
+
+    private final Path diskDir;
+    private final long maxBytes;
+    private final ExecutorService workers = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "artwork");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // 以下字段只在 FX 线程上访问
+    private final LinkedHashMap<String, Object> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, List<Object[]>> pending = new HashMap<>(); // key -> { Request, Consumer }
+    private long bytes;
+
+    public ArtworkCache(Path diskDir, long maxBytes) {
+        this.diskDir = diskDir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static boolean supports(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".mp3");
+    }
+
+    /**
+     * 取 size × size 的封面 (FX 线程)。已缓存时立即回调，否则在后台加载后回调；
+     * 没有封面时回调 null。
+     */
+    public Request request(Track track, int size, Consumer<Image> onReady) {
+        if (!supports(track.getFile())) { onReady.accept(null); return DONE; }
+        String key = track.getPathKey() + '@' + size;
+        Object cached = memory.get(key);
+        if (cached != null) { onReady.accept(cached == NONE ? null : (Image) cached); return DONE; }
+
+        Request request = new Request();
+        List<Object[]> waiting = pending.get(key);
+        boolean submit = waiting == null;
+        if (submit) {
+            waiting = new ArrayList<>();
+            pending.put(key, waiting);
+        }
+        synchronized (waiting) { waiting.add(new Object[] { request, onReady }); }
+        if (submit) submit(key, track.getFile(), track.getPathKey(), size, waiting);
+        return request;
+    }
+
+    /** 文件内容变了，丢掉内存里的旧图 (磁盘缓存按修改时间自己失效) */
+    public void invalidate(Track track) {
+        String prefix = track.getPathKey() + '@';
+        Iterator<Map.Entry<String, Object>> it = memory.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Object> e = it.next();
+            if (e.getKey().startsWith(prefix)) { bytes -= cost(e.getKey(), e.getValue()); it.remove(); }
+        }
+    }
+
+    public void shutdown() { workers.shutdownNow(); }
+
+    private void submit(String key, File file, String pathKey, int size, List<Object[]> callbacks) {
+        workers.execute(() -> {
+            // 排队期间所有请求都取消了 (快速滚动)，不必读文件
+            boolean wanted = isWanted(callbacks);
+            Image image = wanted ? load(file, pathKey, size) : null;
+            Platform.runLater(() -> {
+                if (!wanted) {
+                    // 跳过之后又来了新的请求，重新排队
+                    if (isWanted(callbacks)) submit(key, file, pathKey, size, callbacks);
+                    else pending.remove(key);
+                    return;
+                }
+                pending.remove(key);
+                put(key, image == null ? NONE : image);
+                List<Object[]> copy;
+                synchronized (callbacks) { copy = new ArrayList<>(callbacks); }
+                for (Object[] c : copy) {
+                    if (((Request) c[0]).cancelled) continue;
+                    @SuppressWarnings("unchecked")
+                    Consumer<Image> onReady = (Consumer<Image>) c[1];
+                    onReady.accept(image);
+                }
+            });
+        });
+    }
+
+    private static boolean isWanted(List<Object[]> callbacks) {
+        synchronized (callbacks) {
+            for (Object[] c : callbacks) if (!((Request) c[0]).cancelled) return true;
+        }
+        return false;
+    }
+
+    private void put(String key, Object value) {
+        Object old = memory.put(key, value);
+        if (old != null) bytes -= cost(key, old);
+        bytes += cost(key, value);
+        Iterator<Map.Entry<String, Object>> it = memory.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Object> e = it.next();
+            if (e.getKey().equals(key)) continue;
+            bytes -= cost(e.getKey(), e.getValue());
+            it.remove();
+        }
+    }
+
+    private static long cost(String key, Object value) {
+        long c = ENTRY_OVERHEAD + 2L * key.length();
+        if (value instanceof Image) {
+            Image image = (Image) value;
+            c += (long) image.getWidth() * (long) image.getHeight() * 4;
+        }
+        return c;
+    }
+
+    // ==========================================
+    //   后台：磁盘缓存 -> 标签 -> 解码
+    // ==========================================
+    private Image load(File file, String pathKey, int size) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            long fileSize = attrs.size();
+            long mtime = attrs.lastModifiedTime().toMillis();
+            Path thumb = diskDir.resolve(diskName(pathKey, size));
+            Object cached = readDisk(thumb, fileSize, mtime);
+            if (cached != null) return cached == NONE ? null : (Image) cached;
+
+            Image image = decode(extract(file), size);
+            writeDisk(thumb, fileSize, mtime, image);
+            return image;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Artwork skipped " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] extract(File file) {
+        try {
+            Mp3File mp3 = new Mp3File(file, DurationScanner.MP3_BUFFER, false);
+            ID3v2 tag = mp3.hasId3v2Tag() ? mp3.getId3v2Tag() : null;
+            return tag == null ? null : tag.getAlbumImage();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // 缩小解码到短边为 size，再从中间裁成正方形
+    private static Image decode(byte[] data, int size) {
+        if (data == null || data.length == 0) return null;
+        Image image = new Image(new ByteArrayInputStream(data), size, size, true, true);
+        if (image.isError() || image.getWidth() < 1 || image.getHeight() < 1) return null;
+        int w = (int) image.getWidth(), h = (int) image.getHeight();
+        if (w != h && Math.min(w, h) < size) {
+            // 不是正方形的封面 (少数) 按短边再解一次
+            Image fill = w > h ? new Image(new ByteArrayInputStream(data), 0, size, true, true)
+                               : new Image(new ByteArrayInputStream(data), size, 0, true, true);
+            if (!fill.isError()) {
+                image = fill;
+                w = (int) image.getWidth();
+                h = (int) image.getHeight();
+            }
+        }
+        int side = Math.min(w, h);
+        return new WritableImage(image.getPixelReader(), (w - side) / 2, (h - side) / 2, side, side);
+    }
+
+    private static String diskName(String pathKey, int size) {
+        long h = 0xcbf29ce484222325L; // FNV-1a 64
+        for (byte b : pathKey.getBytes(StandardCharsets.UTF_8)) { h ^= b & 0xFF; h *= 0x100000001b3L; }
+        return String.format("%016x-%d.art", h, size);
+    }
+
+    // 返回 Image、NONE (确认没有封面)，或 null (没有可用的缓存)
+    private static Object readDisk(Path thumb, long fileSize, long mtime) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(thumb);
+        } catch (IOException e) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (data.length < 32 || buf.getInt() != MAGIC || buf.getInt() != VERSION
+                || buf.getLong() != fileSize || buf.getLong() != mtime) return null;
+        int w = buf.getInt(), h = buf.getInt();
+        if (w == 0) return NONE;
+        if (w < 0 || h < 0 || w > 4096 || h > 4096) return null;
+        byte[] pixels = new byte[w * h * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 32, data.length - 32);
+            int n = 0;
+            while (n < pixels.length && !inflater.finished()) {
+                int r = inflater.inflate(pixels, n, pixels.length - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) return null;
+                n += r;
+            }
+            if (n != pixels.length) return null;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+        WritableImage image = new WritableImage(w, h);
+        image.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getByteBgraInstance(), pixels, 0, w * 4);
+        return image;
+    }
+
+    private void writeDisk(Path thumb, long fileSize, long mtime, Image image) {
+        int w = image == null ? 0 : (int) image.getWidth();
+        int h = image == null ? 0 : (int) image.getHeight();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 + w * h);
+        ByteBuffer header = ByteBuffer.allocate(32).putInt(MAGIC).putInt(VERSION).putLong(fileSize).putLong(mtime).putInt(w).putInt(h);
+        out.write(header.array(), 0, 32);
+        if (image != null) {
+            byte[] pixels = new byte[w * h * 4];
+            image.getPixelReader().getPixels(0, 0, w, h, PixelFormat.getByteBgraInstance(), pixels, 0, w * 4);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(pixels);
+            deflater.finish();
+            byte[] chunk = new byte[16 * 1024];
+            while (!deflater.finished()) out.write(chunk, 0, deflater.deflate(chunk));
+            deflater.end();
+        }
+        Path temp = thumb.resolveSibling(thumb.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(diskDir);
+            Files.write(temp, out.toByteArray());
+            try {
+                Files.move(temp, thumb, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, thumb, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Artwork cache not saved " + thumb + ": " + e.getMessage());
+        }
+    }
+}
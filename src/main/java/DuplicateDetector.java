@@ -0,0 +1,311 @@
+import javafx.application.Platform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * 按内容找重复文件：先按大小分组，大小相同的再用内存映射读开头和结尾各 64KB 算快速指纹，
+ * 指纹也相同的才完整计算 SHA-256 确认。同一个 inode (符号链接、硬链接) 不用读内容。
+ * <p>
+ * 索引只在 duplicate-detector 线程上修改，哈希在 ForkJoin 池里并行。
+ * 曲库里的曲目不在这里 stat：大小由标签读取顺带报上来 (sized)，只有导入前分类的新文件在这里 stat。
+ * 导入时按策略处理与曲库重复的文件：KEEP 照常入库，SKIP 忽略，LINK 记为已有曲目的别名。
+ */
+public class DuplicateDetector {
+
+    public enum Policy {
+        KEEP, SKIP, LINK;
+
+        static Policy parse(String s) {
+            try {
+                return valueOf(s.trim().toUpperCase(Locale.ROOT));
+            } catch (RuntimeException e) {
+                return LINK;
+            }
+        }
+    }
+
+    /** 导入分类结果 (FX 线程)：unique 照常入库，duplicates 为 重复文件 -> 已有的同内容文件 */
+    public interface Classification {
+        void accept(List<File> unique, Map<File, File> duplicates);
+    }
+
+    private static final int PARTIAL_BYTES = 64 * 1024;
+    private static final long FULL_CHUNK = 64L * 1024 * 1024;
+
+    private final Policy policy = Policy.parse(System.getProperty("echo.duplicates", "link"));
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "duplicate-detector");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // 以下字段只在 duplicate-detector 线程上访问
+    private final Map<Long, List<Entry>> bySize = new HashMap<>();
+    private final Map<String, Entry> byPath = new HashMap<>();
+
+    /** 一个已知文件。track 为空表示刚通过分类、还没进曲库 */
+    private static final class Entry {
+        final File file;
+        final String pathKey;
+        long size = -1;
+        Object fileKey;
+        Track track;
+        // 指纹懒计算，算过一次就一直有效 (文件变化时由调用方重新登记)
+        boolean partialDone;
+        long partial;
+        String full;
+
+        Entry(File file, String pathKey) {
+            this.file = file;
+            this.pathKey = pathKey;
+        }
+    }
+
+    public Policy getPolicy() { return policy; }
+
+    public void shutdown() {
+        thread.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /** 新入库的曲目登记进索引；大小等标签读取报上来 (sized) 后才参与比较 */
+    public void index(List<Track> tracks) {
+        List<Track> copy = new ArrayList<>(tracks);
+        thread.execute(() -> {
+            for (Track track : copy) {
+                Entry e = byPath.get(track.getPathKey());
+                if (e == null) {
+                    e = new Entry(track.getFile(), track.getPathKey());
+                    byPath.put(e.pathKey, e);
+                }
+                e.track = track; // 分类时登记过的已经有大小
+            }
+        });
+    }
+
+    /** 标签读取 stat 到的文件大小 (任意线程调用)。大小变了说明内容也变了，指纹作废 */
+    public void sized(Track track, long size) {
+        String key = track.getPathKey();
+        thread.execute(() -> {
+            Entry e = byPath.get(key);
+            if (e == null || e.track != track || e.size == size) return;
+            unbucket(e);
+            e.size = size;
+            e.partialDone = false;
+            e.full = null;
+            bySize.computeIfAbsent(size, s -> new ArrayList<>()).add(e);
+        });
+    }
+
+    public void remove(Track track) {
+        String key = track.getPathKey();
+        thread.execute(() -> {
+            Entry e = byPath.remove(key);
+            if (e != null) unbucket(e);
+        });
+    }
+
+    /** 文件内容变了，下次比较时重新算指纹 (大小随后由 sized 更新) */
+    public void invalidate(Track track) {
+        String key = track.getPathKey();
+        thread.execute(() -> {
+            Entry e = byPath.get(key);
+            if (e == null) return;
+            e.partialDone = false;
+            e.full = null;
+            e.fileKey = null;
+        });
+    }
+
+    /**
+     * 导入前把文件分成与曲库 (以及同一批里更早的文件) 不重复的和重复的。
+     * 不重复的马上登记，后面的批次能和它们比较。
+     */
+    public void classify(List<File> files, Classification callback) {
+        List<File> copy = new ArrayList<>(files);
+        thread.execute(() -> {
+            List<Entry> incoming = new ArrayList<>(copy.size());
+            List<File> unique = new ArrayList<>();
+            for (File f : copy) {
+                String key = TrackRegistry.pathKey(f);
+                if (byPath.containsKey(key)) unique.add(f); // 已登记的路径交给曲库按路径去重
+                else incoming.add(new Entry(f, key));
+            }
+            stat(incoming);
+
+            Map<File, File> duplicates = new LinkedHashMap<>();
+            for (Entry e : incoming) {
+                Entry original = e.size < 0 ? null : findSame(e);
+                if (original != null) {
+                    duplicates.put(e.file, original.file);
+                } else {
+                    unique.add(e.file);
+                    if (e.size >= 0) insert(e);
+                }
+            }
+            Platform.runLater(() -> callback.accept(unique, duplicates));
+        });
+    }
+
+    /** 找出曲库里所有内容相同的曲目组，回调在 FX 线程执行 */
+    public void findDuplicates(Consumer<List<List<Track>>> callback) {
+        thread.execute(() -> {
+            // 1. 大小相同的才算首尾指纹
+            List<Entry> candidates = new ArrayList<>();
+            for (List<Entry> bucket : bySize.values()) {
+                if (bucket.size() < 2) continue;
+                for (Entry e : bucket) if (e.track != null) candidates.add(e);
+            }
+            hashPartial(candidates);
+
+            // 2. 大小和指纹都相同的才读全文
+            List<List<Entry>> suspects = new ArrayList<>();
+            List<Entry> needFull = new ArrayList<>();
+            for (List<Entry> bucket : bySize.values()) {
+                if (bucket.size() < 2) continue;
+                Map<Long, List<Entry>> byPartial = new LinkedHashMap<>();
+                for (Entry e : bucket) {
+                    if (e.track != null && e.partialDone) byPartial.computeIfAbsent(e.partial, k -> new ArrayList<>()).add(e);
+                }
+                for (List<Entry> group : byPartial.values()) {
+                    if (group.size() < 2) continue;
+                    suspects.add(group);
+                    needFull.addAll(group);
+                }
+            }
+            hashFull(needFull);
+
+            // 3. 按全文哈希分组
+            List<List<Track>> groups = new ArrayList<>();
+            for (List<Entry> group : suspects) {
+                Map<String, List<Track>> byFull = new LinkedHashMap<>();
+                for (Entry e : group) {
+                    if (e.full != null && e.track.getIndex() >= 0) byFull.computeIfAbsent(e.full, k -> new ArrayList<>()).add(e.track);
+                }
+                for (List<Track> same : byFull.values()) if (same.size() > 1) groups.add(same);
+            }
+            Platform.runLater(() -> callback.accept(groups));
+        });
+    }
+
+    // ==========================================
+    //   比较
+    // ==========================================
+    private void insert(Entry e) {
+        byPath.put(e.pathKey, e);
+        bySize.computeIfAbsent(e.size, s -> new ArrayList<>()).add(e);
+    }
+
+    private void unbucket(Entry e) {
+        List<Entry> bucket = bySize.get(e.size);
+        if (bucket == null) return;
+        bucket.remove(e);
+        if (bucket.isEmpty()) bySize.remove(e.size);
+    }
+
+    // 和已登记的同大小文件逐级比较：inode -> 首尾指纹 -> 全文哈希
+    private Entry findSame(Entry e) {
+        List<Entry> bucket = bySize.get(e.size);
+        if (bucket == null || bucket.isEmpty()) return null;
+        if (e.fileKey != null) {
+            for (Entry other : bucket) if (e.fileKey.equals(other.fileKey)) return other;
+        }
+        List<Entry> pending = new ArrayList<>(bucket.size() + 1);
+        pending.addAll(bucket);
+        pending.add(e);
+        hashPartial(pending);
+        List<Entry> same = new ArrayList<>();
+        for (Entry other : bucket) if (other.partialDone && other.partial == e.partial) same.add(other);
+        if (same.isEmpty()) return null;
+        same.add(e);
+        hashFull(same);
+        if (e.full == null) return null;
+        for (Entry other : same) if (other != e && e.full.equals(other.full)) return other;
+        return null;
+    }
+
+    // ==========================================
+    //   并行 stat / 哈希
+    // ==========================================
+    private void stat(List<Entry> entries) {
+        if (entries.isEmpty()) return;
+        pool.submit(() -> entries.parallelStream().forEach(e -> {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(e.file.toPath(), BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) return;
+                e.size = attrs.size();
+                e.fileKey = attrs.fileKey();
+            } catch (IOException | SecurityException ex) {
+                e.size = -1;
+            }
+        })).join();
+    }
+
+    private void hashPartial(List<Entry> entries) {
+        List<Entry> todo = new ArrayList<>();
+        for (Entry e : entries) if (!e.partialDone) todo.add(e);
+        if (todo.isEmpty()) return;
+        pool.submit(() -> todo.parallelStream().forEach(e -> {
+            try (FileChannel ch = FileChannel.open(e.file.toPath(), StandardOpenOption.READ)) {
+                long size = ch.size();
+                CRC32C head = new CRC32C();
+                CRC32C tail = new CRC32C();
+                int n = (int) Math.min(size, PARTIAL_BYTES);
+                if (n > 0) {
+                    head.update(ch.map(FileChannel.MapMode.READ_ONLY, 0, n));
+                    tail.update(ch.map(FileChannel.MapMode.READ_ONLY, size - n, n));
+                }
+                e.partial = (head.getValue() << 32) | tail.getValue();
+                e.partialDone = true;
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Duplicate check skipped " + e.file + ": " + ex.getMessage());
+            }
+        })).join();
+    }
+
+    private void hashFull(List<Entry> entries) {
+        List<Entry> todo = new ArrayList<>();
+        for (Entry e : entries) if (e.full == null) todo.add(e);
+        if (todo.isEmpty()) return;
+        pool.submit(() -> todo.parallelStream().forEach(e -> {
+            try (FileChannel ch = FileChannel.open(e.file.toPath(), StandardOpenOption.READ)) {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                long size = ch.size();
+                for (long pos = 0; pos < size; pos += FULL_CHUNK) {
+                    MappedByteBuffer chunk = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(FULL_CHUNK, size - pos));
+                    digest.update(chunk);
+                }
+                e.full = toHex(digest.digest());
+            } catch (IOException | NoSuchAlgorithmException | RuntimeException ex) {
+                System.err.println("Duplicate check skipped " + e.file + ": " + ex.getMessage());
+            }
+        })).join();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+}
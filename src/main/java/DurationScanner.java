@@ -0,0 +1,142 @@
+import com.mpatric.mp3agic.InvalidDataException;
+import com.mpatric.mp3agic.Mp3File;
+import com.mpatric.mp3agic.MpegFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 不解码音频、只读文件头算时长。由标签读取线程池并行调用，结果随标签一起进元数据目录。
+ * <p>
+ * MP3：mp3agic 只定位第一帧 (不逐帧扫描全文件)，第一帧里有 Xing/Info 或 VBRI 头时用其中的总帧数，
+ * 没有时按固定码率用音频字节数估算。WAV：读 RIFF 的 fmt 和 data 块。
+ * 算不出来时返回 0。
+ */
+public final class DurationScanner {
+
+    // 定位第一帧时读入的缓冲，ID3v2 标签由 mp3agic 直接跳过
+    static final int MP3_BUFFER = 16 * 1024;
+    private static final int ID3V1_SIZE = 128;
+    private static final int MAX_RIFF_CHUNKS = 64;
+
+    private DurationScanner() {}
+
+    /** mp3 需是以 scanFile = false 打开的 */
+    static long mp3Millis(File file, Mp3File mp3) {
+        int first = mp3.hasXingFrame() ? mp3.getXingOffset() : mp3.getStartOffset();
+        if (first < 0) return 0;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4 + 32 + 4 + 4 + 14 + 4);
+            while (head.hasRemaining() && ch.read(head, first + head.position()) > 0) { }
+            if (head.position() < 4) return 0;
+            MpegFrame frame = new MpegFrame(head.get(0), head.get(1), head.get(2), head.get(3));
+            int sampleRate = frame.getSampleRate();
+            if (sampleRate <= 0) return 0;
+
+            // Xing/Info 紧跟在 side info 之后，位置取决于版本和声道数；VBRI 固定在帧头后 32 字节
+            boolean v1 = MpegFrame.MPEG_VERSION_1_0.equals(frame.getVersion());
+            boolean mono = MpegFrame.CHANNEL_MODE_MONO.equals(frame.getChannelMode());
+            int xing = 4 + (v1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+            long frames = -1;
+            if (tagAt(head, xing, "Xing") || tagAt(head, xing, "Info")) {
+                if ((head.getInt(xing + 4) & 1) != 0) frames = Integer.toUnsignedLong(head.getInt(xing + 8));
+            } else if (tagAt(head, 4 + 32, "VBRI")) {
+                frames = Integer.toUnsignedLong(head.getInt(4 + 32 + 14));
+            }
+            if (frames > 0) return frames * samplesPerFrame(frame) * 1000 / sampleRate;
+
+            // 固定码率：音频字节数 / 码率
+            int kbps = frame.getBitrate();
+            if (kbps <= 0) return 0;
+            long audio = ch.size() - mp3.getStartOffset() - (mp3.hasId3v1Tag() ? ID3V1_SIZE : 0);
+            return Math.max(0, audio) * 8 / kbps;
+        } catch (IOException | InvalidDataException e) {
+            System.err.println("Duration scan failed " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    static long wavMillis(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WavFormat format = wavFormat(ch);
+            return format == null ? 0 : format.dataLength * 1000 / format.byteRate;
+        } catch (IOException e) {
+            System.err.println("Duration scan failed " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /** RIFF 头里的 PCM 格式和 data 块位置 */
+    static final class WavFormat {
+        static final int PCM = 1;
+        static final int FLOAT = 3;
+
+        int formatTag;
+        int channels;
+        int sampleRate;
+        long byteRate;
+        int blockAlign;
+        int bitsPerSample;
+        long dataOffset;
+        long dataLength;
+    }
+
+    /** 读 fmt 和 data 块，格式不认识时返回 null */
+    static WavFormat wavFormat(FileChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        if (!read(ch, buf, 0, 12) || !tagAt(buf, 0, "RIFF") || !tagAt(buf, 8, "WAVE")) return null;
+        long size = ch.size();
+        long pos = 12;
+        WavFormat format = null;
+        for (int i = 0; i < MAX_RIFF_CHUNKS && pos + 8 <= size; i++) {
+            if (!read(ch, buf, pos, 8)) break;
+            long length = Integer.toUnsignedLong(buf.getInt(4));
+            if (tagAt(buf, 0, "fmt ")) {
+                if (length < 16 || !read(ch, buf, pos + 8, (int) Math.min(length, 40))) return null;
+                format = new WavFormat();
+                format.formatTag = Short.toUnsignedInt(buf.getShort(0));
+                // WAVE_FORMAT_EXTENSIBLE：真正的格式在子格式 GUID 的前两个字节
+                if (format.formatTag == 0xFFFE && length >= 26) format.formatTag = Short.toUnsignedInt(buf.getShort(24));
+                format.channels = Short.toUnsignedInt(buf.getShort(2));
+                format.sampleRate = buf.getInt(4);
+                format.byteRate = Integer.toUnsignedLong(buf.getInt(8));
+                format.blockAlign = Short.toUnsignedInt(buf.getShort(12));
+                format.bitsPerSample = Short.toUnsignedInt(buf.getShort(14));
+            } else if (tagAt(buf, 0, "data")) {
+                if (format == null || format.byteRate == 0 || format.blockAlign == 0 || format.channels == 0) return null;
+                // 边录边写的文件长度字段可能是 0 或 0xFFFFFFFF，以实际文件大小为上限
+                format.dataOffset = pos + 8;
+                format.dataLength = Math.min(length == 0 ? Long.MAX_VALUE : length, size - pos - 8);
+                return format;
+            }
+            pos += 8 + length + (length & 1); // 块按偶数字节对齐
+        }
+        return null;
+    }
+
+    private static int samplesPerFrame(MpegFrame frame) {
+        if (MpegFrame.MPEG_LAYER_1.equals(frame.getLayer())) return 384;
+        if (MpegFrame.MPEG_LAYER_2.equals(frame.getLayer())) return 1152;
+        return MpegFrame.MPEG_VERSION_1_0.equals(frame.getVersion()) ? 1152 : 576;
+    }
+
+    private static boolean read(FileChannel ch, ByteBuffer buf, long pos, int n) throws IOException {
+        buf.clear().limit(n);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean tagAt(ByteBuffer buf, int at, String tag) {
+        if (at + 4 > buf.limit()) return false;
+        for (int i = 0; i < 4; i++) {
+            if (buf.get(at + i) != (byte) tag.charAt(i)) return false;
+        }
+        return true;
+    }
+}
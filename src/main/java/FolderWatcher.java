@@ -0,0 +1,254 @@
+import javafx.application.Platform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监视曲库目录 (递归)，把文件的新增、修改、删除合并成增量交给 FX 线程。
+ * <p>
+ * 一批事件在安静 QUIET_MILLIS 后才发出，持续有事件时最多攒 MAX_DELAY_MILLIS，
+ * 拷贝大文件时的一串修改事件因此只算一次。同一路径以最后一次事件为准。
+ * 系统报告事件溢出时，只重扫出事的那个目录子树。
+ * 目录不见了时看它的监视根目录：根目录还在原来的卷上就是被删掉或移走了，否则是卷被卸载。
+ */
+public class FolderWatcher {
+
+    public interface Listener {
+        /** upserted：新出现或内容变了的音频文件；deleted：被删掉的音频文件 */
+        void onFilesChanged(List<File> upserted, List<File> deleted);
+
+        /**
+         * dir 子树下现在实际存在的音频文件 (事件溢出或目录被删除、移走时)，不在其中的曲目应当移除。
+         * 目录被删掉时 present 为空。
+         */
+        void onDirectoryRescanned(File dir, List<File> present);
+
+        /** dir 不见了，而且它所在的监视根目录也不在了 (卷被卸载、共享盘断开)：曲目只能算缺失 */
+        void onDirectoryUnreachable(File dir);
+    }
+
+    private static final long QUIET_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 3000;
+
+    private final Listener listener;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Set<Path> roots = ConcurrentHashMap.newKeySet();
+    private final Map<Path, FileStore> rootStores = new ConcurrentHashMap<>(); // 开始监视时根目录所在的卷
+    private WatchService service;
+
+    // 以下字段只在 folder-watcher 线程上访问
+    private final Map<Path, Boolean> pending = new LinkedHashMap<>(); // 路径 -> 是否存在
+    private final Set<Path> rescans = new LinkedHashSet<>();
+    private long firstPending;
+
+    /** listener 在 FX 线程上回调 */
+    public FolderWatcher(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** 开始监视一个目录及其全部子目录，注册在后台进行 */
+    public void watch(File dir) {
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        if (!roots.add(root)) return;
+        try {
+            ensureStarted();
+        } catch (IOException e) {
+            System.err.println("Folder watch unavailable: " + e.getMessage());
+            return;
+        }
+        Thread.ofVirtual().name("watch-register").start(() -> {
+            try {
+                rootStores.put(root, Files.getFileStore(root));
+            } catch (IOException e) {
+                System.err.println("Volume unknown for " + root + ": " + e.getMessage());
+            }
+            registerTree(root, null);
+        });
+    }
+
+    public void shutdown() {
+        if (service == null) return;
+        try {
+            service.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void ensureStarted() throws IOException {
+        if (service != null) return;
+        service = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::run, "folder-watcher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // 注册整棵子树；found 不为空时顺便收集其中的音频文件 (新建目录、重扫)
+    private void registerTree(Path dir, List<Path> found) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                    try {
+                        keys.put(d.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), d);
+                    } catch (IOException | ClosedWatchServiceException e) {
+                        System.err.println("Watch skipped " + d + ": " + e.getMessage());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                    if (found != null && attrs.isRegularFile() && LibraryScanner.isAudioFile(f.getFileName().toString())) found.add(f);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFileFailed(Path f, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Watch skipped " + dir + ": " + e.getMessage());
+        }
+    }
+
+    // ==========================================
+    //   后台线程
+    // ==========================================
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key;
+                if (pending.isEmpty() && rescans.isEmpty()) {
+                    key = service.take();
+                } else {
+                    long wait = Math.min(QUIET_MILLIS, firstPending + MAX_DELAY_MILLIS - System.currentTimeMillis());
+                    key = wait > 0 ? service.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) { publish(); continue; }
+                }
+                if (pending.isEmpty() && rescans.isEmpty()) firstPending = System.currentTimeMillis();
+                handle(key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // 正常退出
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 丢了事件，只能重扫这个目录 (不知道是哪个目录就重扫全部根目录)
+                if (dir != null) rescans.add(dir);
+                else rescans.addAll(roots);
+                continue;
+            }
+            if (dir == null) continue;
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                if (isWatchedDirectory(path)) { unregisterTree(path); rescans.add(path); }
+                else if (LibraryScanner.isAudioFile(path.getFileName().toString())) pending.put(path, Boolean.FALSE);
+            } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // 目录注册之前已经放进去的文件不会再有事件，注册时一并收集
+                    List<Path> found = new ArrayList<>();
+                    registerTree(path, found);
+                    for (Path f : found) pending.put(f, Boolean.TRUE);
+                }
+            } else if (LibraryScanner.isAudioFile(path.getFileName().toString())) {
+                pending.put(path, Boolean.TRUE);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            // 目录本身没了 (有的平台删除目录时不报里面的文件)
+            if (dir != null && !Files.exists(dir)) rescans.add(dir);
+        }
+    }
+
+    private boolean isWatchedDirectory(Path path) {
+        return keys.containsValue(path);
+    }
+
+    private void unregisterTree(Path dir) {
+        keys.entrySet().removeIf(e -> {
+            if (!e.getValue().startsWith(dir)) return false;
+            e.getKey().cancel();
+            return true;
+        });
+    }
+
+    // 目录所在的监视根目录还在原来的卷上
+    private boolean rootReachable(Path dir) {
+        Path root = null;
+        for (Path r : roots) {
+            if (dir.startsWith(r) && (root == null || r.getNameCount() > root.getNameCount())) root = r;
+        }
+        if (root == null || !Files.isDirectory(root)) return false;
+        FileStore store = rootStores.get(root);
+        if (store == null) return true;
+        try {
+            return store.equals(Files.getFileStore(root)); // 挂载点还在但卷已卸载时会变
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void publish() {
+        for (Path dir : rescans) {
+            File d = dir.toFile();
+            if (Files.isDirectory(dir)) {
+                List<Path> found = new ArrayList<>();
+                registerTree(dir, found);
+                List<File> present = new ArrayList<>(found.size());
+                for (Path f : found) present.add(f.toFile());
+                // 重扫结果已经覆盖了这个子树里的零散事件
+                pending.keySet().removeIf(p -> p.startsWith(dir));
+                Platform.runLater(() -> listener.onDirectoryRescanned(d, present));
+            } else if (rootReachable(dir)) {
+                // 目录被删掉或移走：里面的曲目都移除，系统已经报告的文件删除照常发出
+                pending.entrySet().removeIf(e -> e.getValue() && e.getKey().startsWith(dir));
+                Platform.runLater(() -> listener.onDirectoryRescanned(d, List.of()));
+            } else {
+                // 整个卷不见了，卸载时报告的删除不算数
+                pending.keySet().removeIf(p -> p.startsWith(dir));
+                Platform.runLater(() -> listener.onDirectoryUnreachable(d));
+            }
+        }
+        rescans.clear();
+
+        if (!pending.isEmpty()) {
+            List<File> upserted = new ArrayList<>();
+            List<File> deleted = new ArrayList<>();
+            for (Map.Entry<Path, Boolean> e : pending.entrySet()) {
+                if (e.getValue()) upserted.add(e.getKey().toFile());
+                else deleted.add(e.getKey().toFile());
+            }
+            pending.clear();
+            Platform.runLater(() -> listener.onFilesChanged(upserted, deleted));
+        }
+    }
+}
@@ -0,0 +1,390 @@
+import javafx.application.Platform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 曲库持久化：快照 (library.snap) + 追加日志 (library.journal)。
+ * <p>
+ * 导入和删除只往日志末尾追加一条带 CRC 的记录，由后台线程攒成一批后写入并只 force 一次 (group commit)，
+ * 崩溃最多丢掉最后一批。日志条数超过阈值时把当前曲库整体写成新快照，再清空日志。
+ * 快照和日志头里都记着代数，两者不一致说明压缩中途被打断，此时日志已经包含在快照里，直接丢弃。
+ * <p>
+ * 启动时在同一个后台线程上流式读取快照和日志尾部，分批交给 FX 线程；
+ * 没有快照和日志但有旧版 playlist.txt 时，按行读入并转换一次。
+ */
+public class LibraryJournal {
+
+    /** 回放结果，回调都在 FX 线程执行 */
+    public interface Listener {
+        void onRestored(List<File> files);
+        void onRestoreRemoved(List<File> files);
+    }
+
+    private static final int SNAPSHOT_MAGIC = 0x454C534E; // "ELSN"
+    private static final int JOURNAL_MAGIC = 0x454C4A4E;  // "ELJN"
+    private static final int VERSION = 1;
+    private static final int JOURNAL_HEADER = 16;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final int RESTORE_BATCH = 2000;
+    private static final long LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MAX_GROUP = 4096;
+    private static final int COMPACT_MIN = 4096;
+
+    private static final Object STOP = new Object();
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path legacyFile;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+
+    // 以下字段只在 library-journal 线程上访问
+    private final Map<String, String> paths = new LinkedHashMap<>(); // pathKey -> 绝对路径，与磁盘状态一致
+    private FileChannel journal;
+    private long generation;
+    private int journalRecords;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    /** 一条待写入的修改 */
+    private static final class Op {
+        final byte type;
+        final String path;
+        final String key;
+
+        Op(byte type, File file) {
+            this.type = type;
+            this.path = file.getAbsolutePath();
+            this.key = TrackRegistry.pathKey(file);
+        }
+    }
+
+    public LibraryJournal(Path dir) {
+        this.snapshotFile = dir.resolve("library.snap");
+        this.journalFile = dir.resolve("library.journal");
+        this.legacyFile = dir.resolve("playlist.txt");
+    }
+
+    /** 启动后台线程：先回放已有的曲库，再开始接收修改 */
+    public void open(Listener listener) {
+        writer = new Thread(() -> run(listener), "library-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void recordAdded(Collection<Track> tracks) {
+        for (Track t : tracks) queue.add(new Op(OP_ADD, t.getFile()));
+    }
+
+    public void recordRemoved(File file) {
+        queue.add(new Op(OP_REMOVE, file));
+    }
+
+    /** 写完已排队的修改后关闭，最多等待 timeoutMillis */
+    public void close(long timeoutMillis) {
+        queue.add(STOP);
+        if (writer == null) return;
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==========================================
+    //   后台线程
+    // ==========================================
+    private void run(Listener listener) {
+        List<Op> group = new ArrayList<>();
+        try {
+            restore(listener);
+            boolean stopping = false;
+            while (!stopping) {
+                Object o = queue.take();
+                if (o == STOP) break;
+                group.add((Op) o);
+                // 在很短的窗口内继续收集，同一批只 force 一次
+                long deadline = System.nanoTime() + LINGER_NANOS;
+                while (group.size() < MAX_GROUP) {
+                    long wait = deadline - System.nanoTime();
+                    o = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (o == null) break;
+                    if (o == STOP) { stopping = true; break; }
+                    group.add((Op) o);
+                }
+                commit(group);
+                group.clear();
+                if (journalRecords >= Math.max(COMPACT_MIN, paths.size() / 2)) compact();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (!group.isEmpty()) commit(group);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            closeJournal();
+        }
+    }
+
+    private void commit(List<Op> group) throws IOException {
+        buffer.clear();
+        int written = 0;
+        for (Op op : group) {
+            // 与当前状态相同的修改 (重复导入、删除不存在的曲目) 不落盘
+            if (op.type == OP_ADD) {
+                if (paths.putIfAbsent(op.key, op.path) != null) continue;
+            } else if (paths.remove(op.key) == null) {
+                continue;
+            }
+            byte[] bytes = op.path.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) { System.err.println("Path too long for library journal: " + op.path); continue; }
+            ensureCapacity(bytes.length + 7);
+            int start = buffer.position();
+            buffer.put(op.type).putShort((short) bytes.length).put(bytes);
+            crc.reset();
+            crc.update(buffer.array(), start, buffer.position() - start);
+            buffer.putInt((int) crc.getValue());
+            written++;
+        }
+        if (written == 0) return;
+        buffer.flip();
+        while (buffer.hasRemaining()) journal.write(buffer);
+        journal.force(false);
+        journalRecords += written;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer.remaining() >= extra) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+
+    // ==========================================
+    //   回放与迁移
+    // ==========================================
+    private void restore(Listener listener) throws IOException {
+        List<File> batch = new ArrayList<>(RESTORE_BATCH);
+        try {
+            if (Files.exists(snapshotFile)) {
+                generation = readSnapshot(listener, batch);
+            } else if (!Files.exists(journalFile) && Files.exists(legacyFile)) {
+                migrateLegacy(listener, batch);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        flush(listener, batch);
+        replayJournal(listener);
+    }
+
+    private long readSnapshot(Listener listener, List<File> batch) throws IOException {
+        long gen = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) {
+                System.err.println("Unrecognized library snapshot, ignored: " + snapshotFile);
+                return 0;
+            }
+            gen = in.readLong();
+            int count = in.readInt();
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int len = in.readUnsignedShort();
+                if (len > bytes.length) bytes = new byte[Math.max(len, bytes.length * 2)];
+                in.readFully(bytes, 0, len);
+                add(new String(bytes, 0, len, StandardCharsets.UTF_8), listener, batch);
+            }
+            if (in.readInt() != SNAPSHOT_MAGIC) System.err.println("Library snapshot has no end marker: " + snapshotFile);
+            return gen;
+        } catch (EOFException e) {
+            // 快照是整体替换的，正常不会截断；读到多少算多少，代数已经读到的话日志照常接着回放
+            System.err.println("Library snapshot truncated: " + snapshotFile);
+            return gen;
+        }
+    }
+
+    // 旧版 playlist.txt：每行一个绝对路径
+    private void migrateLegacy(Listener listener, List<File> batch) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(legacyFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) add(line.trim(), listener, batch);
+            }
+        }
+        writeSnapshot(1);
+        generation = 1;
+        try {
+            Files.move(legacyFile, legacyFile.resolveSibling(legacyFile.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not rename " + legacyFile + ": " + e.getMessage());
+        }
+    }
+
+    private void add(String path, Listener listener, List<File> batch) {
+        File file = new File(path);
+        if (paths.putIfAbsent(TrackRegistry.pathKey(file), path) != null) return;
+        batch.add(file);
+        if (batch.size() >= RESTORE_BATCH) flush(listener, batch);
+    }
+
+    private void flush(Listener listener, List<File> batch) {
+        if (batch.isEmpty()) return;
+        List<File> out = new ArrayList<>(batch);
+        batch.clear();
+        Platform.runLater(() -> listener.onRestored(out));
+    }
+
+    // 日志尾部只有压缩阈值那么长，读完再把净变化交给 FX 线程；遇到残缺记录就截断在那里
+    private void replayJournal(Listener listener) throws IOException {
+        long validEnd = JOURNAL_HEADER;
+        boolean usable = false;
+        Map<String, String> added = new LinkedHashMap<>();
+        List<File> removed = new ArrayList<>();
+        if (Files.exists(journalFile)) {
+            try (InputStream raw = Files.newInputStream(journalFile);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+                usable = in.readInt() == JOURNAL_MAGIC && in.readInt() == VERSION && in.readLong() == generation;
+                if (usable) {
+                    byte[] record = new byte[3 + 256];
+                    while (true) {
+                        int type = in.read();
+                        if (type < 0) break;
+                        int len = in.readUnsignedShort();
+                        if (record.length < len + 3) record = new byte[len + 3];
+                        record[0] = (byte) type;
+                        record[1] = (byte) (len >>> 8);
+                        record[2] = (byte) len;
+                        in.readFully(record, 3, len);
+                        int sum = in.readInt();
+                        crc.reset();
+                        crc.update(record, 0, len + 3);
+                        if ((int) crc.getValue() != sum || (type != OP_ADD && type != OP_REMOVE)) break;
+
+                        String path = new String(record, 3, len, StandardCharsets.UTF_8);
+                        String key = TrackRegistry.pathKey(new File(path));
+                        if (type == OP_ADD) {
+                            if (paths.putIfAbsent(key, path) == null) added.put(key, path);
+                        } else if (paths.remove(key) != null && added.remove(key) == null) {
+                            removed.add(new File(path));
+                        }
+                        journalRecords++;
+                        validEnd += 3 + len + 4;
+                    }
+                }
+            } catch (EOFException e) {
+                // 最后一批没写完就崩溃了
+            }
+        }
+
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (usable) {
+            if (journal.size() > validEnd) {
+                System.err.println("Library journal: discarding torn tail after " + validEnd + " bytes");
+                journal.truncate(validEnd);
+                journal.force(false);
+            }
+            journal.position(validEnd);
+        } else {
+            resetJournal();
+        }
+
+        if (!removed.isEmpty()) Platform.runLater(() -> listener.onRestoreRemoved(removed));
+        List<File> batch = new ArrayList<>(RESTORE_BATCH);
+        for (String path : added.values()) {
+            batch.add(new File(path));
+            if (batch.size() >= RESTORE_BATCH) flush(listener, batch);
+        }
+        flush(listener, batch);
+    }
+
+    // ==========================================
+    //   压缩
+    // ==========================================
+    private void compact() throws IOException {
+        long next = generation + 1;
+        writeSnapshot(next);
+        generation = next;
+        // 在这之前崩溃的话，旧代数的日志会被丢弃，而它的内容已经在新快照里了
+        resetJournal();
+    }
+
+    private void resetJournal() throws IOException {
+        journal.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER).putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(generation).flip();
+        journal.write(header, 0);
+        journal.force(false);
+        journal.position(JOURNAL_HEADER);
+        journalRecords = 0;
+    }
+
+    private void writeSnapshot(long gen) throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(gen);
+            List<byte[]> encoded = new ArrayList<>(paths.size());
+            for (String path : paths.values()) {
+                byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length <= 0xFFFF) encoded.add(bytes);
+            }
+            out.writeInt(encoded.size());
+            for (byte[] bytes : encoded) {
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.flush();
+            ch.force(true);
+        }
+        try {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        journal = null;
+    }
+}
@@ -0,0 +1,152 @@
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 后台曲库扫描器：每个目录一个虚拟线程递归遍历，结果按固定节奏
+ * 成批交给 FX 线程，避免导入大目录时卡住界面。
+ */
+public class LibraryScanner {
+
+    public interface ProgressListener {
+        void onProgress(int directories, int files, boolean finished);
+    }
+
+    // 同时列目录的上限，NAS 上并发太高反而更慢
+    private static final int MAX_CONCURRENT_LISTINGS = 16;
+    private static final Duration PUBLISH_INTERVAL = Duration.millis(150);
+    private static final int MAX_BATCH = 2000;
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore listingPermits = new Semaphore(MAX_CONCURRENT_LISTINGS);
+
+    public static boolean isAudioFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".mp3") || lower.endsWith(".wav");
+    }
+
+    /**
+     * 开始扫描。roots 可以是目录也可以是单个文件；
+     * publisher 和 listener 都在 FX 线程上回调。
+     */
+    public Scan scan(Collection<File> roots, Consumer<List<File>> publisher, ProgressListener listener) {
+        Scan scan = new Scan(publisher, listener);
+        for (File root : roots) {
+            if (root.isDirectory()) scan.submit(root.toPath());
+            else if (isAudioFile(root.getName())) scan.found(root);
+        }
+        scan.startPublishing();
+        return scan;
+    }
+
+    public void shutdown() { workers.shutdownNow(); }
+
+    public final class Scan {
+        private final Queue<File> results = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger directories = new AtomicInteger();
+        private final AtomicInteger files = new AtomicInteger();
+        private final Consumer<List<File>> publisher;
+        private final ProgressListener listener;
+        private final Timeline publishTimer;
+        private volatile boolean cancelled;
+        private boolean finished;
+
+        private Scan(Consumer<List<File>> publisher, ProgressListener listener) {
+            this.publisher = publisher;
+            this.listener = listener;
+            publishTimer = new Timeline(new KeyFrame(PUBLISH_INTERVAL, e -> publish()));
+            publishTimer.setCycleCount(Timeline.INDEFINITE);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            results.clear();
+        }
+
+        public boolean isCancelled() { return cancelled; }
+
+        public boolean isFinished() { return finished; }
+
+        public int getDirectoriesScanned() { return directories.get(); }
+
+        public int getFilesFound() { return files.get(); }
+
+        private void found(File file) {
+            results.add(file);
+            files.incrementAndGet();
+        }
+
+        private void submit(Path dir) {
+            pending.incrementAndGet();
+            workers.execute(() -> {
+                try {
+                    if (!cancelled) listDirectory(dir);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        }
+
+        private void listDirectory(Path dir) {
+            try {
+                listingPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                directories.incrementAndGet();
+                for (Path entry : stream) {
+                    if (cancelled) return;
+                    // 不跟随目录符号链接，避免循环
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) submit(entry);
+                    else if (isAudioFile(entry.getFileName().toString())) found(entry.toFile());
+                }
+            } catch (IOException | SecurityException e) {
+                System.err.println("Scan skipped " + dir + ": " + e.getMessage());
+            } finally {
+                listingPermits.release();
+            }
+        }
+
+        private void startPublishing() {
+            publishTimer.play();
+        }
+
+        // FX 线程：每个节拍最多合并 MAX_BATCH 个文件一次性交出去
+        private void publish() {
+            if (finished) return;
+            boolean done = cancelled || pending.get() == 0;
+            if (!cancelled) {
+                List<File> batch = new ArrayList<>(Math.min(MAX_BATCH, results.size()));
+                File f;
+                while (batch.size() < MAX_BATCH && (f = results.poll()) != null) batch.add(f);
+                if (!batch.isEmpty()) publisher.accept(batch);
+            }
+            if (done && (cancelled || results.isEmpty())) {
+                finished = true;
+                publishTimer.stop();
+            }
+            if (listener != null) listener.onProgress(directories.get(), files.get(), finished);
+        }
+    }
+}
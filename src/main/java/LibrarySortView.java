@@ -0,0 +1,564 @@
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableListBase;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 按标签排序 (可分组) 的曲库视图，放在曲库视图和搜索用的 FilteredList 之间 (只在 FX 线程上使用)。
+ * <p>
+ * 标题、艺人、专辑的排序键是 Collator 生成的 CollationKey 字节串 (中英文混排按拼音/字母)，
+ * 生成一个要几微秒，所以在后台线程上算好再交回来；艺人和专辑按字符串编成标签号，每个标签只存一份键。
+ * 比较时只做无符号字节比较，整列排序时先比压成 long 的前缀。每一列排过一次就把排列 (曲目 ID 数组) 缓存下来，
+ * 之后切换列只发一次置换通知；新增曲目先排好这一批再和已有排列归并，标签或排序键变了的曲目
+ * 拿出来重新归并，都不整体重排。按 "添加顺序" 时直接就是曲库顺序，不另存排列。
+ */
+public final class LibrarySortView extends ObservableListBase<Track> {
+
+    public enum Column {
+        ADDED("Date Added", false),
+        TITLE("Title", false),
+        ARTIST("Artist", true),
+        ALBUM("Album", true),
+        YEAR("Year", true),
+        DURATION("Duration", false);
+
+        public final String label;
+        /** 能否按这一列分组显示 */
+        public final boolean groupable;
+
+        Column(String label, boolean groupable) {
+            this.label = label;
+            this.groupable = groupable;
+        }
+    }
+
+    private static final int INSERTION_SORT = 16;
+    private static final int RANK_BITS = 21;
+
+    private final TrackRegistry library;
+    private final ExecutorService collation = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "collation");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    // 只在 collation 线程上使用
+    private final Collator collator = Collator.getInstance(Locale.CHINA);
+    private final Map<String, Integer> tagIds = new HashMap<>();
+
+    // 按 ID 的排序字段。标题键还没算出来时为 null，标签号 0 表示没有，都排在最后
+    private byte[][] titleKeys = new byte[1024][];
+    private int[] artistTags = new int[1024];
+    private int[] albumTags = new int[1024];
+    // 键的前 8 个字节，大部分比较到这里就分出先后，不用再去读字节数组
+    private long[] titlePrefix = new long[1024];
+    // 按标签号 (从 1 开始) 的键和名次 (键相同的名次相同)；tagOrder 是按键排好的标签号，新标签归并进去
+    private byte[][] tagKeys = new byte[256][];
+    private long[] tagPrefix = new long[256];
+    private int[] tagRanks = new int[256];
+    private int[] tagOrder = new int[256];
+    private int tagCount;
+    private int[] years = new int[1024];
+    private int[] trackNumbers = new int[1024];
+    private int[] durations = new int[1024];
+
+    // 各列缓存的排列 (曲目 ID)，有效长度都是 count
+    private final EnumMap<Column, int[]> sorted = new EnumMap<>(Column.class);
+    private int count;
+    private Column column = Column.ADDED;
+    private int[] order; // 当前列的排列，ADDED 时为 null
+    private boolean grouped;
+
+    public LibrarySortView(TrackRegistry library) {
+        this.library = library;
+        collator.setStrength(Collator.SECONDARY); // 不区分大小写
+        library.view().addListener(this::onLibraryChanged);
+        if (!library.isEmpty()) {
+            for (Track t : library.tracks()) {
+                ensureCapacity(t.getId());
+                setNumbers(t);
+            }
+            count = library.size();
+            refreshKeys(library.tracks());
+        }
+    }
+
+    @Override
+    public Track get(int index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException(index);
+        return order == null ? library.get(index) : library.byId(order[index]);
+    }
+
+    @Override
+    public int size() { return count; }
+
+    public Column getColumn() { return column; }
+
+    /** 曲目在本视图中的位置，不在曲库里时为 -1 */
+    public int indexOf(Track track) {
+        if (track == null || track.getIndex() < 0) return -1;
+        return order == null ? track.getIndex() : find(order, count, column, track.getId());
+    }
+
+    /** 换排序列：第一次按这一列时排一次并缓存，之后只发置换通知 */
+    public void setColumn(Column next) {
+        if (next == column) return;
+        int[] before = order;
+        int[] after = null;
+        if (next != Column.ADDED) {
+            after = sorted.get(next);
+            if (after == null) {
+                after = new int[Math.max(16, count)];
+                for (int i = 0; i < count; i++) after[i] = library.get(i).getId();
+                sortAll(after, count, next);
+                sorted.put(next, after);
+            }
+        }
+        column = next;
+        order = after;
+        if (count == 0) return;
+
+        int[] position = new int[titleKeys.length];
+        for (int i = 0; i < count; i++) position[idAt(after, i)] = i;
+        int[] permutation = new int[count];
+        for (int i = 0; i < count; i++) permutation[i] = position[idAt(before, i)];
+        beginChange();
+        nextPermutation(0, count, permutation);
+        endChange();
+    }
+
+    public boolean isGrouped() { return grouped && column.groupable; }
+
+    public void setGrouped(boolean grouped) { this.grouped = grouped; }
+
+    /** 分组标题，不分组时为 null */
+    public String groupOf(Track track) {
+        if (!isGrouped() || track == null) return null;
+        TrackMetadata m = track.getMetadata();
+        switch (column) {
+            case ARTIST: return m != null && m.hasArtist() ? m.getArtist() : "Unknown Artist";
+            case ALBUM:  return m != null && !m.getAlbum().isEmpty() ? m.getAlbum() : "Unknown Album";
+            case YEAR:   return m != null && m.getYear() > 0 ? String.valueOf(m.getYear()) : "Unknown Year";
+            default:     return null;
+        }
+    }
+
+    /** 标签更新了：后台重算排序键，算好后再挪动位置 */
+    public void update(List<Track> tracks) { refreshKeys(tracks); }
+
+    public void shutdown() { collation.shutdownNow(); }
+
+    // ==========================================
+    //   曲库增删
+    // ==========================================
+    private void onLibraryChanged(ListChangeListener.Change<? extends Track> c) {
+        beginChange();
+        while (c.next()) {
+            if (c.wasRemoved()) {
+                for (Track t : c.getRemoved()) removed(t, c.getFrom());
+            }
+            if (c.wasAdded()) added(new ArrayList<>(c.getAddedSubList()), c.getFrom());
+        }
+        endChange();
+    }
+
+    private void removed(Track track, int libraryIndex) {
+        int id = track.getId();
+        for (Map.Entry<Column, int[]> e : sorted.entrySet()) {
+            int[] p = e.getValue();
+            int at = find(p, count, e.getKey(), id);
+            if (at < 0) continue;
+            System.arraycopy(p, at + 1, p, at, count - at - 1);
+            if (p == order) nextRemove(at, track);
+        }
+        if (order == null) nextRemove(libraryIndex, track);
+        count--;
+        titleKeys[id] = null; titlePrefix[id] = 0;
+        artistTags[id] = 0; albumTags[id] = 0;
+        years[id] = 0; trackNumbers[id] = 0; durations[id] = 0;
+    }
+
+    private void added(List<Track> tracks, int libraryIndex) {
+        int[] ids = new int[tracks.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = tracks.get(i).getId();
+            ensureCapacity(ids[i]);
+        }
+        // 排序键还没有，先按已知的数字字段插进去，键算好后再挪位置
+        for (Track t : tracks) setNumbers(t);
+        mergeAll(ids);
+        if (order == null) nextAdd(libraryIndex, libraryIndex + ids.length);
+        count += ids.length;
+        refreshKeys(tracks);
+    }
+
+    // 把这批 ID 归并进每一个缓存的排列 (count 尚未加上这批)
+    private void mergeAll(int[] ids) {
+        int[] buffer = new int[ids.length];
+        for (Map.Entry<Column, int[]> e : sorted.entrySet()) {
+            int[] batch = ids.clone();
+            sort(batch, 0, batch.length, e.getKey(), buffer);
+            int[] p = e.getValue();
+            int[] merged = merge(p, batch, e.getKey(), p == order);
+            if (p == order) order = merged;
+            e.setValue(merged);
+        }
+    }
+
+    // ==========================================
+    //   排序键：后台生成，FX 线程上落地
+    // ==========================================
+    private void refreshKeys(List<Track> tracks) {
+        int n = tracks.size();
+        Track[] batch = tracks.toArray(new Track[0]);
+        String[] texts = new String[n * 3];
+        for (int i = 0; i < n; i++) {
+            TrackMetadata m = batch[i].getMetadata();
+            texts[i * 3] = batch[i].getDisplayTitle();
+            texts[i * 3 + 1] = m != null && m.hasArtist() ? m.getArtist() : null;
+            texts[i * 3 + 2] = m != null && !m.getAlbum().isEmpty() ? m.getAlbum() : null;
+        }
+        collation.execute(() -> {
+            byte[][] titles = new byte[n][];
+            int[] tags = new int[n * 2];
+            int firstTag = tagIds.size() + 1;
+            List<byte[]> newTags = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                titles[i] = collator.getCollationKey(texts[i * 3]).toByteArray();
+                for (int j = 1; j <= 2; j++) {
+                    String s = texts[i * 3 + j];
+                    if (s == null) continue;
+                    Integer tag = tagIds.get(s);
+                    if (tag == null) {
+                        tag = tagIds.size() + 1;
+                        tagIds.put(s, tag);
+                        newTags.add(collator.getCollationKey(s).toByteArray());
+                    }
+                    tags[i * 2 + j - 1] = tag;
+                }
+            }
+            Platform.runLater(() -> {
+                installTags(firstTag, newTags);
+                applyKeys(batch, titles, tags);
+            });
+        });
+    }
+
+    private void installTags(int first, List<byte[]> keys) {
+        int k = keys.size();
+        if (k == 0) return;
+        int need = first + k;
+        if (need > tagKeys.length) {
+            int capacity = Math.max(need, tagKeys.length * 2);
+            tagKeys = Arrays.copyOf(tagKeys, capacity);
+            tagPrefix = Arrays.copyOf(tagPrefix, capacity);
+            tagRanks = Arrays.copyOf(tagRanks, capacity);
+            tagOrder = Arrays.copyOf(tagOrder, capacity);
+        }
+        Integer[] added = new Integer[k];
+        for (int i = 0; i < k; i++) {
+            tagKeys[first + i] = keys.get(i);
+            tagPrefix[first + i] = prefix(keys.get(i));
+            added[i] = first + i;
+        }
+        Arrays.sort(added, this::compareTagKeys);
+        // 从后往前归并，再整体重编名次
+        int i = tagCount - 1, j = k - 1, w = tagCount + k - 1;
+        while (j >= 0) {
+            tagOrder[w--] = i >= 0 && compareTagKeys(tagOrder[i], added[j]) > 0 ? tagOrder[i--] : added[j--];
+        }
+        tagCount += k;
+        int rank = 0;
+        for (int r = 0; r < tagCount; r++) {
+            if (r > 0 && compareTagKeys(tagOrder[r - 1], tagOrder[r]) != 0) rank++;
+            tagRanks[tagOrder[r]] = rank;
+        }
+    }
+
+    private void applyKeys(Track[] batch, byte[][] titles, int[] tags) {
+        BitSet changed = new BitSet();
+        for (Track t : batch) {
+            if (t.getIndex() >= 0) changed.set(t.getId());
+        }
+        if (changed.isEmpty()) return;
+
+        // 先从各个排列里拿掉这些曲目 (用旧的键定位)，换上新键后再归并回去
+        beginChange();
+        for (Map.Entry<Column, int[]> e : sorted.entrySet()) {
+            int[] p = e.getValue();
+            boolean active = p == order;
+            int w = 0;
+            for (int i = 0; i < count; i++) {
+                int id = p[i];
+                if (!changed.get(id)) p[w++] = id;
+                else if (active) nextRemove(w, library.byId(id));
+            }
+        }
+        int removed = changed.cardinality();
+        count -= removed;
+        int[] ids = new int[removed];
+        for (int i = 0, k = 0; i < batch.length; i++) {
+            Track t = batch[i];
+            int id = t.getId();
+            if (!changed.get(id)) continue;
+            titleKeys[id] = titles[i];
+            titlePrefix[id] = prefix(titles[i]);
+            artistTags[id] = tags[i * 2];
+            albumTags[id] = tags[i * 2 + 1];
+            setNumbers(t);
+            changed.clear(id); // 同一批里重复出现的曲目只算一次
+            ids[k++] = id;
+        }
+        mergeAll(ids);
+        count += removed;
+        endChange();
+    }
+
+    private void setNumbers(Track t) {
+        int id = t.getId();
+        TrackMetadata m = t.getMetadata();
+        years[id] = m == null ? 0 : m.getYear();
+        trackNumbers[id] = m == null ? 0 : m.getTrackNumber();
+        durations[id] = (int) Math.min(t.getDurationMillis(), Integer.MAX_VALUE);
+    }
+
+    // ==========================================
+    //   比较 / 排序 / 归并
+    // ==========================================
+    private int compare(Column col, int a, int b) {
+        int c = 0;
+        switch (col) {
+            case TITLE:
+                c = compareTitles(a, b);
+                if (c == 0) c = compareTags(artistTags, a, b);
+                break;
+            case ARTIST:
+                c = compareTags(artistTags, a, b);
+                if (c == 0) c = compareTags(albumTags, a, b);
+                if (c == 0) c = compareNumbers(trackNumbers[a], trackNumbers[b]);
+                if (c == 0) c = compareTitles(a, b);
+                break;
+            case ALBUM:
+                c = compareTags(albumTags, a, b);
+                if (c == 0) c = compareNumbers(trackNumbers[a], trackNumbers[b]);
+                if (c == 0) c = compareTitles(a, b);
+                break;
+            case YEAR:
+                c = compareNumbers(years[a], years[b]);
+                if (c == 0) c = compareTags(artistTags, a, b);
+                if (c == 0) c = compareTags(albumTags, a, b);
+                if (c == 0) c = compareNumbers(trackNumbers[a], trackNumbers[b]);
+                break;
+            case DURATION:
+                c = compareNumbers(durations[a], durations[b]);
+                if (c == 0) c = compareTitles(a, b);
+                break;
+            default:
+                break;
+        }
+        // 完全相同时按添加顺序，保证是全序 (二分查找靠它)
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+    // 没有值的排在最后
+    private int compareTitles(int a, int b) {
+        byte[] x = titleKeys[a], y = titleKeys[b];
+        if (x == y) return 0;
+        if (x == null) return 1;
+        if (y == null) return -1;
+        int c = Long.compareUnsigned(titlePrefix[a], titlePrefix[b]);
+        return c != 0 ? c : Arrays.compareUnsigned(x, y);
+    }
+
+    private int compareTags(int[] tags, int a, int b) {
+        int x = tags[a], y = tags[b];
+        if (x == y) return 0;
+        if (x == 0) return 1;
+        if (y == 0) return -1;
+        return compareTagKeys(x, y);
+    }
+
+    private int compareTagKeys(int x, int y) {
+        int c = Long.compareUnsigned(tagPrefix[x], tagPrefix[y]);
+        return c != 0 ? c : Arrays.compareUnsigned(tagKeys[x], tagKeys[y]);
+    }
+
+    private static long prefix(byte[] key) {
+        long p = 0;
+        for (int i = 0; i < 8; i++) p = p << 8 | (key != null && i < key.length ? key[i] & 0xFF : 0);
+        return p;
+    }
+
+    private static int compareNumbers(int x, int y) {
+        if ((x == 0) != (y == 0)) return x == 0 ? 1 : -1;
+        return Integer.compare(x, y);
+    }
+
+    private int find(int[] p, int n, Column col, int id) {
+        int lo = 0, hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(col, p[mid], id);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    // 整列排序：先按压进一个 long 的前缀 (艺人/专辑的名次、数字字段、标题键的前几个字节) 排，
+    // 前缀相同的一小段再用完整的比较。前缀的先后与 compare 一致，所以结果完全相同
+    private void sortAll(int[] ids, int n, Column col) {
+        boolean byArtist = col == Column.ARTIST || col == Column.YEAR;
+        boolean byAlbum = byArtist || col == Column.ALBUM;
+        int[] artist = byArtist ? ranks(artistTags, ids, n) : null;
+        int[] album = byAlbum ? ranks(albumTags, ids, n) : null;
+        if ((byArtist && artist == null) || (byAlbum && album == null)) {
+            sort(ids, 0, n, col, new int[n]);
+            return;
+        }
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int id = ids[i];
+            long title = titleKeys[id] == null ? -1L : titlePrefix[id];
+            long k;
+            switch (col) {
+                case TITLE:    k = title; break;
+                case ARTIST:   k = (long) artist[id] << 42 | (long) album[id] << 21 | unknownLast(trackNumbers[id]) & 0xFFFF; break;
+                case ALBUM:    k = (long) album[id] << 42 | (long) (unknownLast(trackNumbers[id]) & 0xFFFF) << 26 | title >>> 38; break;
+                case YEAR:     k = (long) (unknownLast(years[id]) & 0xFFFF) << 48 | (long) artist[id] << 27 | (long) album[id] << 6; break;
+                case DURATION: k = (long) unknownLast(durations[id]) << 32 | title >>> 32; break;
+                default:       k = id; break;
+            }
+            keys[i] = k ^ Long.MIN_VALUE; // 无符号比较变成有符号比较
+        }
+        sortPairs(keys, ids, 0, n - 1);
+        int[] buffer = null;
+        for (int i = 0, j; i < n; i = j) {
+            j = i + 1;
+            while (j < n && keys[j] == keys[i]) j++;
+            if (j - i > 1) {
+                if (buffer == null) buffer = new int[n];
+                sort(ids, i, j, col, buffer);
+            }
+        }
+    }
+
+    private static int unknownLast(int value) { return value == 0 ? -1 : value; }
+
+    // 按 ID 取标签的名次，没有标签的排最后
+    private int[] ranks(int[] tags, int[] ids, int n) {
+        if (tagCount >= (1 << RANK_BITS) - 1) return null;
+        int[] byId = new int[titleKeys.length];
+        for (int i = 0; i < n; i++) {
+            int tag = tags[ids[i]];
+            byId[ids[i]] = tag == 0 ? (1 << RANK_BITS) - 1 : tagRanks[tag];
+        }
+        return byId;
+    }
+
+    // keys 和 ids 一起做三路快速排序 [lo, hi]
+    private static void sortPairs(long[] keys, int[] ids, int lo, int hi) {
+        while (hi - lo >= INSERTION_SORT) {
+            int mid = (lo + hi) >>> 1;
+            long a = keys[lo], b = keys[mid], c = keys[hi];
+            long pivot = a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+            int lt = lo, gt = hi, i = lo;
+            while (i <= gt) {
+                long k = keys[i];
+                if (k < pivot) swap(keys, ids, lt++, i++);
+                else if (k > pivot) swap(keys, ids, i, gt--);
+                else i++;
+            }
+            // 先递归短的一边，栈深度不超过 log n
+            if (lt - lo < hi - gt) { sortPairs(keys, ids, lo, lt - 1); lo = gt + 1; }
+            else { sortPairs(keys, ids, gt + 1, hi); hi = lt - 1; }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            long k = keys[i];
+            int id = ids[i], j = i - 1;
+            while (j >= lo && keys[j] > k) { keys[j + 1] = keys[j]; ids[j + 1] = ids[j]; j--; }
+            keys[j + 1] = k;
+            ids[j + 1] = id;
+        }
+    }
+
+    private static void swap(long[] keys, int[] ids, int i, int j) {
+        long k = keys[i]; keys[i] = keys[j]; keys[j] = k;
+        int id = ids[i]; ids[i] = ids[j]; ids[j] = id;
+    }
+
+    // 归并排序 a[from, to)，buffer 至少 to - from 长
+    private void sort(int[] a, int from, int to, Column col, int[] buffer) {
+        if (to - from <= INSERTION_SORT) {
+            for (int i = from + 1; i < to; i++) {
+                int v = a[i], j = i - 1;
+                while (j >= from && compare(col, a[j], v) > 0) { a[j + 1] = a[j]; j--; }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(a, from, mid, col, buffer);
+        sort(a, mid, to, col, buffer);
+        if (compare(col, a[mid - 1], a[mid]) <= 0) return; // 已经有序
+        System.arraycopy(a, from, buffer, 0, mid - from);
+        int i = 0, j = mid, w = from, left = mid - from;
+        while (i < left && j < to) a[w++] = compare(col, buffer[i], a[j]) <= 0 ? buffer[i++] : a[j++];
+        while (i < left) a[w++] = buffer[i++];
+    }
+
+    // 已排好的 batch 归并进 p[0, count)，从后往前做，容量够时不另开数组；notify 时给新位置发插入通知
+    private int[] merge(int[] p, int[] batch, Column col, boolean notify) {
+        int n = count, k = batch.length;
+        int[] out = p.length >= n + k ? p : Arrays.copyOf(p, Math.max(n + k, p.length + (p.length >> 1)));
+        int[] at = notify ? new int[k] : null;
+        int i = n - 1, j = k - 1, w = n + k - 1;
+        while (j >= 0) {
+            if (i >= 0 && compare(col, out[i], batch[j]) > 0) {
+                out[w--] = out[i--];
+            } else {
+                if (at != null) at[j] = w;
+                out[w--] = batch[j--];
+            }
+        }
+        if (at != null) {
+            // 相邻的位置合成一段
+            for (int s = 0; s < k; ) {
+                int e = s + 1;
+                while (e < k && at[e] == at[e - 1] + 1) e++;
+                nextAdd(at[s], at[e - 1] + 1);
+                s = e;
+            }
+        }
+        return out;
+    }
+
+    private int idAt(int[] p, int index) {
+        return p == null ? library.get(index).getId() : p[index];
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < titleKeys.length) return;
+        int capacity = titleKeys.length;
+        while (capacity <= id) capacity <<= 1;
+        titleKeys = Arrays.copyOf(titleKeys, capacity);
+        titlePrefix = Arrays.copyOf(titlePrefix, capacity);
+        artistTags = Arrays.copyOf(artistTags, capacity);
+        albumTags = Arrays.copyOf(albumTags, capacity);
+        years = Arrays.copyOf(years, capacity);
+        trackNumbers = Arrays.copyOf(trackNumbers, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+    }
+}
@@ -0,0 +1,85 @@
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 启动后在后台核对已保存的曲目：每首一次 stat，并发数有上限。
+ * 文件还在的把 stat 结果直接交给标签读取 (由它按大小和修改时间判断目录缓存是否过期)；
+ * 找不到的曲目合并成批，回到 FX 线程标记为缺失。曲库先上屏，不用等这里。
+ */
+public class LibraryValidator {
+
+    // 与扫描器一样，NAS 上并发太高反而更慢
+    private static final int MAX_CONCURRENT_STATS = 16;
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits = new Semaphore(MAX_CONCURRENT_STATS);
+    private final MetadataExtractor metadataExtractor;
+    private final Consumer<List<Track>> onMissing;
+
+    private final Queue<Track> missing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    /** onMissing 在 FX 线程上回调，参数是本批新标记为缺失的曲目 */
+    public LibraryValidator(MetadataExtractor metadataExtractor, Consumer<List<Track>> onMissing) {
+        this.metadataExtractor = metadataExtractor;
+        this.onMissing = onMissing;
+    }
+
+    public void validate(List<Track> tracks) {
+        for (Track track : tracks) workers.execute(() -> check(track));
+    }
+
+    public void shutdown() { workers.shutdownNow(); }
+
+    private void check(Track track) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(track.getFile().toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attrs = null;
+        } catch (IOException | SecurityException e) {
+            // 共享暂时不可达，不当作缺失
+            System.err.println("Validate skipped " + track.getFile() + ": " + e.getMessage());
+            return;
+        } finally {
+            permits.release();
+        }
+        if (attrs != null && attrs.isRegularFile()) {
+            metadataExtractor.submit(track, attrs.size(), attrs.lastModifiedTime().toMillis());
+        } else {
+            missing.add(track);
+            if (drainScheduled.compareAndSet(false, true)) Platform.runLater(this::drain);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        List<Track> batch = new ArrayList<>();
+        Track track;
+        while ((track = missing.poll()) != null) {
+            if (track.getIndex() < 0 || track.isMissing()) continue; // 期间已经删掉了
+            track.setMissing(true);
+            batch.add(track);
+        }
+        if (!batch.isEmpty()) onMissing.accept(batch);
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持久化的元数据目录 (二进制，内存映射)。
+ * 以 路径 + 大小 + 修改时间 为键，文件没变就直接复用上次解析的结果。
+ *
+ * 文件格式：
+ *   int magic, int version, int count, int tableOffset, int tableCapacity
+ *   count × { utf path, long size, long mtime, long durationMs, int bitrate,
+ *             short track, short year, utf title, utf artist, utf album }
+ *   tableCapacity × { long pathHash, int entryOffset }   开放寻址哈希表，空槽 offset = -1
+ *   int magic (结尾标记，缺失说明文件没写完)
+ * utf = unsigned short 长度 + UTF-8 字节。
+ *
+ * 哈希表直接存在文件里，load() 只做映射和校验，不解码任何条目。
+ * 有改动后在后台线程上延迟保存 (连续解析一大批只写一次)，退出时 close() 再补写一次。
+ */
+public class MetadataCatalog {
+
+    private static final int MAGIC = 0x45434154; // "ECAT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int SLOT_SIZE = 12;
+    private static final int FIXED_FIELDS = 8 + 8 + 8 + 4 + 2 + 2;
+
+    private static final Entry REMOVED = new Entry(-1, -1, null);
+
+    private final Path file;
+    private final Path tempFile;
+
+    private static final long SAVE_DELAY_SECONDS = 10;
+
+    private MappedByteBuffer mapped;
+    private int tableOffset;
+    private int tableCapacity;
+    // 本次运行新写入 / 删除 / 已解码的条目，优先于映射区
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty;
+    private boolean saveScheduled;
+    private final ScheduledThreadPoolExecutor saver = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "metadata-catalog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Entry {
+        final long size;
+        final long mtime;
+        final TrackMetadata metadata;
+
+        Entry(long size, long mtime, TrackMetadata metadata) {
+            this.size = size;
+            this.mtime = mtime;
+            this.metadata = metadata;
+        }
+    }
+
+    public MetadataCatalog(Path file) {
+        this.file = file;
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        saver.setExecuteExistingDelayedTasksAfterShutdownPolicy(false); // 退出时由 close() 同步保存
+    }
+
+    public synchronized void load() {
+        try {
+            // 上次保存时无法覆盖正在映射的旧文件 (Windows)，留下了完整的临时文件
+            if (Files.exists(tempFile)) {
+                if (isComplete(tempFile)) Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+                else Files.delete(tempFile);
+            }
+            if (Files.exists(file)) map();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            System.err.println("Metadata catalog ignored: " + e.getMessage());
+            mapped = null;
+        }
+    }
+
+    // 映射目录文件并校验头尾，不完整时不用
+    private void map() throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        int limit = buf.limit();
+        if (limit < HEADER_SIZE + 4 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+                || buf.getInt(limit - 4) != MAGIC) return;
+        int offset = buf.getInt(12);
+        int capacity = buf.getInt(16);
+        if (Integer.bitCount(capacity) != 1 || (long) offset + (long) capacity * SLOT_SIZE != limit - 4) return;
+        mapped = buf;
+        tableOffset = offset;
+        tableCapacity = capacity;
+    }
+
+    /** 大小和修改时间都对得上才返回缓存，否则返回 null 表示需要重新解析 */
+    public synchronized TrackMetadata lookup(String pathKey, long size, long mtime) {
+        Entry e = entry(pathKey);
+        if (e == null || e.size != size || e.mtime != mtime) return null;
+        return e.metadata;
+    }
+
+    public synchronized void put(String pathKey, long size, long mtime, TrackMetadata metadata) {
+        entries.put(pathKey, new Entry(size, mtime, metadata));
+        markDirty();
+    }
+
+    /** 曲目移出曲库。在保存线程上执行，正在保存时也不阻塞调用方 (FX 线程) */
+    public void remove(String pathKey) {
+        saver.execute(() -> {
+            synchronized (this) {
+                entries.put(pathKey, REMOVED);
+                markDirty();
+            }
+        });
+    }
+
+    /** 等排队的删除做完，再把剩下的改动同步写盘 (退出时调用) */
+    public void close() {
+        saver.shutdown();
+        try { saver.awaitTermination(2, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        try { save(); } catch (IOException e) { e.printStackTrace(); }
+    }
+
+    // 第一次变脏时安排一次延迟保存，等待期间的改动合并进同一次写
+    private void markDirty() {
+        dirty = true;
+        if (saveScheduled || saver.isShutdown()) return;
+        saveScheduled = true;
+        saver.schedule(() -> {
+            synchronized (this) { saveScheduled = false; }
+            try { save(); } catch (IOException e) { e.printStackTrace(); }
+        }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public synchronized boolean isDirty() { return dirty; }
+
+    /** 整体写入临时文件后原子替换 */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+        int total = mapped == null ? 0 : mapped.getInt(8);
+        int count = 0;
+        for (Entry e : entries.values()) if (e != REMOVED) count++;
+        long[] hashes = new long[total + count];
+        int[] offsets = new int[total + count];
+        int written = 0;
+
+        try (OutputStream os = Files.newOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0); // 条目数和哈希表位置最后回填
+            out.writeInt(0);
+            out.writeInt(0);
+            // 映射区里没被覆盖的条目原样拷贝字节，不用解码
+            if (mapped != null) {
+                int pos = HEADER_SIZE;
+                byte[] copy = new byte[4096];
+                for (int i = 0; i < total; i++) {
+                    int len = Short.toUnsignedInt(mapped.getShort(pos));
+                    int end = skipEntry(mapped, pos + 2 + len);
+                    if (entries.isEmpty() || !entries.containsKey(pathAt(pos))) {
+                        hashes[written] = hash(mapped, pos + 2, len);
+                        offsets[written++] = out.size();
+                        for (int p = pos; p < end; p += copy.length) {
+                            int n = Math.min(copy.length, end - p);
+                            mapped.get(p, copy, 0, n);
+                            out.write(copy, 0, n);
+                        }
+                    }
+                    pos = end;
+                }
+            }
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                if (e == REMOVED) continue;
+                TrackMetadata m = e.metadata;
+                byte[] path = utf8(me.getKey());
+                hashes[written] = hash(path);
+                offsets[written++] = out.size();
+                out.writeShort(path.length);
+                out.write(path);
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeLong(m.getDurationMillis());
+                out.writeInt(m.getBitrate());
+                out.writeShort(m.getTrackNumber());
+                out.writeShort(m.getYear());
+                writeUtf(out, m.getTitle());
+                writeUtf(out, m.getArtist());
+                writeUtf(out, m.getAlbum());
+            }
+
+            int capacity = Integer.highestOneBit(Math.max(16, written * 2)) << 1;
+            long[] slotHashes = new long[capacity];
+            int[] slotOffsets = new int[capacity];
+            Arrays.fill(slotOffsets, -1);
+            for (int i = 0; i < written; i++) {
+                int slot = (int) hashes[i] & (capacity - 1);
+                while (slotOffsets[slot] != -1) slot = (slot + 1) & (capacity - 1);
+                slotHashes[slot] = hashes[i];
+                slotOffsets[slot] = offsets[i];
+            }
+            int table = out.size();
+            for (int i = 0; i < capacity; i++) {
+                out.writeLong(slotHashes[i]);
+                out.writeInt(slotOffsets[i]);
+            }
+            out.writeInt(MAGIC);
+            out.flush();
+
+            try (FileChannel ch = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(12).putInt(written).putInt(table).putInt(capacity).flip();
+                ch.write(header, 8);
+                ch.force(true);
+            }
+        }
+        MappedByteBuffer old = mapped;
+        mapped = null;
+        try {
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // 旧文件仍被映射占用时保留临时文件，下次 load() 再替换；本次运行继续用旧映射和内存里的条目
+            System.err.println("Metadata catalog kept in " + tempFile + ": " + e.getMessage());
+            mapped = old;
+            return;
+        }
+        dirty = false;
+        // 运行中保存后改映射新文件，内存里的条目都已写进去
+        try {
+            map();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            System.err.println("Metadata catalog not remapped: " + e.getMessage());
+        }
+        if (mapped != null) entries.clear();
+    }
+
+    private Entry entry(String pathKey) {
+        Entry e = entries.get(pathKey);
+        if (e == REMOVED) return null;
+        if (e != null || mapped == null) return e;
+        byte[] key = utf8(pathKey);
+        long hash = hash(key);
+        int mask = tableCapacity - 1;
+        int offset = -1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            int at = tableOffset + slot * SLOT_SIZE;
+            int candidate = mapped.getInt(at + 8);
+            if (candidate == -1) break;
+            if (mapped.getLong(at) == hash && samePath(candidate, key)) { offset = candidate; break; }
+        }
+        if (offset < 0) return null;
+        ByteBuffer buf = mapped.duplicate();
+        buf.position(offset + 2 + key.length);
+        long size = buf.getLong();
+        long mtime = buf.getLong();
+        long duration = buf.getLong();
+        int bitrate = buf.getInt();
+        int track = buf.getShort();
+        int year = buf.getShort();
+        String title = readUtf(buf);
+        String artist = readUtf(buf);
+        String album = readUtf(buf);
+        e = new Entry(size, mtime, new TrackMetadata(title, artist, album, track, year, duration, bitrate));
+        entries.put(pathKey, e);
+        return e;
+    }
+
+    // pos 指向路径之后的固定字段，返回下一条目的起始位置
+    private static int skipEntry(ByteBuffer buf, int pos) {
+        pos += FIXED_FIELDS;
+        for (int i = 0; i < 3; i++) pos += 2 + Short.toUnsignedInt(buf.getShort(pos));
+        return pos;
+    }
+
+    private String pathAt(int pos) {
+        int len = Short.toUnsignedInt(mapped.getShort(pos));
+        byte[] bytes = new byte[len];
+        mapped.get(pos + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean samePath(int pos, byte[] key) {
+        if (Short.toUnsignedInt(mapped.getShort(pos)) != key.length) return false;
+        for (int i = 0; i < key.length; i++) if (mapped.get(pos + 2 + i) != key[i]) return false;
+        return true;
+    }
+
+    // FNV-1a 64
+    private static long hash(ByteBuffer buf, int pos, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < len; i++) { h ^= buf.get(pos + i) & 0xFF; h *= 0x100000001b3L; }
+        return h;
+    }
+
+    private static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) { h ^= b & 0xFF; h *= 0x100000001b3L; }
+        return h;
+    }
+
+    private static boolean isComplete(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_SIZE + 4) return false;
+            ByteBuffer tail = ByteBuffer.allocate(4);
+            ch.read(tail, size - 4);
+            return tail.getInt(0) == MAGIC;
+        }
+    }
+
+    // 路径超过 64KB 的情况忽略不计，按字节截断
+    private static byte[] utf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= 0xFFFF ? bytes : Arrays.copyOf(bytes, 0xFFFF);
+    }
+
+    private static String readUtf(ByteBuffer buf) {
+        int len = Short.toUnsignedInt(buf.getShort());
+        if (len == 0) return "";
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeUtf(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = utf8(s);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,133 @@
+import com.mpatric.mp3agic.ID3v1;
+import com.mpatric.mp3agic.ID3v2;
+import com.mpatric.mp3agic.Mp3File;
+import javafx.application.Platform;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 标签读取：在后台线程池里并行解析 ID3v1/ID3v2，顺带只读文件头算出时长 (DurationScanner)，
+ * 命中元数据目录的文件直接跳过解析。结果合并后回到 FX 线程。
+ */
+public class MetadataExtractor {
+
+    private final MetadataCatalog catalog;
+    private final Consumer<List<Track>> onUpdated;
+    private final ObjLongConsumer<Track> onSized;
+    private final ExecutorService workers;
+
+    private final Queue<Object[]> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    /**
+     * onUpdated 在 FX 线程上回调，参数是本批拿到元数据的曲目；
+     * onSized 在工作线程上收到每首曲目 stat 到的文件大小 (给查重用，不必再 stat 一次)
+     */
+    public MetadataExtractor(MetadataCatalog catalog, Consumer<List<Track>> onUpdated, ObjLongConsumer<Track> onSized) {
+        this.catalog = catalog;
+        this.onUpdated = onUpdated;
+        this.onSized = onSized;
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "metadata-extractor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    public void submit(List<Track> tracks) {
+        for (Track track : tracks) workers.execute(() -> process(track));
+    }
+
+    /** 调用方已经 stat 过文件时使用，省掉一次文件系统访问 */
+    public void submit(Track track, long size, long mtime) {
+        workers.execute(() -> process(track, size, mtime));
+    }
+
+    public void shutdown() { workers.shutdownNow(); }
+
+    private void process(Track track) {
+        File file = track.getFile();
+        long size = file.length();
+        long mtime = file.lastModified();
+        if (size == 0 && mtime == 0) return; // 文件已经不存在
+        process(track, size, mtime);
+    }
+
+    private void process(Track track, long size, long mtime) {
+        onSized.accept(track, size);
+        File file = track.getFile();
+        TrackMetadata metadata = catalog.lookup(track.getPathKey(), size, mtime);
+        if (metadata == null) {
+            metadata = read(file);
+            if (metadata == null) return;
+            catalog.put(track.getPathKey(), size, mtime, metadata);
+        }
+        ready.add(new Object[] { track, metadata });
+        if (drainScheduled.compareAndSet(false, true)) Platform.runLater(this::drain);
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        List<Track> updated = new ArrayList<>();
+        Object[] item;
+        while ((item = ready.poll()) != null) {
+            Track track = (Track) item[0];
+            track.setMetadata((TrackMetadata) item[1]);
+            updated.add(track);
+        }
+        if (!updated.isEmpty()) onUpdated.accept(updated);
+    }
+
+    static TrackMetadata read(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".wav")) {
+            // WAV 没有标签，只记时长
+            long millis = DurationScanner.wavMillis(file);
+            return millis > 0 ? new TrackMetadata(null, null, null, 0, 0, millis, 0) : null;
+        }
+        if (!name.endsWith(".mp3")) return null;
+        try {
+            // 不逐帧扫描全文件，时长从第一帧的 Xing/VBRI 头或码率算
+            Mp3File mp3 = new Mp3File(file, DurationScanner.MP3_BUFFER, false);
+            ID3v2 v2 = mp3.hasId3v2Tag() ? mp3.getId3v2Tag() : null;
+            ID3v1 v1 = mp3.hasId3v1Tag() ? mp3.getId3v1Tag() : null;
+            return new TrackMetadata(
+                    pick(v2 == null ? null : v2.getTitle(), v1 == null ? null : v1.getTitle()),
+                    pick(v2 == null ? null : v2.getArtist(), v1 == null ? null : v1.getArtist()),
+                    pick(v2 == null ? null : v2.getAlbum(), v1 == null ? null : v1.getAlbum()),
+                    leadingInt(pick(v2 == null ? null : v2.getTrack(), v1 == null ? null : v1.getTrack())),
+                    leadingInt(pick(v2 == null ? null : v2.getYear(), v1 == null ? null : v1.getYear())),
+                    DurationScanner.mp3Millis(file, mp3),
+                    mp3.hasXingFrame() ? mp3.getXingBitrate() : mp3.getBitrate());
+        } catch (Exception e) {
+            System.err.println("Tag read failed " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String pick(String preferred, String fallback) {
+        if (preferred != null && !preferred.isBlank()) return preferred;
+        return fallback;
+    }
+
+    // "3/12" -> 3, "2010-05-01" -> 2010
+    private static int leadingInt(String s) {
+        if (s == null) return 0;
+        int value = 0, i = 0;
+        s = s.trim();
+        while (i < s.length() && i < 9 && Character.isDigit(s.charAt(i))) value = value * 10 + (s.charAt(i++) - '0');
+        return Math.min(value, Short.MAX_VALUE);
+    }
+}
@@ -2,29 +2,31 @@ import javafx.animation.*;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
+import javafx.css.PseudoClass;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextField;
 import javafx.scene.control.*;
-import javafx.scene.effect.DropShadow;
-import javafx.scene.effect.Glow;
-import javafx.scene.effect.Reflection;
+import javafx.scene.image.Image;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.*;
-import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.ImagePattern;
 import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Paint;
 import javafx.scene.paint.Stop;
 import javafx.scene.shape.Circle;
 import javafx.scene.shape.Rectangle;
@@ -37,25 +39,127 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 
 import java.awt.*;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
 
 public class ModernMusicPlayer extends Application {
 
     private MediaPlayer mediaPlayer;
-    private List<File> playList = new ArrayList<>();
-    private ObservableList<String> listModel = FXCollections.observableArrayList();
-    private FilteredList<String> filteredList;
-    private int currentIndex = -1;
+    // 曲库 (按添加顺序)；列表显示的是它之上的排序 / 分组视图，搜索过滤再套在外面，都不另存元素
+    private final TrackRegistry library = new TrackRegistry();
+    private final LibrarySortView sortedView = new LibrarySortView(library);
+    private FilteredList<Track> filteredList;
+    private Track currentTrack;
+
+    // --- 后台扫描 ---
+    private final LibraryScanner scanner = new LibraryScanner();
+    private final List<LibraryScanner.Scan> activeScans = new ArrayList<>();
+
+    // --- 按内容查重 (导入策略由 -Decho.duplicates=keep|skip|link 决定)，文件大小由标签读取顺带报上来 ---
+    private final DuplicateDetector duplicateDetector = new DuplicateDetector();
+
+    // --- 标签元数据 ---
+    private final MetadataCatalog metadataCatalog = new MetadataCatalog(Paths.get("metadata.cat"));
+    private final MetadataExtractor metadataExtractor = new MetadataExtractor(metadataCatalog, this::onMetadataUpdated, duplicateDetector::sized);
+    // 曲库持久化：快照 + 追加日志，取代退出时整体重写 playlist.txt
+    private final LibraryJournal libraryJournal = new LibraryJournal(Paths.get(""));
+    // 恢复的曲目先上屏，是否还存在由后台核对
+    private final LibraryValidator libraryValidator = new LibraryValidator(metadataExtractor, this::onTracksMissing);
+    // "重复文件" 视图
+    private final ObservableList<Track> duplicatesView = FXCollections.observableArrayList();
+    private MenuItem duplicatesItem;
+    private String listTitleBase = "LIBRARY";
+    // 标题上临时显示的操作结果 (如播放列表导入了多少条)，几秒后消失
+    private String listNotice;
+    private PauseTransition noticeTimeout;
+    // M3U / M3U8 / PLS 的流式导入导出
+    private final PlaylistFiles playlistFiles = new PlaylistFiles();
+    // 曲库目录的增量同步
+    private final FolderWatcher folderWatcher = new FolderWatcher(new FolderWatcher.Listener() {
+        @Override public void onFilesChanged(List<File> upserted, List<File> deleted) { applyFolderChanges(upserted, deleted); }
+        @Override public void onDirectoryRescanned(File dir, List<File> present) { applyDirectoryRescan(dir, present); }
+        @Override public void onDirectoryUnreachable(File dir) { libraryValidator.validate(tracksUnder(dir)); }
+    });
+
+    // --- 搜索 ---
+    private static final Duration SEARCH_DEBOUNCE = Duration.millis(120);
+    private final SearchIndex searchIndex = new SearchIndex();
+    private PauseTransition searchDebounce;
+    private int searchGeneration;
+    private BitSet searchResult;
+
+    // --- 智能播放列表：按标签字段建索引的查询，成员随曲库增量维护 ---
+    private final QueryEngine queryEngine = new QueryEngine();
+    private final SmartPlaylists smartPlaylists = new SmartPlaylists(Paths.get("smart-playlists.txt"), queryEngine);
+    private SmartPlaylists.Playlist activePlaylist;
+    // 过了午夜按日期算的列表 (最近 N 天放过的、最近 30 天常听的) 要重算
+    private PauseTransition dayRollover;
+    private long playlistDay;
+
+    // --- 播放历史：事件日志 + 播放次数 / 最近播放 / 跳过率，智能播放列表可按 plays、recentplays、skips、lastplayed 查询 ---
+    private static final long PLAY_COUNT_MILLIS = 4 * 60 * 1000; // 放够一半或 4 分钟才算一次播放
+    private final PlayHistory history = new PlayHistory(Paths.get("play-history.log"), library);
+    private final QueryEngine.NumberIndex playsField = queryEngine.numberField("plays");
+    private final QueryEngine.NumberIndex skipsField = queryEngine.numberField("skips");
+    private final QueryEngine.NumberIndex lastPlayedField = queryEngine.ageField("lastplayed");
+    private final QueryEngine.NumberIndex recentPlaysField = queryEngine.windowField("recentplays");
+    private Track historyTrack; // 已经出声、还没记进历史的那一首
+
+    // 曲库 / 搜索结果 / 剩余队列的总时长，随增删、标签和搜索结果增量更新
+    private final PlaytimeTotals playtime = new PlaytimeTotals();
+    // 随机模式：惰性洗牌 + 播放历史 (上一首沿历史往回)
+    private final ShuffleQueue shuffle = new ShuffleQueue(library::byId, playtime::millis, 200);
+
+    // --- 异步切歌 ---
+    private final TrackSwitcher trackSwitcher = new TrackSwitcher(new TrackSwitcher.Listener() {
+        @Override public void onPrepared(Track track, MediaPlayer player) { onPlayerPrepared(track, player); }
+        @Override public void onFailed(Track track, Exception error) { onPlayerFailed(track, error); }
+    });
+
+    // --- 无缝衔接：提前预热下一首 (秒数可用 -Decho.preloadSeconds 调整，0 关闭；播放器在切歌的后台线程上建) ---
+    private final NextTrackPreloader preloader = new NextTrackPreloader(trackSwitcher, Double.parseDouble(System.getProperty("echo.preloadSeconds", "5")));
+
+    // --- WAV 波形概览 (画在进度条背后，缓存在 waveforms 目录) ---
+    private final WaveformOverview waveforms = new WaveformOverview(Paths.get("waveforms"));
+    private WaveformRenderer waveform;
+
+    // --- 专辑封面 (内存 LRU 上限可用 -Decho.artCacheMB 调整；-Decho.cellArt=true 时列表里也显示) ---
+    private static final int LABEL_ART_SIZE = 200; // 黑胶中心直径 100，按 2 倍像素取图
+    private final ArtworkCache artwork = new ArtworkCache(Paths.get("artwork"),
+            Long.getLong("echo.artCacheMB", 32) * 1024 * 1024);
+    private final boolean cellArt = Boolean.getBoolean("echo.cellArt");
+    private ArtworkCache.Request labelArtRequest;
+    private Paint labelArt;
+    private Paint themeLabelFill;
+
+    // --- 进度 / 时间显示 (刷新频率可用 -Decho.clockHz 调整，0 表示跟随屏幕刷新) ---
+    private PlaybackClock clock;
+
+    // --- 进度条跳转合并：拖动时只追最新目标，同一时间最多一次 seek ---
+    private final SeekScheduler seekScheduler = new SeekScheduler(ms -> { if (mediaPlayer != null) mediaPlayer.seek(Duration.millis(ms)); }, 150_000_000L, 250);
+    private final AnimationTimer seekPulse = new AnimationTimer() {
+        @Override public void handle(long now) {
+            if (mediaPlayer == null) { stop(); return; }
+            seekScheduler.pulse(now, mediaPlayer.getCurrentTime().toMillis());
+            if (seekScheduler.isIdle() && !progressSlider.isValueChanging()) {
+                stop();
+                clock.setScrubbing(false);
+                clock.refresh();
+            }
+        }
+    };
 
     private enum PlayMode { LOOP_ALL, SHUFFLE, LOOP_ONE }
     private PlayMode currentMode = PlayMode.LOOP_ALL;
@@ -71,7 +175,9 @@ public class ModernMusicPlayer extends Application {
     // --- UI 变量 ---
     private BorderPane root;
     private VBox leftPanel;
-    private ListView<String> playlistView;
+    private ListView<Track> playlistView;
+    private ContextMenu libraryMenu;
+    private final TrackListCell.WidthCache textWidths = TrackListCell.newWidthCache();
     private TextField searchField;
     private Label listTitle;
     private Label titleLabel;
@@ -85,12 +191,14 @@ public class ModernMusicPlayer extends Application {
 
     // --- 核心显示区 (切换黑胶/倒影频谱) ---
     private StackPane centerDisplayArea;
-    private HBox visualizerBox;
-    private Rectangle[] spectrumBars;
-    private static final int BANDS = 50;
+    private StackPane visualizerBox;
+    private SpectrumRenderer spectrum;
+    // 频段数可用 -Decho.bands 调整
+    private static final int BANDS = Integer.getInteger("echo.bands", 50);
 
-    private String currentPlayBtnStyleBase = "";
-    private String currentAccentColor = "#1DB954";
+    private final ThemeEngine themes = new ThemeEngine();
+    private static final PseudoClass PLAYING = PseudoClass.getPseudoClass("playing");
+    private Color currentAccentColor = Color.web("#1DB954");
 
     // --- 黑胶组件 ---
     private StackPane vinylRecord;
@@ -98,6 +206,9 @@ public class ModernMusicPlayer extends Application {
     private Text vinylText;
     private RotateTransition rotateAnimation;
 
+    // --- 省电模式 ---
+    private PowerManager power;
+
     @Override
     public void start(Stage primaryStage) {
         root = new BorderPane();
@@ -106,31 +217,42 @@ public class ModernMusicPlayer extends Application {
         leftPanel = new VBox(15);
         leftPanel.setPadding(new Insets(25));
         leftPanel.setPrefWidth(280);
+        leftPanel.getStyleClass().add("left-panel");
 
         listTitle = new Label("LIBRARY");
         listTitle.setFont(Font.font("Verdana", FontWeight.BOLD, 13));
+        listTitle.getStyleClass().add("list-title");
+        noticeTimeout = new PauseTransition(Duration.seconds(5));
+        noticeTimeout.setOnFinished(e -> { listNotice = null; updateListTitle(); });
 
         HBox searchBox = createSearchBox();
 
-        filteredList = new FilteredList<>(listModel, p -> true);
+        filteredList = new FilteredList<>(sortedView, p -> true);
         playlistView = new ListView<>(filteredList);
         playlistView.setStyle("-fx-background-color: transparent; -fx-control-inner-background: transparent;");
+        libraryMenu = createContextMenu();
+        // 单元格只装一次，主题切换靠样式表里的查找色，不再重建
+        playlistView.setCellFactory(lv -> new TrackListCell(lv, libraryMenu, textWidths, power, cellArt ? artwork : null, sortedView));
+        // 分组标题取决于上一行，列表内容变了就重建屏幕上的几个单元格
+        filteredList.addListener((ListChangeListener<Track>) c -> { if (sortedView.isGrouped()) playlistView.refresh(); });
         VBox.setVgrow(playlistView, Priority.ALWAYS);
 
         playlistView.setOnMouseClicked(event -> {
             if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
-                String selectedItem = playlistView.getSelectionModel().getSelectedItem();
-                if (selectedItem != null) playSongByName(selectedItem);
+                Track selectedItem = playlistView.getSelectionModel().getSelectedItem();
+                if (selectedItem != null) playTrack(selectedItem);
             }
         });
 
         btnAdd = new Button("➕ IMPORT TRACKS");
         btnAdd.setMaxWidth(Double.MAX_VALUE);
         btnAdd.setPrefHeight(45);
+        btnAdd.getStyleClass().add("import-button");
         btnAdd.setOnAction(e -> addMusic(primaryStage));
 
         themeSelector = new ComboBox<>();
-        themeSelector.getItems().addAll("Spotify Dark", "Apple Clean", "Cyberpunk", "Dynamic Blue");
+        themeSelector.getItems().addAll(themes.names());
+        themeSelector.getStyleClass().add("theme-selector");
         themeSelector.setValue("Spotify Dark");
         themeSelector.setOnAction(e -> applyTheme(themeSelector.getValue()));
         themeSelector.setMaxWidth(Double.MAX_VALUE);
@@ -161,24 +283,37 @@ public class ModernMusicPlayer extends Application {
         visualizerBox.setOpacity(0);
 
         centerDisplayArea.getChildren().addAll(vinylRecord, visualizerBox);
+        power = new PowerManager(spectrum, rotateAnimation);
 
         // 2. 信息
         VBox infoBox = new VBox(8);
         infoBox.setAlignment(Pos.CENTER);
         titleLabel = new Label("EchoPlayer");
         titleLabel.setFont(Font.font("Microsoft YaHei", FontWeight.BOLD, 28));
+        titleLabel.getStyleClass().add("title-label");
         artistLabel = new Label("Click Disc to Switch Mode");
         artistLabel.setFont(Font.font("Microsoft YaHei", FontWeight.NORMAL, 16));
+        artistLabel.getStyleClass().add("artist-label");
         infoBox.getChildren().addAll(titleLabel, artistLabel);
 
         // 3. 进度
         VBox progressBox = new VBox(8);
         progressSlider = new Slider();
+        progressSlider.getStyleClass().add("themed-slider");
         timeLabel = new Label("00:00 / 00:00");
         timeLabel.setFont(Font.font("Consolas", FontWeight.BOLD, 14));
+        timeLabel.getStyleClass().add("time-label");
         HBox timeContainer = new HBox(timeLabel);
         timeContainer.setAlignment(Pos.CENTER_RIGHT);
-        progressBox.getChildren().addAll(progressSlider, timeContainer);
+        StackPane progressStack = new StackPane(progressSlider);
+        progressStack.setMinHeight(36);
+        waveform = new WaveformRenderer(progressStack);
+        waveform.setColor(currentAccentColor);
+        progressStack.getChildren().add(0, waveform.getCanvas());
+        progressBox.getChildren().addAll(progressStack, timeContainer);
+        clock = new PlaybackClock(progressSlider, timeLabel, Double.parseDouble(System.getProperty("echo.clockHz", "4")),
+                // 临近结尾时预热下一首
+                (current, total) -> preloader.maybePrepare(nextTrack(), (total - current) / 1000.0));
 
         // 4. 按钮
         HBox controls = new HBox(35);
@@ -192,7 +327,9 @@ public class ModernMusicPlayer extends Application {
         HBox volBox = new HBox(10);
         volBox.setAlignment(Pos.CENTER);
         volIcon = new Label("🔊");
+        volIcon.getStyleClass().add("vol-icon");
         volumeSlider = new Slider(0, 1, 0.5);
+        volumeSlider.getStyleClass().add("themed-slider");
         volumeSlider.setPrefWidth(100);
         volBox.getChildren().addAll(volIcon, volumeSlider);
 
@@ -215,6 +352,7 @@ public class ModernMusicPlayer extends Application {
             if (event.getCode() == KeyCode.SPACE) togglePlay();
             else if (event.getCode() == KeyCode.LEFT) playPrev();
             else if (event.getCode() == KeyCode.RIGHT) playNextSong();
+            else if (event.getCode() == KeyCode.ESCAPE) cancelScans();
         });
 
         setupDragAndDrop(scene);
@@ -223,11 +361,19 @@ public class ModernMusicPlayer extends Application {
         primaryStage.setTitle("EchoPlayer V19 - Ultimate Stable Edition");
         primaryStage.setScene(scene);
         primaryStage.show();
+        power.bind(primaryStage);
 
         applyTheme("Spotify Dark");
 
+        metadataCatalog.load();
         loadProjectMusic();
-        loadSavedPlaylist();
+        restoreLibrary();
+        smartPlaylists.load();
+        history.open(this::onHistoryLoaded);
+        playlistDay = LocalDate.now().toEpochDay();
+        dayRollover = new PauseTransition();
+        dayRollover.setOnFinished(e -> onDayRollover());
+        scheduleDayRollover();
     }
 
     // ==========================================
@@ -241,13 +387,14 @@ public class ModernMusicPlayer extends Application {
             ft1.setOnFinished(e -> vinylRecord.setVisible(false));
             ft1.play();
             visualizerBox.setVisible(true);
+            power.setSpectrumShown(true);
             FadeTransition ft2 = new FadeTransition(Duration.millis(300), visualizerBox);
             ft2.setFromValue(0.0); ft2.setToValue(1.0);
             ft2.play();
         } else {
             FadeTransition ft1 = new FadeTransition(Duration.millis(300), visualizerBox);
             ft1.setFromValue(1.0); ft1.setToValue(0.0);
-            ft1.setOnFinished(e -> visualizerBox.setVisible(false));
+            ft1.setOnFinished(e -> { visualizerBox.setVisible(false); power.setSpectrumShown(false); });
             ft1.play();
             vinylRecord.setVisible(true);
             FadeTransition ft2 = new FadeTransition(Duration.millis(300), vinylRecord);
@@ -260,34 +407,20 @@ public class ModernMusicPlayer extends Application {
     //   Skyline 倒影频谱
     // ==========================================
     private void createSkylineVisualizer() {
-        visualizerBox = new HBox(3);
-        visualizerBox.setAlignment(Pos.BOTTOM_CENTER);
+        visualizerBox = new StackPane();
         visualizerBox.setMaxSize(280, 280);
         visualizerBox.setMinSize(280, 280);
-        visualizerBox.setPadding(new Insets(0, 0, 40, 0));
-
-        Reflection reflection = new Reflection();
-        reflection.setFraction(0.4);
-        reflection.setTopOpacity(0.3);
-        reflection.setBottomOpacity(0.0);
-        visualizerBox.setEffect(reflection);
-
-        spectrumBars = new Rectangle[BANDS];
-        for (int i = 0; i < BANDS; i++) {
-            Rectangle bar = new Rectangle(4, 5);
-            bar.setArcWidth(4);
-            bar.setArcHeight(4);
-            bar.setFill(Color.web(currentAccentColor));
-            spectrumBars[i] = bar;
-            visualizerBox.getChildren().add(bar);
-        }
+
+        // 柱子和倒影都画在一块 Canvas 上
+        spectrum = new SpectrumRenderer(280, 280, BANDS);
+        spectrum.setColor(currentAccentColor);
+        visualizerBox.getChildren().add(spectrum.getCanvas());
     }
 
-    private void updateVisualizerColor(String color) {
+    private void updateVisualizerColor(Color color) {
         currentAccentColor = color;
-        if (spectrumBars != null) {
-            for (Rectangle bar : spectrumBars) bar.setFill(Color.web(color));
-        }
+        if (spectrum != null) spectrum.setColor(color);
+        if (waveform != null) waveform.setColor(color);
     }
 
     // ==========================================
@@ -303,56 +436,76 @@ public class ModernMusicPlayer extends Application {
 
         searchField = new TextField();
         searchField.setPromptText("Search library...");
-        searchField.setStyle("-fx-background-color: transparent; -fx-text-fill: white; -fx-prompt-text-fill: #666;");
+        searchField.getStyleClass().add("search-field");
         searchField.setPrefWidth(200);
         HBox.setHgrow(searchField, Priority.ALWAYS);
 
-        searchField.textProperty().addListener((observable, oldValue, newValue) -> {
-            filteredList.setPredicate(songName -> {
-                if (newValue == null || newValue.isEmpty()) return true;
-                return songName.toLowerCase().contains(newValue.toLowerCase());
-            });
-        });
+        // 输入停顿后才查询，查询在索引线程上执行，这里只接收结果集
+        searchDebounce = new PauseTransition(SEARCH_DEBOUNCE);
+        searchDebounce.setOnFinished(e -> runSearch());
+        searchField.textProperty().addListener((observable, oldValue, newValue) -> searchDebounce.playFromStart());
 
         box.getChildren().addAll(icon, searchField);
         box.setStyle("-fx-border-color: transparent transparent #444 transparent; -fx-border-width: 0 0 1 0; -fx-padding: 0 0 5 0;");
         return box;
     }
 
+    private void runSearch() {
+        int generation = ++searchGeneration;
+        searchIndex.query(searchField.getText(), result -> {
+            if (generation != searchGeneration) return; // 已经有更新的查询
+            searchResult = result;
+            applyFilter();
+        });
+    }
+
+    // 列表显示的是 搜索结果 ∩ 当前智能播放列表
+    private void applyFilter() {
+        BitSet filter = searchResult;
+        if (activePlaylist != null) {
+            filter = (BitSet) activePlaylist.getMembers().clone();
+            if (searchResult != null) filter.and(searchResult);
+        }
+        BitSet result = filter;
+        playtime.setFilter(result);
+        filteredList.setPredicate(result == null ? null : track -> result.get(track.getId()));
+        updateListTitle();
+    }
+
+    // 曲库内容变化后，正在生效的搜索结果需要重算
+    private void refreshSearch() {
+        if (!searchField.getText().isEmpty()) runSearch();
+    }
+
     // ==========================================
     //   播放逻辑
     // ==========================================
-    private void playSongByName(String name) {
-        for (int i = 0; i < playList.size(); i++) {
-            if (playList.get(i).getName().equals(name)) {
-                playSong(i);
-                return;
-            }
-        }
+    private void playTrack(Track track) {
+        if (track != null && track.getIndex() >= 0) playSong(track.getIndex());
     }
 
     private void playSong(int index) {
         // 1. 越界检查
-        if (index < 0 || index >= playList.size()) return;
+        if (index < 0 || index >= library.size()) return;
 
-        // 2. 停止上一首
-        if (mediaPlayer != null) {
-            mediaPlayer.stop();
-            mediaPlayer.dispose();
-        }
+        // 2. 停止上一首 (要播的正好是预热好的那首就直接接上)
+        Track track = library.get(index);
+        recordPlay(false);
+        MediaPlayer warmed = preloader.take(track);
+        preloader.invalidate();
+        detachPlayer();
 
         // 3. 更新当前索引和文件
-        currentIndex = index;
-        File file = playList.get(index);
+        currentTrack = track;
+        shuffle.played(track);
+        updateListTitle();
 
         // --- 🔥 修复核心：同步左侧列表的高亮选中状态 ---
-        // 获取当前文件名
-        String songName = file.getName();
-        // 在左侧列表视图中查找这个名字的位置
-        // (这样做是为了兼容搜索状态，搜索时列表顺序可能变了，直接用index不对)
-        int listIndex = playlistView.getItems().indexOf(songName);
+        // 先取曲目在排序视图里的位置，再映射成过滤后的视图位置
+        // (这样做是为了兼容排序和搜索状态，列表顺序可能变了，直接用index不对)
+        int listIndex = playlistView.getItems() == filteredList ? filteredList.getViewIndex(sortedView.indexOf(track)) : playlistView.getItems().indexOf(track);
 
-        if (listIndex != -1) {
+        if (listIndex >= 0) { // 被搜索过滤掉时 getViewIndex 返回负的插入点
             // 选中该行
             playlistView.getSelectionModel().select(listIndex);
             // 自动滚动到该行 (防止切歌时歌曲在屏幕外面看不见)
@@ -360,281 +513,364 @@ public class ModernMusicPlayer extends Application {
         }
         // ---------------------------------------------
 
-        // 4. 更新界面文字
-        titleLabel.setText(file.getName().replace(".mp3", ""));
-        artistLabel.setText("Now Playing");
+        // 4. 更新界面文字和波形
+        updateNowPlayingLabels();
         updatePlayButtonIconStyle(true);
+        showWaveform(track);
+        showLabelArt(track);
 
-        // 5. 创建播放器并开始播放
-        try {
-            Media media = new Media(file.toURI().toString());
-            mediaPlayer = new MediaPlayer(media);
-            mediaPlayer.setVolume(volumeSlider.getValue());
-
-            // 频谱可视化监听
-            mediaPlayer.setAudioSpectrumListener((timestamp, duration, magnitudes, phases) -> {
-                for (int i = 0; i < BANDS && i < magnitudes.length; i++) {
-                    double mag = magnitudes[i] + 60;
-                    if (mag < 0) mag = 0;
-                    double height = mag * 3.0 + 5;
-                    if(height > 220) height = 220;
-                    spectrumBars[i].setHeight(height);
-                }
-            });
-            mediaPlayer.setAudioSpectrumInterval(0.04);
+        // 5. 后台创建播放器，连续切歌时只有最后一次会真正落地
+        trackSwitcher.request(track, warmed);
+    }
+
+    // 最新一次切歌请求的播放器准备好了 (FX 线程)
+    private void onPlayerPrepared(Track track, MediaPlayer player) {
+        if (track != currentTrack) { player.dispose(); return; }
+        mediaPlayer = player;
+        if (track.isMissing()) { track.setMissing(false); TrackListCell.refreshMissing(playlistView); } // 共享盘又挂上了
+        player.setVolume(volumeSlider.getValue());
+        historyTrack = track;
+
+        // 频谱可视化监听 (是否真正开启分析由省电模式决定)
+        player.setAudioSpectrumNumBands(BANDS);
+        power.attach(player);
+
+        // 第一次真正出声时记下切歌延迟
+        player.setOnPlaying(() -> {
+            player.setOnPlaying(null);
+            trackSwitcher.markAudible();
+        });
+        player.play();
 
-            mediaPlayer.play();
+        // 重置动画 (黑胶看不见时由省电模式暂停)
+        vinylRecord.setRotate(0);
+        rotateAnimation.playFromStart();
+        power.setPlaying(true);
 
-            // 重置动画
-            vinylRecord.setRotate(0);
-            rotateAnimation.playFromStart();
+        // 进度条和时间标签按固定频率刷新
+        clock.attach(player);
 
-            // 进度条监听
-            mediaPlayer.currentTimeProperty().addListener((obs, oldT, newT) -> {
-                if (!progressSlider.isValueChanging()) {
-                    progressSlider.setValue((newT.toMillis() / media.getDuration().toMillis()) * 100);
-                }
-                timeLabel.setText(formatTime(newT) + " / " + formatTime(media.getDuration()));
-            });
+        // 播放结束自动下一首
+        player.setOnEndOfMedia(() -> {
+            recordPlay(true);
+            playNextSong();
+        });
+    }
+
+    // ==========================================
+    //   播放历史
+    // ==========================================
+    // 当前这次播放结束：放完或者放够了算一次播放，否则算跳过
+    private void recordPlay(boolean ended) {
+        Track track = historyTrack;
+        historyTrack = null;
+        if (track == null) return;
+        long played = mediaPlayer == null ? 0 : (long) mediaPlayer.getCurrentTime().toMillis();
+        long duration = track.getDurationMillis();
+        boolean completed = ended || played >= PLAY_COUNT_MILLIS || (duration > 0 && played * 2 >= duration);
+        history.record(track, played, completed);
+        List<Track> changed = List.of(track);
+        indexHistory(changed);
+        playlistsChanged(smartPlaylists.tracksChanged(changed));
+    }
+
+    private void onHistoryLoaded() {
+        indexHistory(library.tracks());
+        playlistsChanged(smartPlaylists.tracksChanged(library.tracks()));
+    }
+
+    // 把播放统计写进查询索引
+    private void indexHistory(List<Track> tracks) {
+        for (Track track : tracks) {
+            int id = track.getId();
+            playsField.set(id, history.plays(track));
+            recentPlaysField.set(id, history.recentPlays(track));
+            skipsField.set(id, history.skips(track));
+            long last = history.lastPlayed(track);
+            if (last > 0) lastPlayedField.set(id, LocalDate.ofInstant(Instant.ofEpochMilli(last), ZoneId.systemDefault()).toEpochDay());
+            else lastPlayedField.clear(id);
+        }
+    }
+
+    // 播放最多 / 最近播放 (各前 10 首) 和总跳过率，每次弹出时重建
+    private Menu createHistoryMenu() {
+        Menu menu = new Menu("🕘 History");
+        menu.getItems().add(new MenuItem()); // 占位，否则子菜单不会弹出
+        menu.setOnShowing(e -> {
+            Menu top = new Menu("Most Played");
+            for (Track track : history.topPlayed(10)) top.getItems().add(historyItem(track, history.plays(track) + " plays"));
+            Menu recent = new Menu("Recently Played");
+            for (Track track : history.recentlyPlayed(10)) recent.getItems().add(historyItem(track, null));
+            top.setDisable(top.getItems().isEmpty());
+            recent.setDisable(recent.getItems().isEmpty());
+            MenuItem skipRate = new MenuItem(String.format("Skip rate: %.0f%%", history.skipRate() * 100));
+            skipRate.setDisable(true);
+            MenuItem latency = new MenuItem(switchLatencySummary());
+            latency.setDisable(true);
+            menu.getItems().setAll(top, recent, new SeparatorMenuItem(), skipRate, latency);
+        });
+        return menu;
+    }
+
+    // 切歌到出声的延迟 (本次运行内)
+    private String switchLatencySummary() {
+        if (trackSwitcher.getMeasuredCount() == 0) return "Skip to audible: —";
+        return String.format("Skip to audible: %d ms (avg %d, max %d, n=%d, superseded %d)",
+                trackSwitcher.getLastLatencyMillis(), trackSwitcher.getAverageLatencyMillis(),
+                trackSwitcher.getMaxLatencyMillis(), trackSwitcher.getMeasuredCount(), trackSwitcher.getSupersededCount());
+    }
+
+    private MenuItem historyItem(Track track, String note) {
+        MenuItem item = new MenuItem(note == null ? track.getDisplayTitle() : track.getDisplayTitle() + "  ·  " + note);
+        item.setOnAction(e -> playTrack(track));
+        return item;
+    }
+
+    private void onPlayerFailed(Track track, Exception e) {
+        if (track != currentTrack) return;
+        artistLabel.setText("Load Error");
+        e.printStackTrace(); // 方便调试
+    }
 
-            // 播放结束自动下一首
-            mediaPlayer.setOnEndOfMedia(this::playNextSong);
+    // 停掉当前播放器并摘掉挂在它上面的所有监听
+    private void detachPlayer() {
+        if (mediaPlayer == null) return;
+        MediaPlayer old = mediaPlayer;
+        mediaPlayer = null;
+        clock.detach();
+        seekPulse.stop();
+        seekScheduler.reset();
+        clock.setScrubbing(false);
+        old.setAudioSpectrumListener(null);
+        power.attach(null);
+        spectrum.clear();
+        old.setOnEndOfMedia(null);
+        old.setOnPlaying(null);
+        old.stop();
+        old.dispose();
+    }
+
+    // WAV 才有波形，生成 (或读缓存) 在后台，切走了就不再显示
+    private void showWaveform(Track track) {
+        waveform.clear();
+        if (!WaveformOverview.supports(track.getFile())) { waveforms.cancel(); return; }
+        waveforms.request(track, w -> { if (track == currentTrack) waveform.setWaveform(w); });
+    }
+
+    // 封面在后台取，拿到之前 (和没有封面时) 显示主题的唱片标签
+    private void showLabelArt(Track track) {
+        if (labelArtRequest != null) labelArtRequest.cancel();
+        setLabelArt(null);
+        labelArtRequest = artwork.request(track, LABEL_ART_SIZE, image -> { if (track == currentTrack) setLabelArt(image); });
+    }
+
+    private void setLabelArt(Image image) {
+        labelArt = image == null ? null : new ImagePattern(image);
+        labelCenter.setFill(labelArt != null ? labelArt : themeLabelFill);
+        vinylText.setVisible(labelArt == null);
+    }
+
+    private void updateNowPlayingLabels() {
+        if (currentTrack == null) return;
+        TrackMetadata m = currentTrack.getMetadata();
+        titleLabel.setText(currentTrack.getDisplayTitle());
+        artistLabel.setText(m != null && m.hasArtist() ? m.getArtist() : "Now Playing");
+    }
 
-        } catch (Exception e) {
-            artistLabel.setText("Load Error");
-            e.printStackTrace(); // 方便调试
+    // 后台标签解析完成 (FX 线程)
+    private void onMetadataUpdated(List<Track> tracks) {
+        for (Track track : tracks) {
+            long delta = playtime.update(track);
+            if (delta != 0) shuffle.durationChanged(track, delta);
         }
+        updateListTitle();
+        searchIndex.update(tracks);
+        sortedView.update(tracks);
+        queryEngine.update(tracks);
+        playlistsChanged(smartPlaylists.tracksChanged(tracks));
+        refreshSearch();
+        if (currentTrack != null && currentTrack.getMetadata() != null && tracks.contains(currentTrack)) updateNowPlayingLabels();
     }
 
     // ==========================================
     //   右键菜单 & CSS 注入
     // ==========================================
-    private ContextMenu createContextMenu(String item) {
+    // 整张列表共用一个菜单，单元格在弹出前把自己的曲目放进 userData
+    private ContextMenu createContextMenu() {
         ContextMenu cm = new ContextMenu();
         MenuItem playItem = new MenuItem("▶ Play");
-        playItem.setOnAction(e -> playSongByName(item));
+        playItem.setOnAction(e -> { Track item = (Track) cm.getUserData(); if (item != null) playTrack(item); });
 
         MenuItem openItem = new MenuItem("📂 Open File Location");
         openItem.setOnAction(e -> {
-            for (File f : playList) {
-                if (f.getName().equals(item)) {
-                    try { Desktop.getDesktop().open(f.getParentFile()); } catch (Exception ex) { ex.printStackTrace(); }
-                    break;
-                }
-            }
+            Track item = (Track) cm.getUserData();
+            if (item == null) return;
+            try { Desktop.getDesktop().open(item.getFile().getParentFile()); } catch (Exception ex) { ex.printStackTrace(); }
         });
 
         MenuItem deleteItem = new MenuItem("🗑 Remove from Library");
-        deleteItem.setOnAction(e -> {
-            listModel.remove(item);
-            playList.removeIf(f -> f.getName().equals(item));
-            if (titleLabel.getText().equals(item.replace(".mp3", ""))) {
-                if (mediaPlayer != null) mediaPlayer.stop();
-                titleLabel.setText("EchoPlayer"); artistLabel.setText("Stopped");
-                updatePlayButtonIconStyle(false); rotateAnimation.stop();
-            }
-        });
+        deleteItem.setOnAction(e -> { Track item = (Track) cm.getUserData(); if (item != null) removeFromLibrary(item); });
+
+        duplicatesItem = new MenuItem("⧉ Show Duplicates");
+        duplicatesItem.setOnAction(e -> toggleDuplicatesView());
+
+        MenuItem exportItem = new MenuItem("⤓ Export List…");
+        exportItem.setOnAction(e -> exportPlaylist());
 
-        cm.getItems().addAll(playItem, openItem, new SeparatorMenuItem(), deleteItem);
+        cm.getItems().addAll(playItem, openItem, new SeparatorMenuItem(), createSortMenu(), createSmartPlaylistMenu(), createHistoryMenu(), duplicatesItem, exportItem, new SeparatorMenuItem(), deleteItem);
         return cm;
     }
 
-    private void updateThemeCss(Scene scene, String menuBg, String menuText, String menuHover, String menuBorder) {
-        if (scene == null) return;
-        String css =
-                ".context-menu { -fx-background-color: " + menuBg + "; -fx-background-radius: 8; -fx-border-radius: 8; -fx-border-color: " + menuBorder + "; -fx-border-width: 1; -fx-effect: dropshadow(three-pass-box, rgba(0,0,0,0.2), 10, 0, 0, 4); }" +
-                        ".menu-item .label { -fx-text-fill: " + menuText + "; }" +
-                        ".menu-item:focused { -fx-background-color: " + menuHover + "; }" +
-                        ".menu-item:focused .label { -fx-text-fill: " + menuText + "; }";
-        try { scene.getStylesheets().add("data:text/css;base64," + Base64.getEncoder().encodeToString(css.getBytes("UTF-8"))); } catch (Exception e) { e.printStackTrace(); }
+    // 排序方式 + 是否按艺人/专辑/年份分组显示
+    private Menu createSortMenu() {
+        Menu menu = new Menu("⇅ Sort By");
+        CheckMenuItem groupItem = new CheckMenuItem("Group");
+        groupItem.setDisable(true);
+        groupItem.setOnAction(e -> {
+            sortedView.setGrouped(groupItem.isSelected());
+            playlistView.refresh();
+        });
+        ToggleGroup toggle = new ToggleGroup();
+        for (LibrarySortView.Column column : LibrarySortView.Column.values()) {
+            RadioMenuItem item = new RadioMenuItem(column.label);
+            item.setToggleGroup(toggle);
+            item.setSelected(column == sortedView.getColumn());
+            item.setOnAction(e -> {
+                sortedView.setColumn(column);
+                groupItem.setDisable(!column.groupable);
+                playlistView.refresh();
+                int selected = playlistView.getSelectionModel().getSelectedIndex();
+                if (selected >= 0) playlistView.scrollTo(selected);
+            });
+            menu.getItems().add(item);
+        }
+        menu.getItems().addAll(new SeparatorMenuItem(), groupItem);
+        return menu;
     }
 
-    // ==========================================
-    //   UI 样式与主题
-    // ==========================================
-    private void applyTheme(String themeName) {
-        String bgRoot, bgLeft, textMain, textSub, accentColor, sliderTrack;
-        String comboBg, comboText, comboBorder, comboHover;
-        String menuBg, menuText, menuHover, menuBorder;
-        String playBtnStyle;
-
-        boolean isLightMode = false;
-        boolean isCyberpunk = false;
-        boolean isDynamicBlue = false;
-
-        switch (themeName) {
-            case "Apple Clean":
-                bgRoot = "linear-gradient(to bottom right, #FFFFFF, #F2F2F7)";
-                bgLeft = "rgba(245, 245, 247, 0.8)";
-                textMain = "#1C1C1E"; textSub = "#8E8E93"; accentColor = "#FA2D48";
-                sliderTrack = "#E5E5EA"; comboBg = "#FFFFFF"; comboText = "#1C1C1E"; comboBorder = "#D1D1D6"; comboHover = "#F2F2F7";
-                menuBg = "#FFFFFF"; menuText = "#000000"; menuHover = "#F2F2F7"; menuBorder = "#D1D1D6";
-                playBtnStyle = "-fx-background-color: linear-gradient(to bottom right, #FF2D55, #FF5E3A); -fx-text-fill: white;";
-                isLightMode = true; break;
-
-            case "Spotify Dark":
-                bgRoot = "linear-gradient(to bottom, #121212, #181818)";
-                bgLeft = "#000000";
-                textMain = "#FFFFFF"; textSub = "#B3B3B3"; accentColor = "#1DB954";
-                sliderTrack = "#404040"; comboBg = "#282828"; comboText = "#FFFFFF"; comboBorder = "#404040"; comboHover = "#3E3E3E";
-                menuBg = "#282828"; menuText = "#FFFFFF"; menuHover = "#404040"; menuBorder = "#333333";
-                playBtnStyle = "-fx-background-color: #FFFFFF; -fx-text-fill: #000000;";
-                break;
-
-            case "Cyberpunk":
-                bgRoot = "linear-gradient(to bottom right, #0b0b19, #1a1a3d)";
-                bgLeft = "#13132b";
-                textMain = "#00f3ff"; textSub = "#ff0099"; accentColor = "#00f3ff";
-                sliderTrack = "#2a2a40"; comboBg = "#2a2a40"; comboText = "#00f3ff"; comboBorder = "#ff0099"; comboHover = "#3d3d5c";
-                menuBg = "#1a1a3d"; menuText = "#00f3ff"; menuHover = "#ff0099"; menuBorder = "#00f3ff";
-                playBtnStyle = "-fx-background-color: #00f3ff; -fx-text-fill: #000000;";
-                isCyberpunk = true; break;
-
-            case "Dynamic Blue":
-            default:
-                bgRoot = "linear-gradient(to bottom, #0f172a, #1e293b)";
-                bgLeft = "#0f172a";
-                textMain = "#e0f2fe"; textSub = "#94a3b8"; accentColor = "#38bdf8";
-                sliderTrack = "#334155"; comboBg = "#1e293b"; comboText = "#ffffff"; comboBorder = "#38bdf8"; comboHover = "#334155";
-                menuBg = "#1e293b"; menuText = "#e0f2fe"; menuHover = "#334155"; menuBorder = "#38bdf8";
-                playBtnStyle = "-fx-background-color: #38bdf8; -fx-text-fill: #000000;";
-                isDynamicBlue = true; break;
-        }
+    // 智能播放列表：切换、新建、删除 (菜单项每次弹出时按当前列表重建)
+    private Menu createSmartPlaylistMenu() {
+        Menu menu = new Menu("♫ Smart Playlists");
+        menu.getItems().add(new MenuItem()); // 占位，否则子菜单不会弹出
+        menu.setOnShowing(e -> {
+            ToggleGroup toggle = new ToggleGroup();
+            RadioMenuItem all = new RadioMenuItem("All Tracks");
+            all.setToggleGroup(toggle);
+            all.setSelected(activePlaylist == null);
+            all.setOnAction(ev -> showPlaylist(null));
+            menu.getItems().setAll(all);
+            for (SmartPlaylists.Playlist playlist : smartPlaylists.getPlaylists()) {
+                RadioMenuItem item = new RadioMenuItem(playlist.getName() + "  (" + playlist.size() + ")");
+                item.setToggleGroup(toggle);
+                item.setSelected(playlist == activePlaylist);
+                item.setOnAction(ev -> showPlaylist(playlist));
+                menu.getItems().add(item);
+            }
+            MenuItem create = new MenuItem("＋ New Smart Playlist…");
+            create.setOnAction(ev -> createSmartPlaylist(""));
+            MenuItem delete = new MenuItem("✕ Delete Current");
+            delete.setDisable(activePlaylist == null);
+            delete.setOnAction(ev -> {
+                smartPlaylists.delete(activePlaylist);
+                showPlaylist(null);
+            });
+            menu.getItems().addAll(new SeparatorMenuItem(), create, delete);
+        });
+        return menu;
+    }
 
-        root.setStyle("-fx-background-color: " + bgRoot + ";");
-        leftPanel.setStyle("-fx-background-color: " + bgLeft + "; -fx-border-color: transparent;");
-        listTitle.setTextFill(Color.web(accentColor));
-        titleLabel.setTextFill(Color.web(textMain));
-        artistLabel.setTextFill(Color.web(textSub));
-        timeLabel.setTextFill(Color.web(textSub));
-        volIcon.setTextFill(Color.web(textSub));
+    // 输入 "名字: 查询"，查询写错时提示并让用户改
+    private void createSmartPlaylist(String initial) {
+        TextInputDialog dialog = new TextInputDialog(initial);
+        dialog.setTitle("New Smart Playlist");
+        dialog.setHeaderText("Name: query\ne.g.  Recent short: artist = Jay Chou AND year >= 2010 AND duration < 5m");
+        dialog.showAndWait().ifPresent(text -> {
+            int colon = text.indexOf(':');
+            String error;
+            if (colon <= 0 || text.substring(0, colon).trim().isEmpty()) {
+                error = "Expected \"Name: query\"";
+            } else {
+                try {
+                    showPlaylist(smartPlaylists.create(text.substring(0, colon), text.substring(colon + 1)));
+                    return;
+                } catch (IllegalArgumentException ex) {
+                    error = ex.getMessage();
+                }
+            }
+            Alert alert = new Alert(Alert.AlertType.ERROR, error);
+            alert.setHeaderText("Invalid smart playlist");
+            alert.showAndWait();
+            createSmartPlaylist(text);
+        });
+    }
 
-        if (root.getScene() != null) updateThemeCss(root.getScene(), menuBg, menuText, menuHover, menuBorder);
+    private void showPlaylist(SmartPlaylists.Playlist playlist) {
+        if (playlistView.getItems() == duplicatesView) toggleDuplicatesView();
+        activePlaylist = playlist;
+        listTitleBase = libraryTitle();
+        applyFilter();
+    }
 
-        updateVisualizerColor(accentColor);
-        if (searchField != null) {
-            String promptColor = isLightMode ? "#999" : "#666";
-            searchField.setStyle("-fx-background-color: transparent; -fx-text-fill: " + textMain + "; -fx-prompt-text-fill: " + promptColor + ";");
-        }
+    // 当前列表的成员变了才需要重新过滤
+    // 定到下一个本地午夜过一秒
+    private void scheduleDayRollover() {
+        ZonedDateTime now = ZonedDateTime.now();
+        long millis = ChronoUnit.MILLIS.between(now, now.toLocalDate().plusDays(1).atStartOfDay(now.getZone()));
+        dayRollover.setDuration(Duration.millis(millis + 1000));
+        dayRollover.playFromStart();
+    }
 
-        if (isCyberpunk) {
-            titleLabel.setEffect(new Glow(0.8));
-            artistLabel.setEffect(new DropShadow(10, Color.web("#ff0099")));
-        } else {
-            titleLabel.setEffect(null);
-            artistLabel.setEffect(null);
+    private void onDayRollover() {
+        long today = LocalDate.now().toEpochDay();
+        if (today != playlistDay) {
+            playlistDay = today;
+            indexHistory(library.tracks()); // 最近 30 天的播放次数随日期减少
+            playlistsChanged(smartPlaylists.dayChanged());
         }
+        scheduleDayRollover();
+    }
 
-        String sliderStyle = String.format("-fx-control-inner-background: %s; -fx-accent: %s; -fx-background-color: transparent;", sliderTrack, accentColor);
-        progressSlider.setStyle(sliderStyle);
-        volumeSlider.setStyle(sliderStyle);
-
-        final String finalMainText = textMain;
-        final String hoverColor = isLightMode ? "rgba(0,0,0,0.05)" : "rgba(255,255,255,0.08)";
-        final String selectionColor = isLightMode ? "#E5E5EA" : (isCyberpunk ? "rgba(0, 243, 255, 0.2)" : "#333333");
-
-        playlistView.setCellFactory(lv -> new ListCell<String>() {
-            private final Text text1 = new Text();
-            private final Text text2 = new Text();
-            private final Pane container = new Pane(text1, text2);
-            private final Rectangle clip = new Rectangle();
-            private ParallelTransition marqueeAnimation;
-            private final double GAP = 60;
-
-            {
-                Font font = Font.font(16);
-                text1.setFont(font); text2.setFont(font);
-                text1.setTextOrigin(javafx.geometry.VPos.CENTER); text2.setTextOrigin(javafx.geometry.VPos.CENTER);
-                container.prefWidthProperty().bind(lv.widthProperty().subtract(40));
-                container.setPrefHeight(30);
-                clip.widthProperty().bind(container.widthProperty()); clip.heightProperty().bind(container.heightProperty());
-                container.setClip(clip);
-                text1.layoutYProperty().bind(container.heightProperty().divide(2)); text2.layoutYProperty().bind(container.heightProperty().divide(2));
-                text2.setVisible(false);
-            }
+    private void playlistsChanged(List<SmartPlaylists.Playlist> changed) {
+        if (activePlaylist != null && changed.contains(activePlaylist)) applyFilter();
+    }
 
-            @Override
-            protected void updateItem(String item, boolean empty) {
-                super.updateItem(item, empty);
-                if (marqueeAnimation != null) marqueeAnimation.stop();
-                text1.setTranslateX(0); text2.setTranslateX(0); text2.setVisible(false);
-
-                if (empty || item == null) {
-                    setText(null); setGraphic(null); setStyle("-fx-background-color: transparent;");
-                    setContextMenu(null);
-                } else {
-                    setText(null); text1.setText(item); text2.setText(item);
-                    text1.setFill(Color.web(finalMainText)); text2.setFill(Color.web(finalMainText));
-                    setGraphic(container);
-                    setContextMenu(createContextMenu(item));
-
-                    String baseStyle = "-fx-padding: 8 15 8 15; -fx-background-radius: 8;";
-                    if (isSelected()) {
-                        setStyle(baseStyle + "-fx-background-color: " + selectionColor + "; -fx-font-weight: bold;");
-                        Platform.runLater(this::startMarquee);
-                    } else {
-                        setStyle(baseStyle + "-fx-background-color: transparent;");
-                    }
-                    setOnMouseEntered(e -> { if (!isSelected()) setStyle(baseStyle + "-fx-background-color: " + hoverColor + ";"); });
-                    setOnMouseExited(e -> { if (!isSelected()) setStyle(baseStyle + "-fx-background-color: transparent;"); });
-                }
-            }
+    private String libraryTitle() {
+        return activePlaylist == null ? "LIBRARY" : "♫ " + activePlaylist.getName().toUpperCase();
+    }
 
-            private void startMarquee() {
-                if (getItem() == null || !isSelected()) return;
-                double textW = text1.getLayoutBounds().getWidth();
-                double cellW = container.getWidth();
-                if (cellW == 0) cellW = container.getPrefWidth();
-                if (textW > cellW && cellW > 0) {
-                    text2.setVisible(true);
-                    double cycleDistance = textW + GAP;
-                    TranslateTransition tt1 = new TranslateTransition(); tt1.setNode(text1); tt1.setFromX(0); tt1.setToX(-cycleDistance); tt1.setInterpolator(Interpolator.LINEAR);
-                    TranslateTransition tt2 = new TranslateTransition(); tt2.setNode(text2); tt2.setFromX(cycleDistance); tt2.setToX(0); tt2.setInterpolator(Interpolator.LINEAR);
-                    marqueeAnimation = new ParallelTransition(tt1, tt2);
-                    double durationSeconds = cycleDistance / 25.0;
-                    marqueeAnimation.setCycleCount(Animation.INDEFINITE);
-                    tt1.setDuration(Duration.seconds(durationSeconds)); tt2.setDuration(Duration.seconds(durationSeconds));
-                    marqueeAnimation.play();
-                }
-            }
-        });
-        playlistView.refresh();
-
-        themeSelector.setStyle("-fx-background-color: " + comboBg + "; -fx-text-fill: " + comboText + "; -fx-border-color: " + comboBorder + "; -fx-background-radius: 6; -fx-border-radius: 6;");
-        final String fComboBg = comboBg; final String fComboText = comboText; final String fComboHover = comboHover;
-        themeSelector.setButtonCell(new ListCell<String>() {
-            @Override protected void updateItem(String item, boolean empty) {
-                super.updateItem(item, empty);
-                if (item != null) { setText(item); setTextFill(Color.web(fComboText)); setStyle("-fx-background-color: transparent;"); }
-            }
-        });
-        themeSelector.setCellFactory(lv -> new ListCell<String>() {
-            @Override protected void updateItem(String item, boolean empty) {
-                super.updateItem(item, empty);
-                if (empty || item == null) { setText(null); setStyle("-fx-background-color: " + fComboBg + ";"); }
-                else {
-                    setText(item); setTextFill(Color.web(fComboText));
-                    setStyle("-fx-background-color: " + fComboBg + "; -fx-padding: 8 10 8 10;");
-                    setOnMouseEntered(e -> setStyle("-fx-background-color: " + fComboHover + "; -fx-padding: 8 10 8 10;"));
-                    setOnMouseExited(e -> setStyle("-fx-background-color: " + fComboBg + "; -fx-padding: 8 10 8 10;"));
-                }
-            }
+    // 在曲库和 "重复文件" 视图之间切换，同内容的曲目排在一起
+    private void toggleDuplicatesView() {
+        if (playlistView.getItems() == duplicatesView) {
+            playlistView.setItems(filteredList);
+            duplicatesView.clear();
+            duplicatesItem.setText("⧉ Show Duplicates");
+            listTitleBase = libraryTitle();
+            updateListTitle();
+            return;
+        }
+        listTitle.setText("LIBRARY · FINDING DUPLICATES...");
+        duplicateDetector.findDuplicates(groups -> {
+            List<Track> flat = new ArrayList<>();
+            for (List<Track> group : groups) flat.addAll(group);
+            duplicatesView.setAll(flat);
+            playlistView.setItems(duplicatesView);
+            duplicatesItem.setText("☰ Show Library");
+            listTitleBase = "DUPLICATES · " + groups.size() + " GROUPS";
+            updateListTitle();
         });
+    }
 
-        currentPlayBtnStyleBase = playBtnStyle + "-fx-background-radius: 100; -fx-min-width: 65px; -fx-min-height: 65px; -fx-cursor: hand;";
-        boolean isPlaying = (mediaPlayer != null && mediaPlayer.getStatus() == MediaPlayer.Status.PLAYING);
-        updatePlayButtonIconStyle(isPlaying);
-
-        if(themeName.equals("Apple Clean")) btnPlay.setEffect(new DropShadow(15, Color.rgb(255, 45, 85, 0.4)));
-        else if (themeName.equals("Spotify Dark")) btnPlay.setEffect(new DropShadow(10, Color.rgb(255, 255, 255, 0.2)));
-        else btnPlay.setEffect(isCyberpunk ? new DropShadow(15, Color.web("#00f3ff")) : null);
-
-        addHoverAnimation(btnPlay);
-        updateButtonStyle(btnAdd, textSub, accentColor, isLightMode);
-        updateButtonStyle(btnPrev, textMain, accentColor, isLightMode);
-        updateButtonStyle(btnNext, textMain, accentColor, isLightMode);
-        updateButtonStyle(btnMode, textMain, accentColor, isLightMode);
-        updateVinylStyle(themeName);
+    // ==========================================
+    //   UI 样式与主题
+    // ==========================================
+    private void applyTheme(String themeName) {
+        // 颜色全部来自缓存的主题样式表，这里只替换那一张表并换上预先建好的特效
+        ThemeEngine.Theme theme = themes.apply(root.getScene(), themeName);
+        titleLabel.setEffect(theme.titleEffect);
+        artistLabel.setEffect(theme.artistEffect);
+        btnPlay.setEffect(theme.playEffect);
+        updateVisualizerColor(theme.accent);
+        updateVinylStyle(theme);
     }
 
     private Button createSvgButton(String svgContent) {
@@ -645,47 +881,21 @@ public class ModernMusicPlayer extends Application {
         svg.setScaleX(0.9); svg.setScaleY(0.9);
         btn.setGraphic(svg);
         btn.setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        btn.getStyleClass().add("icon-button");
         return btn;
     }
 
     private void updatePlayButtonIconStyle(boolean isPlaying) {
-        if (isPlaying) { btnPlay.setStyle(currentPlayBtnStyleBase + "-fx-font-size: 32px; -fx-padding: 0;"); btnPlay.setText("⏸"); }
-        else { btnPlay.setStyle(currentPlayBtnStyleBase + "-fx-font-size: 36px; -fx-padding: 0 0 0 4;"); btnPlay.setText("▶"); }
-    }
-
-    private void updateButtonStyle(Button btn, String normalColor, String hoverColor, boolean isLight) {
-        String borderColor = (btn == btnAdd) ? (isLight ? "#C7C7CC" : "#3A3A3C") : "transparent";
-        String hoverBorder = (btn == btnAdd) ? hoverColor : "transparent";
-        String size = (btn == btnAdd) ? "12" : "24";
-        String fontWeight = (btn == btnAdd) ? "bold" : "normal";
-        String base = "-fx-background-color: transparent; -fx-text-fill: " + normalColor + "; -fx-font-size: " + size + "px; -fx-font-weight: " + fontWeight + "; -fx-border-color: " + borderColor + "; -fx-border-radius: 8; -fx-background-radius: 8; -fx-cursor: hand;";
-        String hover = "-fx-background-color: transparent; -fx-text-fill: " + hoverColor + "; -fx-font-size: " + size + "px; -fx-font-weight: " + fontWeight + "; -fx-border-color: " + hoverBorder + "; -fx-border-radius: 8; -fx-background-radius: 8; -fx-cursor: hand;";
-        btn.setStyle(base);
-        btn.setOnMouseEntered(e -> { btn.setStyle(hover); btn.setScaleX(1.1); btn.setScaleY(1.1); });
-        btn.setOnMouseExited(e -> { btn.setStyle(base); btn.setScaleX(1.0); btn.setScaleY(1.0); });
-    }
-
-    private void addHoverAnimation(Button btn) {
-        btn.setOnMouseEntered(e -> { btn.setScaleX(1.1); btn.setScaleY(1.1); });
-        btn.setOnMouseExited(e -> { btn.setScaleX(1.0); btn.setScaleY(1.0); });
-    }
-
-    private void updateVinylStyle(String theme) {
-        disc.setFill(Color.BLACK);
-        vinylText.setFill(Color.WHITE);
-        if (theme.equals("Apple Clean")) {
-            disc.setFill(Color.web("#2C2C2E")); disc.setEffect(new DropShadow(20, Color.rgb(0,0,0,0.15))); vinylText.setFill(Color.web("#E5E5EA"));
-            labelCenter.setFill(new LinearGradient(0,0,1,1,true,CycleMethod.NO_CYCLE, new Stop(0, Color.web("#FF5E3A")), new Stop(1, Color.web("#FF2D55"))));
-        } else if (theme.equals("Spotify Dark")) {
-            disc.setFill(Color.web("#121212")); disc.setEffect(new DropShadow(15, Color.rgb(255,255,255,0.05))); vinylText.setFill(Color.web("#AAAAAA"));
-            labelCenter.setFill(new LinearGradient(0,0,1,1,true,CycleMethod.NO_CYCLE, new Stop(0, Color.web("#1DB954")), new Stop(1, Color.web("#191414"))));
-        } else if (theme.equals("Cyberpunk")) {
-            disc.setFill(Color.BLACK); disc.setEffect(new DropShadow(20, Color.web("#00f3ff"))); vinylText.setFill(Color.web("#00f3ff"));
-            labelCenter.setFill(new LinearGradient(0,0,1,1,true,CycleMethod.NO_CYCLE, new Stop(0, Color.web("#00f3ff")), new Stop(1, Color.web("#ff0099"))));
-        } else if (theme.equals("Dynamic Blue")) {
-            disc.setFill(Color.web("#020617")); disc.setEffect(new DropShadow(20, Color.web("#38bdf8"))); vinylText.setFill(Color.web("#e0f2fe"));
-            labelCenter.setFill(new LinearGradient(0,0,1,1,true,CycleMethod.NO_CYCLE, new Stop(0, Color.web("#7dd3fc")), new Stop(1, Color.web("#0ea5e9"))));
-        }
+        btnPlay.pseudoClassStateChanged(PLAYING, isPlaying);
+        btnPlay.setText(isPlaying ? "⏸" : "▶");
+    }
+
+    private void updateVinylStyle(ThemeEngine.Theme theme) {
+        disc.setFill(theme.discFill);
+        disc.setEffect(theme.discEffect);
+        vinylText.setFill(theme.vinylTextFill);
+        themeLabelFill = theme.labelFill;
+        if (labelArt == null) labelCenter.setFill(themeLabelFill);
     }
 
     private void createVinylRecord() {
@@ -707,15 +917,16 @@ public class ModernMusicPlayer extends Application {
     }
 
     private void togglePlay() {
-        if (mediaPlayer == null && !playList.isEmpty()) {
+        if (mediaPlayer == null && !library.isEmpty()) {
+            if (trackSwitcher.isBusy()) return; // 播放器还在后台准备
             if (filteredList.isEmpty()) return;
-            playSongByName(filteredList.get(0));
+            playTrack(filteredList.get(0));
         } else if (mediaPlayer != null) {
             if (mediaPlayer.getStatus() == MediaPlayer.Status.PLAYING) {
-                mediaPlayer.pause(); rotateAnimation.pause();
+                mediaPlayer.pause(); power.setPlaying(false); clock.pause();
                 updatePlayButtonIconStyle(false);
             } else {
-                mediaPlayer.play(); rotateAnimation.play();
+                mediaPlayer.play(); power.setPlaying(true); clock.resume();
                 updatePlayButtonIconStyle(true);
             }
         }
@@ -727,7 +938,9 @@ public class ModernMusicPlayer extends Application {
             case SHUFFLE: currentMode = PlayMode.LOOP_ONE; break;
             case LOOP_ONE: currentMode = PlayMode.LOOP_ALL; break;
         }
+        revalidatePreload();
         updateModeButtonText();
+        updateListTitle();
     }
 
     private void updateModeButtonText() {
@@ -742,68 +955,305 @@ public class ModernMusicPlayer extends Application {
         btnMode.setTooltip(new Tooltip(tooltipText));
     }
 
-    private void playNextSong() {
-        if (playList.isEmpty()) return;
-        int newIndex = currentIndex;
+    private int currentIndex() {
+        return currentTrack == null ? -1 : currentTrack.getIndex();
+    }
+
+    // 按当前模式算出下一首。随机模式由队列提前选定并记住，保证预热的就是真正要播的那首
+    private int nextIndex() {
+        int currentIndex = currentIndex();
+        int newIndex;
         if (currentMode == PlayMode.LOOP_ONE) {
-            playSong(currentIndex);
-            return;
+            return currentIndex;
         } else if (currentMode == PlayMode.SHUFFLE) {
-            if (playList.size() > 1) {
-                do { newIndex = new Random().nextInt(playList.size()); } while (newIndex == currentIndex);
-            }
+            Track next = shuffle.peekNext();
+            newIndex = next == null ? -1 : next.getIndex();
         } else {
             newIndex = currentIndex + 1;
-            if (newIndex >= playList.size()) newIndex = 0;
+            if (newIndex >= library.size()) newIndex = 0;
         }
-        playSong(newIndex);
+        return newIndex;
+    }
+
+    private Track nextTrack() {
+        int index = nextIndex();
+        return index >= 0 && index < library.size() ? library.get(index) : null;
+    }
+
+    // 模式或队列变了，预热的那首不再是下一首就丢掉
+    private void revalidatePreload() {
+        Track warmed = preloader.getTrack();
+        if (warmed != null && (library.isEmpty() || warmed != nextTrack())) preloader.invalidate();
+    }
+
+    private void playNextSong() {
+        if (library.isEmpty()) return;
+        playSong(nextIndex());
     }
 
     private void playPrev() {
-        if (playList.isEmpty()) return;
+        if (library.isEmpty()) return;
         int newIndex;
-        if (currentMode == PlayMode.SHUFFLE) newIndex = new Random().nextInt(playList.size());
-        else {
-            newIndex = currentIndex - 1;
-            if (newIndex < 0) newIndex = playList.size() - 1;
+        if (currentMode == PlayMode.SHUFFLE) {
+            // 沿播放历史往回，没有更早的就从头重播当前这首
+            Track prev = shuffle.previous();
+            newIndex = prev != null ? prev.getIndex() : currentIndex();
+        } else {
+            newIndex = currentIndex() - 1;
+            if (newIndex < 0) newIndex = library.size() - 1;
         }
         playSong(newIndex);
     }
 
     private void addMusic(Stage stage) {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Audio", "*.mp3", "*.wav"));
+        fileChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("Audio", "*.mp3", "*.wav"),
+                new FileChooser.ExtensionFilter("Playlists", "*.m3u", "*.m3u8", "*.pls"));
         List<File> files = fileChooser.showOpenMultipleDialog(stage);
-        if (files != null) { for (File f : files) addToPlaylistSafe(f); }
+        if (files != null) importFiles(files);
     }
 
     private void loadProjectMusic() {
         File folder = new File("music");
-        if (!folder.exists()) { folder.mkdir(); return; }
-        File[] files = folder.listFiles((d, n) -> n.toLowerCase().endsWith(".mp3") || n.toLowerCase().endsWith(".wav"));
-        if (files != null) { for (File f : files) addToPlaylistSafe(f); }
-    }
-
-    // 使用 UTF-8 读取播放列表
-    private void loadSavedPlaylist() {
-        try {
-            File f = new File("playlist.txt");
-            if (f.exists()) {
-                List<String> lines = Files.readAllLines(Paths.get(f.toURI()), StandardCharsets.UTF_8);
-                for (String path : lines) {
-                    File file = new File(path);
-                    if (file.exists()) addToPlaylistSafe(file);
+        if (!folder.exists()) folder.mkdir();
+        // 先开始监视再扫描，扫描期间放进来的文件也不会漏掉 (重复的由曲库去重)
+        folderWatcher.watch(folder);
+        importFiles(List.of(folder));
+    }
+
+    // ==========================================
+    //   后台导入：递归扫描 + 分批上屏
+    // ==========================================
+    private void importFiles(List<File> roots) {
+        List<File> scanRoots = new ArrayList<>();
+        for (File root : roots) {
+            if (root.isFile() && PlaylistFiles.supports(root)) importPlaylist(root);
+            else scanRoots.add(root);
+        }
+        if (scanRoots.isEmpty()) return;
+        for (File root : scanRoots) if (root.isDirectory()) folderWatcher.watch(root);
+        activeScans.add(scanner.scan(scanRoots, this::addBatchToPlaylist, (dirs, files, finished) -> updateListTitle()));
+        updateListTitle();
+    }
+
+    // 播放列表里的条目和扫描结果走同一条入库路径，已在曲库里的先按路径索引去掉
+    private void importPlaylist(File playlist) {
+        playlistFiles.importPlaylist(playlist, new PlaylistFiles.Listener() {
+            @Override public void onEntries(List<File> files) {
+                files.removeIf(library::contains);
+                if (!files.isEmpty()) addBatchToPlaylist(files);
+            }
+
+            @Override public void onFinished(int entries, int skipped) {
+                showListNotice(playlist.getName() + ": " + (entries - skipped) + " OF " + entries + " IMPORTED");
+            }
+        });
+    }
+
+    // 导出当前列表 (搜索、智能播放列表和排序都按屏幕上的样子)
+    private void exportPlaylist() {
+        FileChooser chooser = new FileChooser();
+        chooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("M3U8", "*.m3u8"),
+                new FileChooser.ExtensionFilter("M3U", "*.m3u"), new FileChooser.ExtensionFilter("PLS", "*.pls"));
+        chooser.setInitialFileName("playlist.m3u8");
+        File target = chooser.showSaveDialog(playlistView.getScene().getWindow());
+        if (target == null) return;
+        playlistFiles.export(playlistView.getItems(), target, ok -> {
+            if (ok) return;
+            Alert alert = new Alert(Alert.AlertType.ERROR, "Could not write " + target);
+            alert.setHeaderText("Export failed");
+            alert.show();
+        });
+    }
+
+    private void cancelScans() {
+        for (LibraryScanner.Scan scan : activeScans) scan.cancel();
+    }
+
+    private void updateListTitle() {
+        activeScans.removeIf(LibraryScanner.Scan::isFinished);
+        String base = listNotice == null ? listTitleBase : listTitleBase + " · " + listNotice;
+        if (activeScans.isEmpty()) { listTitle.setText(base + playtimeSummary()); return; }
+        int found = 0;
+        for (LibraryScanner.Scan scan : activeScans) found += scan.getFilesFound();
+        listTitle.setText(base + " · SCANNING " + found + "  (ESC to stop)");
+    }
+
+    private void showListNotice(String text) {
+        listNotice = text;
+        noticeTimeout.playFromStart();
+        updateListTitle();
+    }
+
+    // 列表总时长 + 当前模式下还要播多久 (都是增量维护的，这里只读)
+    private String playtimeSummary() {
+        if (playlistView.getItems() != filteredList || library.isEmpty()) return "";
+        String text = " · " + PlaytimeTotals.format(playtime.getFilteredMillis());
+        if (currentTrack == null || currentMode == PlayMode.LOOP_ONE) return text;
+        long left = currentMode == PlayMode.SHUFFLE ? shuffle.getRemainingMillis() : playtime.getMillisAfter(currentTrack);
+        return text + " · " + PlaytimeTotals.format(left) + " LEFT";
+    }
+
+    // 一批文件只触发一次 listModel 变更通知；查重策略不是 KEEP 时先在后台分出内容重复的文件
+    private void addBatchToPlaylist(List<File> files) {
+        if (duplicateDetector.getPolicy() == DuplicateDetector.Policy.KEEP) { addFilesToLibrary(files); return; }
+        duplicateDetector.classify(files, (unique, duplicates) -> {
+            addFilesToLibrary(unique);
+            if (duplicates.isEmpty()) return;
+            int linked = 0;
+            if (duplicateDetector.getPolicy() == DuplicateDetector.Policy.LINK) {
+                for (Map.Entry<File, File> e : duplicates.entrySet()) {
+                    if (library.link(e.getKey(), library.byPath(e.getValue()))) linked++;
                 }
             }
-        } catch (Exception e) { e.printStackTrace(); }
+            showListNotice(duplicates.size() + " DUPLICATE" + (duplicates.size() == 1 ? "" : "S") + (linked > 0 ? " LINKED" : " SKIPPED"));
+        });
+    }
+
+    private void addFilesToLibrary(List<File> files) {
+        List<Track> added = library.addAll(files);
+        if (added.isEmpty()) return;
+        libraryJournal.recordAdded(added);
+        onTracksAdded(added); // 先登记查重索引，标签读取报上来的大小才有地方放
+        metadataExtractor.submit(added);
+    }
+
+    private void onTracksAdded(List<Track> added) {
+        searchIndex.add(added);
+        duplicateDetector.index(added);
+        playtime.add(added);
+        shuffle.add(added);
+        queryEngine.add(added);
+        history.attach(added);
+        indexHistory(added);
+        playlistsChanged(smartPlaylists.tracksChanged(added));
+        refreshSearch();
+        revalidatePreload();
+        updateListTitle();
+    }
+
+    // 后台流式回放快照和日志 (首次运行时迁移旧的 playlist.txt)，分批上屏，不在 FX 线程上访问文件系统
+    private void restoreLibrary() {
+        libraryJournal.open(new LibraryJournal.Listener() {
+            @Override public void onRestored(List<File> files) {
+                // 已经在曲库里的条目不再查重，只登记进索引
+                List<Track> added = library.addAll(files);
+                if (added.isEmpty()) return;
+                onTracksAdded(added);
+                libraryValidator.validate(added);
+            }
+
+            @Override public void onRestoreRemoved(List<File> files) { removeFromLibrary(tracksAt(files)); }
+        });
+    }
+
+    // 监视到的增量：新文件入库，已有的重新读标签，删掉的移出曲库
+    private void applyFolderChanges(List<File> upserted, List<File> deleted) {
+        if (!deleted.isEmpty()) removeFromLibrary(tracksAt(deleted));
+        List<File> added = new ArrayList<>();
+        List<Track> changed = new ArrayList<>();
+        for (File file : upserted) {
+            Track track = library.byPath(file);
+            if (track == null) added.add(file);
+            else changed.add(track);
+        }
+        if (!added.isEmpty()) addBatchToPlaylist(added);
+        if (!changed.isEmpty()) {
+            unmarkMissing(changed);
+            metadataExtractor.submit(changed);
+            for (Track track : changed) {
+                duplicateDetector.invalidate(track);
+                artwork.invalidate(track);
+            }
+        }
+    }
+
+    // 事件溢出或目录被删除、移走：以 dir 子树下实际存在的文件为准，其余曲目移出曲库并写进日志。
+    // 卷被卸载 (U 盘拔掉、NAS 断开) 走 onDirectoryUnreachable，交给核对器标记缺失
+    private void applyDirectoryRescan(File dir, List<File> present) {
+        Set<String> keep = new HashSet<>();
+        for (File file : present) keep.add(TrackRegistry.pathKey(file));
+        List<Track> gone = new ArrayList<>();
+        for (Track track : tracksUnder(dir)) {
+            if (!keep.contains(track.getPathKey())) gone.add(track);
+        }
+        if (!gone.isEmpty()) removeFromLibrary(gone);
+        List<File> added = new ArrayList<>();
+        List<Track> existing = new ArrayList<>();
+        for (File file : present) {
+            Track track = library.byPath(file);
+            if (track == null) added.add(file);
+            else existing.add(track);
+        }
+        unmarkMissing(existing);
+        if (!added.isEmpty()) addBatchToPlaylist(added);
+    }
+
+    private List<Track> tracksUnder(File dir) {
+        String prefix = TrackRegistry.pathKey(dir) + File.separator;
+        List<Track> tracks = new ArrayList<>();
+        for (Track track : library.tracks()) {
+            if (track.getPathKey().startsWith(prefix)) tracks.add(track);
+        }
+        return tracks;
     }
 
-    // 绝对路径去重
-    private void addToPlaylistSafe(File file) {
-        boolean exists = playList.stream().anyMatch(f -> f.getAbsolutePath().equals(file.getAbsolutePath()));
-        if (!exists) {
-            playList.add(file);
-            listModel.add(file.getName());
+    private void unmarkMissing(List<Track> tracks) {
+        boolean any = false;
+        for (Track track : tracks) {
+            if (track.isMissing()) { track.setMissing(false); any = true; }
+        }
+        if (any) TrackListCell.refreshMissing(playlistView);
+    }
+
+    // 找不到的曲目只做标记不删除：共享盘没挂上时不至于把曲库清空
+    private void onTracksMissing(List<Track> tracks) {
+        TrackListCell.refreshMissing(playlistView);
+        if (tracks.contains(preloader.getTrack())) preloader.invalidate();
+    }
+
+    private void removeFromLibrary(Track track) { removeFromLibrary(List.of(track)); }
+
+    // 曲库一次压缩完，各索引再逐首清理
+    private void removeFromLibrary(List<Track> tracks) {
+        List<Track> removed = library.removeAll(tracks);
+        if (removed.isEmpty()) return;
+        for (Track track : removed) forget(track);
+        revalidatePreload();
+        updateListTitle();
+    }
+
+    private List<Track> tracksAt(List<File> files) {
+        List<Track> tracks = new ArrayList<>(files.size());
+        for (File file : files) {
+            Track track = library.byPath(file);
+            if (track != null) tracks.add(track);
+        }
+        return tracks;
+    }
+
+    private void forget(Track track) {
+        libraryJournal.recordRemoved(track.getFile());
+        metadataCatalog.remove(track.getPathKey());
+        duplicateDetector.remove(track);
+        duplicatesView.remove(track);
+        searchIndex.remove(track);
+        shuffle.remove(track);
+        playtime.remove(track);
+        queryEngine.remove(track);
+        smartPlaylists.remove(track); // 曲目自己会从列表里消失，ID 不会复用，不必重新过滤
+        history.detach(track);
+        if (track == currentTrack) {
+            currentTrack = null;
+            historyTrack = null;
+            trackSwitcher.cancel();
+            detachPlayer();
+            waveforms.cancel();
+            waveform.clear();
+            if (labelArtRequest != null) labelArtRequest.cancel();
+            setLabelArt(null);
+            titleLabel.setText("EchoPlayer"); artistLabel.setText("Stopped");
+            updatePlayButtonIconStyle(false); rotateAnimation.stop(); power.setPlaying(false);
         }
     }
 
@@ -821,11 +1271,7 @@ public class ModernMusicPlayer extends Application {
             Dragboard db = event.getDragboard();
             boolean success = false;
             if (db.hasFiles()) {
-                List<File> files = db.getFiles();
-                for (File f : files) {
-                    String name = f.getName().toLowerCase();
-                    if (name.endsWith(".mp3") || name.endsWith(".wav")) addToPlaylistSafe(f);
-                }
+                importFiles(db.getFiles());
                 success = true;
             }
             event.setDropCompleted(success);
@@ -833,26 +1279,53 @@ public class ModernMusicPlayer extends Application {
         });
     }
 
-    // 使用 UTF-8 写入播放列表
     @Override public void stop() throws Exception {
         super.stop();
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream("playlist.txt"), StandardCharsets.UTF_8))) {
-            for (File f : playList) { writer.write(f.getAbsolutePath()); writer.newLine(); }
-        }
+        scanner.shutdown();
+        duplicateDetector.shutdown();
+        folderWatcher.shutdown();
+        libraryValidator.shutdown();
+        trackSwitcher.shutdown();
+        preloader.invalidate();
+        metadataExtractor.shutdown();
+        searchIndex.shutdown();
+        waveforms.shutdown();
+        artwork.shutdown();
+        playlistFiles.shutdown();
+        sortedView.shutdown();
+        smartPlaylists.shutdown();
+        metadataCatalog.close();
+        // 曲库修改早已随时写进日志，这里只等最后一批落盘
+        libraryJournal.close(2000);
+        history.close(2000);
     }
 
-    private Button createPlayButton() { return new Button("▶"); }
+    private Button createPlayButton() {
+        Button btn = new Button("▶");
+        btn.getStyleClass().add("play-button");
+        return btn;
+    }
 
     private void setupSliderListeners() {
         volumeSlider.valueProperty().addListener((o, ov, nv) -> { if (mediaPlayer != null) mediaPlayer.setVolume(nv.doubleValue()); });
-        progressSlider.valueProperty().addListener((o, ov, nv) -> { if (progressSlider.isValueChanging() && mediaPlayer != null) mediaPlayer.seek(mediaPlayer.getTotalDuration().multiply(nv.doubleValue() / 100.0)); });
-        progressSlider.setOnMouseClicked(e -> { if (mediaPlayer != null) mediaPlayer.seek(mediaPlayer.getTotalDuration().multiply(e.getX() / progressSlider.getWidth())); });
+        progressSlider.valueProperty().addListener((o, ov, nv) -> { if (progressSlider.isValueChanging()) scheduleSeek(nv.doubleValue() / 100.0, false); });
+        progressSlider.valueChangingProperty().addListener((o, was, changing) -> { if (!changing) scheduleSeek(progressSlider.getValue() / 100.0, true); });
+        // 拖动结束后也会收到 click，那次已经由 valueChanging 提交过了
+        progressSlider.setOnMouseClicked(e -> { if (e.isStillSincePress()) scheduleSeek(e.getX() / progressSlider.getWidth(), true); });
     }
 
-    private String formatTime(Duration d) {
-        if (d == null) return "00:00";
-        int s = (int) d.toSeconds();
-        return String.format("%02d:%02d", s / 60, s % 60);
+    private void scheduleSeek(double fraction, boolean commit) {
+        if (mediaPlayer == null) return;
+        double total = mediaPlayer.getTotalDuration().toMillis();
+        if (!(total > 0) || Double.isInfinite(total)) return;
+        double target = Math.max(0, Math.min(1, fraction)) * total;
+        long now = System.nanoTime();
+        if (commit) seekScheduler.commit(target, now);
+        else seekScheduler.request(target, now);
+        // 拖动预览：标签先显示目标时间，落定后时钟接管
+        clock.setScrubbing(true);
+        timeLabel.setText(clock.format((int) (target / 1000)));
+        seekPulse.start();
     }
 
     public static void main(String[] args) { launch(args); }
@@ -0,0 +1,64 @@
+import javafx.scene.media.MediaPlayer;
+
+/**
+ * 下一首预热：在当前曲目结束前若干秒就把下一首的 MediaPlayer 建好并进入 READY，
+ * 播放结束时直接交接，省掉新管线初始化的那段空白。
+ * 播放器在 TrackSwitcher 的后台线程上创建，其余只在 FX 线程上使用。
+ */
+public class NextTrackPreloader {
+
+    private final TrackSwitcher creator;
+    private final double leadSeconds;
+    private Track track;
+    private MediaPlayer player;
+    // 每次作废加一，晚到的播放器据此判断自己是否已过期
+    private long generation;
+
+    /** leadSeconds 为 0 或负数表示关闭预热 */
+    public NextTrackPreloader(TrackSwitcher creator, double leadSeconds) {
+        this.creator = creator;
+        this.leadSeconds = leadSeconds;
+    }
+
+    public boolean isEnabled() { return leadSeconds > 0; }
+
+    public Track getTrack() { return track; }
+
+    /** 剩余时间进入预热窗口时调用；同一首重复调用不会重建 */
+    public void maybePrepare(Track next, double remainingSeconds) {
+        if (!isEnabled() || next == null || next == track || remainingSeconds > leadSeconds) return;
+        invalidate();
+        track = next;
+        long gen = generation;
+        creator.create(next, p -> {
+            if (p == null) {
+                if (gen == generation) invalidate();
+                return;
+            }
+            if (gen != generation) { p.dispose(); return; }
+            p.setOnError(() -> { if (p == player) invalidate(); });
+            player = p;
+        });
+    }
+
+    /**
+     * 要播的正是预热的那首、且播放器已经建好就交出 (还没 READY 也比重新创建快)，否则返回 null。
+     */
+    public MediaPlayer take(Track wanted) {
+        if (wanted == null || wanted != track || player == null) return null;
+        MediaPlayer p = player;
+        p.setOnError(null);
+        player = null;
+        track = null;
+        generation++;
+        return p;
+    }
+
+    /** 播放模式或队列变化后，预热的曲目可能已经不是下一首了 */
+    public void invalidate() {
+        if (player != null) player.dispose();
+        player = null;
+        track = null;
+        generation++;
+    }
+}
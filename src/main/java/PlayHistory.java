@@ -0,0 +1,503 @@
+import javafx.application.Platform;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 播放历史：只追加的二进制事件日志 (play-history.log) + 内存里的聚合计数。
+ * <p>
+ * 每次播放结束 (放完或被切走) 记一条事件：歌曲号、时间、播放到的毫秒数、算不算一次播放。
+ * 歌曲号是日志自己分配的连续编号 (曲目 ID 每次启动都会变)，第一次出现时先写一条路径记录。
+ * 事件由后台线程攒成一批写入、只 force 一次，记录带 CRC，残缺的尾部启动时截掉。
+ * <p>
+ * 聚合全部是按歌曲号的基本类型数组，每条事件 O(1) 更新：
+ * 播放次数按降序排成一个数组，同次数的歌曲连续成段，加一只需和本段第一首交换，前 N 名直接取数组开头；
+ * 最近播放是一条双向链表，播放时移到表头；最近 RECENT_DAYS 天内的完整播放按日期排成队列，
+ * 每首另有窗口内次数，出了窗口的从队头出队再减一。启动时在后台顺序读一遍日志重建，不另存聚合结果。
+ * 加载完成前的播放先留在内存里，加载后再补记。
+ *
+ * 日志格式：int magic, int version，之后是记录：
+ *   SONG: byte 1, short len, UTF-8 路径, int crc
+ *   PLAY: byte 2, int song, long time, int playedMillis, byte flags, int crc
+ */
+public class PlayHistory {
+
+    /** recentPlays 统计的天数 (含今天) */
+    public static final int RECENT_DAYS = 30;
+
+    private static final int MAGIC = 0x4550484C; // "EPHL"
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    private static final byte OP_SONG = 1;
+    private static final byte OP_PLAY = 2;
+    private static final byte FLAG_COMPLETED = 1;
+    private static final int PLAY_RECORD = 1 + 4 + 8 + 4 + 1;
+
+    private static final long LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int MAX_GROUP = 1024;
+    private static final Object STOP = new Object();
+
+    private final Path file;
+    private final TrackRegistry library;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+
+    // 加载时在 play-history 线程上填，之后只在 FX 线程上访问
+    private final Map<String, Integer> songByKey = new HashMap<>();
+    private int songCount;
+    private int[] plays = new int[256];
+    private int[] skips = new int[256];
+    private long[] lastPlayed = new long[256];
+    private long totalPlays;
+    private long totalSkips;
+    // 播放次数降序：order[pos[s]] == s，次数为 c 的歌曲占 [bucketFirst[c], bucketFirst[c] + bucketSize[c])
+    private int[] order = new int[256];
+    private int[] pos = new int[256];
+    private int[] bucketFirst = new int[16];
+    private int[] bucketSize = new int[16];
+    // 最近播放：双向链表，-1 表示没有
+    private int[] prev = new int[256];
+    private int[] next = new int[256];
+    private int head = -1;
+    // 窗口内的完整播放：环形队列，每项 (epoch day << 32) | 歌曲号，日期不减
+    private int[] recentPlays = new int[256];
+    private long[] recent = new long[256];
+    private int recentFirst;
+    private int recentSize;
+    // 歌曲号 <-> 曲库里的曲目 ID
+    private int[] trackOfSong = new int[256];
+    private int[] songOfTrack = new int[1024];
+
+    // 以下字段只在 FX 线程上访问
+    private boolean loaded;
+    private final List<Object[]> early = new ArrayList<>(); // 加载完成前的播放 { File, time, playedMillis, completed }
+
+    /** 写日志的一条事件；song 第一次出现时带上 path */
+    private static final class Event {
+        final int song;
+        final String path;
+        final long time;
+        final int playedMillis;
+        final boolean completed;
+
+        Event(int song, String path, long time, int playedMillis, boolean completed) {
+            this.song = song;
+            this.path = path;
+            this.time = time;
+            this.playedMillis = playedMillis;
+            this.completed = completed;
+        }
+    }
+
+    public PlayHistory(Path file, TrackRegistry library) {
+        this.file = file;
+        this.library = library;
+        Arrays.fill(songOfTrack, -1);
+    }
+
+    /** 后台读日志重建聚合，完成后在 FX 线程上关联曲库并回调 */
+    public void open(Runnable onLoaded) {
+        writer = new Thread(() -> run(onLoaded), "play-history");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isLoaded() { return loaded; }
+
+    /** 一次播放结束 (FX 线程)。completed 表示算作一次完整播放，否则记为跳过 */
+    public void record(Track track, long playedMillis, boolean completed) {
+        long now = System.currentTimeMillis();
+        int played = (int) Math.min(Math.max(playedMillis, 0), Integer.MAX_VALUE);
+        if (!loaded) { early.add(new Object[] { track.getFile(), now, played, completed }); return; }
+        write(track.getFile(), track.getId(), now, played, completed);
+    }
+
+    /** 新入库的曲目关联上历史 */
+    public void attach(List<Track> tracks) {
+        if (!loaded) return; // 加载完成时会关联整个曲库
+        for (Track t : tracks) {
+            Integer song = songByKey.get(t.getPathKey());
+            if (song != null) link(song, t.getId());
+        }
+    }
+
+    public void detach(Track track) {
+        int id = track.getId();
+        if (id >= songOfTrack.length || songOfTrack[id] < 0) return;
+        trackOfSong[songOfTrack[id]] = -1;
+        songOfTrack[id] = -1;
+    }
+
+    public int plays(Track track) { int s = songOf(track); return s < 0 ? 0 : plays[s]; }
+
+    public int skips(Track track) { int s = songOf(track); return s < 0 ? 0 : skips[s]; }
+
+    /** 最近 RECENT_DAYS 天 (含今天) 的完整播放次数 */
+    public int recentPlays(Track track) {
+        int s = songOf(track);
+        if (s < 0) return 0;
+        expireRecent(LocalDate.now().toEpochDay());
+        return recentPlays[s];
+    }
+
+    /** 最后一次播放的时间 (毫秒)，没放过为 0 */
+    public long lastPlayed(Track track) { int s = songOf(track); return s < 0 ? 0 : lastPlayed[s]; }
+
+    /** 这首歌被跳过的比例，没放过为 0 */
+    public double skipRate(Track track) {
+        int s = songOf(track);
+        return s < 0 || plays[s] + skips[s] == 0 ? 0 : (double) skips[s] / (plays[s] + skips[s]);
+    }
+
+    /** 全部播放里被跳过的比例 */
+    public double skipRate() {
+        return !loaded || totalPlays + totalSkips == 0 ? 0 : (double) totalSkips / (totalPlays + totalSkips);
+    }
+
+    /** 播放次数最多的 n 首 (只算还在曲库里的) */
+    public List<Track> topPlayed(int n) {
+        List<Track> result = new ArrayList<>(n);
+        if (!loaded) return result;
+        for (int i = 0; i < songCount && result.size() < n; i++) {
+            int s = order[i];
+            if (plays[s] == 0) break;
+            Track t = trackOf(s);
+            if (t != null) result.add(t);
+        }
+        return result;
+    }
+
+    /** 最近播放的 n 首，新的在前 */
+    public List<Track> recentlyPlayed(int n) {
+        List<Track> result = new ArrayList<>(n);
+        if (!loaded) return result;
+        for (int s = head; s >= 0 && result.size() < n; s = next[s]) {
+            Track t = trackOf(s);
+            if (t != null) result.add(t);
+        }
+        return result;
+    }
+
+    /** 写完已排队的事件后关闭，最多等待 timeoutMillis */
+    public void close(long timeoutMillis) {
+        queue.add(STOP);
+        if (writer == null) return;
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int songOf(Track track) {
+        int id = track.getId();
+        return loaded && id < songOfTrack.length ? songOfTrack[id] : -1;
+    }
+
+    private Track trackOf(int song) {
+        return trackOfSong[song] < 0 ? null : library.byId(trackOfSong[song]);
+    }
+
+    // FX 线程：更新聚合，交给后台写盘
+    private void write(File f, int trackId, long time, int played, boolean completed) {
+        String key = TrackRegistry.pathKey(f);
+        Integer known = songByKey.get(key);
+        String path = null;
+        int song;
+        if (known == null) {
+            path = f.getAbsolutePath();
+            // 写不进日志的路径不分配歌曲号，否则回放时编号会错开
+            if (path.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) return;
+            song = addSong(key);
+            if (trackId >= 0) link(song, trackId);
+        } else {
+            song = known;
+        }
+        apply(song, time, completed);
+        queue.add(new Event(song, path, time, played, completed));
+    }
+
+    private void link(int song, int trackId) {
+        if (trackId >= songOfTrack.length) {
+            int old = songOfTrack.length;
+            songOfTrack = Arrays.copyOf(songOfTrack, Math.max(trackId + 1, old * 2));
+            Arrays.fill(songOfTrack, old, songOfTrack.length, -1);
+        }
+        songOfTrack[trackId] = song;
+        trackOfSong[song] = trackId;
+    }
+
+    // ==========================================
+    //   聚合 (每条事件 O(1))
+    // ==========================================
+    private int addSong(String key) {
+        int s = songCount++;
+        if (s == plays.length) {
+            int n = s * 2;
+            plays = Arrays.copyOf(plays, n);
+            skips = Arrays.copyOf(skips, n);
+            lastPlayed = Arrays.copyOf(lastPlayed, n);
+            recentPlays = Arrays.copyOf(recentPlays, n);
+            order = Arrays.copyOf(order, n);
+            pos = Arrays.copyOf(pos, n);
+            prev = Arrays.copyOf(prev, n);
+            next = Arrays.copyOf(next, n);
+            trackOfSong = Arrays.copyOf(trackOfSong, n);
+        }
+        songByKey.put(key, s);
+        trackOfSong[s] = -1;
+        prev[s] = -1;
+        next[s] = -1;
+        // 新歌次数为 0，排在最后
+        order[s] = s;
+        pos[s] = s;
+        if (bucketSize[0] == 0) bucketFirst[0] = s;
+        bucketSize[0]++;
+        return s;
+    }
+
+    private void apply(int s, long time, boolean completed) {
+        if (completed) {
+            increment(s);
+            totalPlays++;
+            addRecent(s, time);
+        } else {
+            skips[s]++;
+            totalSkips++;
+        }
+        lastPlayed[s] = Math.max(lastPlayed[s], time);
+        moveToFront(s);
+    }
+
+    // 和本段第一首交换后本段缩短一格，换到的位置正好接在 c + 1 段的末尾
+    private void increment(int s) {
+        int c = plays[s];
+        int first = bucketFirst[c];
+        int other = order[first];
+        order[pos[s]] = other;
+        pos[other] = pos[s];
+        order[first] = s;
+        pos[s] = first;
+        bucketFirst[c]++;
+        bucketSize[c]--;
+        plays[s] = ++c;
+        if (c == bucketSize.length) {
+            bucketFirst = Arrays.copyOf(bucketFirst, c * 2);
+            bucketSize = Arrays.copyOf(bucketSize, c * 2);
+        }
+        if (bucketSize[c] == 0) bucketFirst[c] = first;
+        bucketSize[c]++;
+    }
+
+    private void addRecent(int s, long time) {
+        long today = LocalDate.now().toEpochDay();
+        long day = LocalDate.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).toEpochDay();
+        if (day <= today - RECENT_DAYS) return;
+        expireRecent(today);
+        // 时钟被往回调过时按队尾的日期算，保持队列有序
+        if (recentSize > 0) day = Math.max(day, recent[(recentFirst + recentSize - 1) % recent.length] >>> 32);
+        if (recentSize == recent.length) {
+            long[] grown = new long[recent.length * 2];
+            for (int i = 0; i < recentSize; i++) grown[i] = recent[(recentFirst + i) % recent.length];
+            recent = grown;
+            recentFirst = 0;
+        }
+        recent[(recentFirst + recentSize) % recent.length] = day << 32 | s;
+        recentSize++;
+        recentPlays[s]++;
+    }
+
+    private void expireRecent(long today) {
+        while (recentSize > 0 && (recent[recentFirst] >>> 32) <= today - RECENT_DAYS) {
+            recentPlays[(int) recent[recentFirst]]--;
+            recentFirst = (recentFirst + 1) % recent.length;
+            recentSize--;
+        }
+    }
+
+    private void moveToFront(int s) {
+        if (head == s) return;
+        if (prev[s] >= 0) next[prev[s]] = next[s];
+        if (next[s] >= 0) prev[next[s]] = prev[s];
+        prev[s] = -1;
+        next[s] = head;
+        if (head >= 0) prev[head] = s;
+        head = s;
+    }
+
+    // ==========================================
+    //   后台线程
+    // ==========================================
+    private void run(Runnable onLoaded) {
+        FileChannel log = null;
+        List<Event> group = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        CRC32 crc = new CRC32();
+        try {
+            log = replay(crc);
+            Platform.runLater(() -> {
+                loaded = true;
+                for (Track t : library.tracks()) {
+                    Integer song = songByKey.get(t.getPathKey());
+                    if (song != null) link(song, t.getId());
+                }
+                for (Object[] e : early) {
+                    File f = (File) e[0];
+                    Track t = library.byPath(f);
+                    write(f, t == null ? -1 : t.getId(), (Long) e[1], (Integer) e[2], (Boolean) e[3]);
+                }
+                early.clear();
+                onLoaded.run();
+            });
+            boolean stopping = false;
+            while (!stopping) {
+                Object o = queue.take();
+                if (o == STOP) break;
+                group.add((Event) o);
+                // 连着切歌时合成一批写
+                long deadline = System.nanoTime() + LINGER_NANOS;
+                while (group.size() < MAX_GROUP) {
+                    long wait = deadline - System.nanoTime();
+                    o = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (o == null) break;
+                    if (o == STOP) { stopping = true; break; }
+                    group.add((Event) o);
+                }
+                buffer = commit(log, group, buffer, crc);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (log != null && !group.isEmpty()) commit(log, group, buffer, crc);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (log != null) {
+                try { log.close(); } catch (IOException e) { e.printStackTrace(); }
+            }
+        }
+    }
+
+    private static ByteBuffer commit(FileChannel log, List<Event> group, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.clear();
+        for (Event e : group) {
+            byte[] bytes = e.path == null ? null : e.path.getBytes(StandardCharsets.UTF_8);
+            int need = PLAY_RECORD + 4 + (bytes == null ? 0 : bytes.length + 7);
+            if (buffer.remaining() < need) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + need));
+                buffer.flip();
+                buffer = bigger.put(buffer);
+            }
+            if (bytes != null) {
+                int start = buffer.position();
+                buffer.put(OP_SONG).putShort((short) bytes.length).put(bytes);
+                crc.reset();
+                crc.update(buffer.array(), start, buffer.position() - start);
+                buffer.putInt((int) crc.getValue());
+            }
+            int start = buffer.position();
+            buffer.put(OP_PLAY).putInt(e.song).putLong(e.time).putInt(e.playedMillis).put(e.completed ? FLAG_COMPLETED : 0);
+            crc.reset();
+            crc.update(buffer.array(), start, PLAY_RECORD);
+            buffer.putInt((int) crc.getValue());
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) log.write(buffer);
+        log.force(false);
+        return buffer;
+    }
+
+    // 顺序读一遍日志重建聚合；遇到残缺或对不上的记录就截断在那里
+    private FileChannel replay(CRC32 crc) throws IOException {
+        long validEnd = HEADER;
+        boolean usable = false;
+        if (Files.exists(file)) {
+            try (InputStream raw = Files.newInputStream(file);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+                usable = in.readInt() == MAGIC && in.readInt() == VERSION;
+                byte[] record = new byte[3 + 256];
+                while (usable) {
+                    int type = in.read();
+                    if (type < 0) break;
+                    int len;
+                    if (type == OP_SONG) {
+                        len = 3 + in.readUnsignedShort();
+                        if (record.length < len) record = new byte[len];
+                        record[1] = (byte) ((len - 3) >>> 8);
+                        record[2] = (byte) (len - 3);
+                        in.readFully(record, 3, len - 3);
+                    } else if (type == OP_PLAY) {
+                        len = PLAY_RECORD;
+                        in.readFully(record, 1, len - 1);
+                    } else {
+                        break;
+                    }
+                    record[0] = (byte) type;
+                    int sum = in.readInt();
+                    crc.reset();
+                    crc.update(record, 0, len);
+                    if ((int) crc.getValue() != sum) break;
+
+                    ByteBuffer r = ByteBuffer.wrap(record, 1, len - 1);
+                    if (type == OP_SONG) {
+                        String path = new String(record, 3, len - 3, StandardCharsets.UTF_8);
+                        addSong(TrackRegistry.pathKey(new File(path)));
+                    } else {
+                        int song = r.getInt();
+                        long time = r.getLong();
+                        r.getInt(); // 播放时长，聚合里暂时用不到
+                        boolean completed = (r.get() & FLAG_COMPLETED) != 0;
+                        if (song < 0 || song >= songCount) break;
+                        apply(song, time, completed);
+                    }
+                    validEnd += len + 4;
+                }
+            } catch (EOFException e) {
+                // 最后一批没写完就崩溃了
+            }
+        }
+
+        FileChannel log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (usable) {
+            if (log.size() > validEnd) {
+                System.err.println("Play history: discarding torn tail after " + validEnd + " bytes");
+                log.truncate(validEnd);
+                log.force(false);
+            }
+            log.position(validEnd);
+        } else {
+            if (log.size() > 0) System.err.println("Unrecognized play history, starting over: " + file);
+            log.truncate(0);
+            log.write(ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            log.force(false);
+            log.position(HEADER);
+        }
+        return log;
+    }
+}
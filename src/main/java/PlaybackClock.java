@@ -0,0 +1,127 @@
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
+import javafx.scene.media.MediaPlayer;
+
+/**
+ * 播放时钟：按固定频率读取播放位置，刷新进度条和时间标签。
+ * 不再给 currentTimeProperty 挂监听；总时长每首只格式化一次，
+ * 已播放时间写进复用的字符缓冲，显示的秒数没变就不碰标签。暂停期间不刷新。只在 FX 线程上使用。
+ */
+public class PlaybackClock {
+
+    public interface TickListener {
+        void onTick(double currentMillis, double totalMillis);
+    }
+
+    private final Slider progress;
+    private final Label label;
+    private final TickListener tickListener;
+    private final long minTickNanos;
+
+    private MediaPlayer player;
+    private long lastTick;
+    private boolean scrubbing;
+
+    // 标签缓存
+    private final char[] buf = new char[32];
+    private int shownSecond = -1;
+    private double cachedTotalMillis = Double.NaN;
+    private String totalText = "00:00";
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override public void handle(long now) {
+            if (now - lastTick < minTickNanos) return;
+            lastTick = now;
+            tick();
+        }
+    };
+
+    /** hz <= 0 表示每个画面刷新都更新 */
+    public PlaybackClock(Slider progress, Label label, double hz, TickListener tickListener) {
+        this.progress = progress;
+        this.label = label;
+        this.tickListener = tickListener;
+        this.minTickNanos = hz <= 0 ? 0 : (long) (1_000_000_000L / hz);
+    }
+
+    public void attach(MediaPlayer player) {
+        this.player = player;
+        shownSecond = -1;
+        cachedTotalMillis = Double.NaN;
+        totalText = "00:00";
+        lastTick = 0;
+        timer.start();
+    }
+
+    public void detach() {
+        timer.stop();
+        player = null;
+    }
+
+    /** 暂停时停掉定时器，位置只在跳转落定后刷新一次 */
+    public void pause() {
+        timer.stop();
+        refresh();
+    }
+
+    public void resume() {
+        if (player == null) return;
+        lastTick = 0;
+        timer.start();
+    }
+
+    /** 拖动进度条期间不回写滑块位置 */
+    public void setScrubbing(boolean scrubbing) { this.scrubbing = scrubbing; }
+
+    /** 立即刷新一次 (例如跳转之后) */
+    public void refresh() {
+        if (player != null) tick();
+    }
+
+    private void tick() {
+        double total = player.getTotalDuration().toMillis();
+        double current = player.getCurrentTime().toMillis();
+        if (total != cachedTotalMillis && !Double.isNaN(total) && !Double.isInfinite(total)) {
+            cachedTotalMillis = total;
+            int n = appendTime(buf, 0, (int) (total / 1000));
+            totalText = new String(buf, 0, n);
+            shownSecond = -1;
+        }
+        if (!scrubbing && !progress.isValueChanging() && cachedTotalMillis > 0) {
+            progress.setValue(current / cachedTotalMillis * 100);
+        }
+        int second = (int) (current / 1000);
+        if (second != shownSecond && !scrubbing) {
+            shownSecond = second;
+            label.setText(format(second));
+        }
+        if (tickListener != null && !Double.isNaN(cachedTotalMillis)) tickListener.onTick(current, cachedTotalMillis);
+    }
+
+    /** "mm:ss / mm:ss" */
+    public String format(int elapsedSeconds) {
+        int n = appendTime(buf, 0, elapsedSeconds);
+        buf[n++] = ' '; buf[n++] = '/'; buf[n++] = ' ';
+        for (int i = 0; i < totalText.length() && n < buf.length; i++) buf[n++] = totalText.charAt(i);
+        return new String(buf, 0, n);
+    }
+
+    // 写入 mm:ss (分钟超过两位时照常变长)，返回结束位置
+    private static int appendTime(char[] out, int pos, int seconds) {
+        if (seconds < 0) seconds = 0;
+        int m = seconds / 60, s = seconds % 60;
+        if (m >= 100) {
+            int digits = (int) Math.log10(m) + 1;
+            for (int i = digits - 1; i >= 0; i--) { out[pos + i] = (char) ('0' + m % 10); m /= 10; }
+            pos += digits;
+        } else {
+            out[pos++] = (char) ('0' + m / 10);
+            out[pos++] = (char) ('0' + m % 10);
+        }
+        out[pos++] = ':';
+        out[pos++] = (char) ('0' + s / 10);
+        out[pos++] = (char) ('0' + s % 10);
+        return pos;
+    }
+}
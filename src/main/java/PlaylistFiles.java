@@ -0,0 +1,249 @@
+import javafx.application.Platform;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * M3U / M3U8 / PLS 播放列表的导入导出，都在后台线程上流式进行。
+ * <p>
+ * 导入逐行读，不把文件整个读进内存：相对路径按播放列表所在目录解析，file: URI 转成本地路径，
+ * 网络地址、不支持的格式、不存在的文件和列表里重复的条目跳过，其余按批交给 FX 线程，
+ * 和曲库的去重 (路径索引) 由曲库自己做。
+ * 导出先在 FX 线程上拍下曲目列表，后台边编码边写进文件通道，写完再替换目标文件；
+ * 播放列表目录下的曲目写相对路径，其余写绝对路径。
+ * .m3u8 和 .pls 按 UTF-8 读写。老式 .m3u 没有编码声明：逐行看，能按 UTF-8 解的按 UTF-8，
+ * 否则按系统本地编码 (本地就是 UTF-8 时按 Latin-1)；导出 .m3u 用本地编码，写不下的路径会导出失败。
+ */
+public class PlaylistFiles {
+
+    /** 导入结果，回调都在 FX 线程执行 */
+    public interface Listener {
+        void onEntries(List<File> files);
+        void onFinished(int entries, int skipped);
+    }
+
+    private static final int BATCH = 2000;
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "playlist-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static boolean supports(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".m3u") || name.endsWith(".m3u8") || name.endsWith(".pls");
+    }
+
+    private static boolean isPls(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".pls");
+    }
+
+    private static boolean isLegacyM3u(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".m3u");
+    }
+
+    // 系统本地编码，.m3u 导出用它
+    private static Charset nativeCharset() {
+        try {
+            return Charset.forName(System.getProperty("native.encoding", "ISO-8859-1"));
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    // .m3u 里不是 UTF-8 的行按什么解
+    private static Charset legacyCharset() {
+        Charset local = nativeCharset();
+        return local.equals(StandardCharsets.UTF_8) ? StandardCharsets.ISO_8859_1 : local;
+    }
+
+    public void importPlaylist(File playlist, Listener listener) {
+        io.execute(() -> {
+            Path base = playlist.toPath().toAbsolutePath().getParent();
+            boolean pls = isPls(playlist);
+            Set<String> seen = new HashSet<>();
+            List<File> batch = new ArrayList<>(BATCH);
+            int entries = 0, skipped = 0;
+            // .m3u 先按 Latin-1 读，字节原样留在字符里，再逐行定编码
+            Charset legacy = isLegacyM3u(playlist) ? legacyCharset() : null;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(Files.newInputStream(playlist.toPath()),
+                    (legacy != null ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8).newDecoder().onMalformedInput(CodingErrorAction.REPLACE)), 1 << 16)) {
+                String line;
+                boolean first = true;
+                while ((line = in.readLine()) != null) {
+                    if (legacy != null) line = decodeLine(line, legacy);
+                    if (first && !line.isEmpty() && line.charAt(0) == '\uFEFF') line = line.substring(1); // BOM
+                    first = false;
+                    String entry = pls ? plsEntry(line) : m3uEntry(line);
+                    if (entry == null) continue;
+                    entries++;
+                    File file = resolve(entry, base);
+                    String key = file == null ? null : key(file);
+                    if (key == null || !LibraryScanner.isAudioFile(file.getName()) || !seen.add(key) || !file.isFile()) {
+                        skipped++;
+                        continue;
+                    }
+                    batch.add(file);
+                    if (batch.size() >= BATCH) {
+                        List<File> out = new ArrayList<>(batch);
+                        batch.clear();
+                        Platform.runLater(() -> listener.onEntries(out));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Playlist import failed " + playlist + ": " + e.getMessage());
+            }
+            int total = entries, missed = skipped;
+            Platform.runLater(() -> {
+                if (!batch.isEmpty()) listener.onEntries(batch);
+                listener.onFinished(total, missed);
+            });
+        });
+    }
+
+    /** 按 target 的扩展名导出 (不认识的按 M3U8)，onFinished 收到是否成功 */
+    public void export(List<Track> tracks, File target, Consumer<Boolean> onFinished) {
+        List<Track> snapshot = new ArrayList<>(tracks);
+        io.execute(() -> {
+            boolean ok = write(snapshot, target.toPath().toAbsolutePath());
+            Platform.runLater(() -> onFinished.accept(ok));
+        });
+    }
+
+    public void shutdown() { io.shutdownNow(); }
+
+    // ==========================================
+    //   解析
+    // ==========================================
+    // raw 的每个字符就是一个字节：纯 ASCII 原样返回，合法 UTF-8 (含 BOM) 按 UTF-8，其余按本地编码
+    private static String decodeLine(String raw, Charset legacy) {
+        int i = 0;
+        while (i < raw.length() && raw.charAt(i) < 0x80) i++;
+        if (i == raw.length()) return raw;
+        byte[] bytes = raw.getBytes(StandardCharsets.ISO_8859_1);
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, legacy);
+        }
+    }
+
+    // M3U：空行和 # 开头的 (#EXTM3U、#EXTINF 等) 都不是条目，标题和时长以标签为准
+    private static String m3uEntry(String line) {
+        line = line.trim();
+        return line.isEmpty() || line.startsWith("#") ? null : line;
+    }
+
+    // PLS：只认 FileN=路径
+    private static String plsEntry(String line) {
+        int eq = line.indexOf('=');
+        if (eq < 5 || !line.regionMatches(true, 0, "File", 0, 4)) return null;
+        for (int i = 4; i < eq; i++) if (!Character.isDigit(line.charAt(i))) return null;
+        String value = line.substring(eq + 1).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static File resolve(String entry, Path base) {
+        try {
+            if (entry.regionMatches(true, 0, "file:", 0, 5)) return Paths.get(URI.create(entry)).toFile();
+            if (entry.contains("://")) return null; // 网络流
+            if (File.separatorChar == '/') entry = entry.replace('\\', '/'); // Windows 上做的列表
+            Path path = Paths.get(entry);
+            if (!path.isAbsolute()) {
+                if (base == null) return null;
+                path = base.resolve(path);
+            }
+            return path.normalize().toFile();
+        } catch (IllegalArgumentException e) { // 含 InvalidPathException
+            return null;
+        }
+    }
+
+    // 文件系统编码不了的路径 (InvalidPathException) 当作无效条目
+    private static String key(File file) {
+        try {
+            return TrackRegistry.pathKey(file);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // ==========================================
+    //   导出
+    // ==========================================
+    private static boolean write(List<Track> tracks, Path target) {
+        boolean pls = isPls(target.toFile());
+        Path dir = target.getParent();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer out = new BufferedWriter(Channels.newWriter(ch, isLegacyM3u(target.toFile()) ? nativeCharset() : StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(pls ? "[playlist]\n" : "#EXTM3U\n");
+            int n = 0;
+            for (Track track : tracks) {
+                String path = relativize(track.getFile().toPath(), dir);
+                // 路径列可以跨线程读；标签可能同时在 FX 线程上更新，读到旧值也无妨
+                long seconds = track.getDurationMillis() > 0 ? track.getDurationMillis() / 1000 : -1;
+                TrackMetadata m = track.getMetadata();
+                String title = m != null && m.hasArtist() ? m.getArtist() + " - " + track.getDisplayTitle() : track.getDisplayTitle();
+                title = title.replace('\n', ' ').replace('\r', ' ');
+                if (pls) {
+                    n++;
+                    out.write("File" + n + "=" + path + "\nTitle" + n + "=" + title + "\nLength" + n + "=" + seconds + "\n");
+                } else {
+                    out.write("#EXTINF:" + seconds + "," + title + "\n" + path + "\n");
+                }
+            }
+            if (pls) out.write("NumberOfEntries=" + n + "\nVersion=2\n");
+            out.flush();
+            ch.force(false);
+        } catch (IOException e) {
+            System.err.println("Playlist export failed " + target + ": " + e.getMessage());
+            try { Files.deleteIfExists(temp); } catch (IOException ignored) { }
+            return false;
+        }
+        try {
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Playlist export failed " + target + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // 在播放列表目录下的写相对路径 (分隔符统一用 /)，其余写绝对路径
+    private static String relativize(Path file, Path dir) {
+        if (dir != null && file.startsWith(dir)) return dir.relativize(file).toString().replace('\\', '/');
+        return file.toString();
+    }
+}
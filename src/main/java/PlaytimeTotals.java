@@ -0,0 +1,120 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 曲库、搜索结果和剩余队列的总时长，全部增量维护 (只在 FX 线程上使用)。
+ * <p>
+ * 曲库顺序与曲目 ID 顺序一致 (ID 按添加顺序分配，删除不打乱顺序)，
+ * 所以 "当前曲目之后还有多久" 就是一棵按 ID 建的树状数组 (Fenwick) 上的前缀和，O(log n)。
+ * 搜索结果换了只比较新旧两个结果集 (按字计算异或)，只给进出结果集的曲目加减时长。
+ */
+public class PlaytimeTotals {
+
+    private int[] millis = new int[1024]; // 已计入的时长，0 表示还不知道
+    private long[] tree = new long[1024 + 1];
+    private final BitSet present = new BitSet();
+    private BitSet filter; // null 表示不过滤
+
+    private long libraryTotal;
+    private long filteredTotal;
+
+    public void add(List<Track> tracks) {
+        for (Track t : tracks) {
+            int id = t.getId();
+            if (present.get(id)) continue;
+            ensureCapacity(id);
+            present.set(id);
+            set(id, duration(t));
+        }
+    }
+
+    public void remove(Track track) {
+        int id = track.getId();
+        if (!present.get(id)) return;
+        set(id, 0);
+        present.clear(id);
+    }
+
+    /** 标签 (时长) 更新后调用，返回时长的变化量 */
+    public long update(Track track) {
+        int id = track.getId();
+        if (!present.get(id)) return 0;
+        int old = millis[id];
+        set(id, duration(track));
+        return millis[id] - old;
+    }
+
+    /** 新的搜索结果集 (按曲目 ID)，null 表示不过滤 */
+    public void setFilter(BitSet next) {
+        if (next == filter) return;
+        BitSet before = filter == null ? present : filter;
+        BitSet after = next == null ? present : next;
+        BitSet changed = (BitSet) before.clone();
+        changed.xor(after);
+        changed.and(present);
+        for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+            filteredTotal += after.get(id) ? millis[id] : -millis[id];
+        }
+        filter = next;
+    }
+
+    public long getLibraryMillis() { return libraryTotal; }
+
+    public long getFilteredMillis() { return filteredTotal; }
+
+    /** 曲库顺序里排在 track 之后的曲目总时长 (不含 track 本身) */
+    public long getMillisAfter(Track track) {
+        int id = track.getId();
+        return present.get(id) ? libraryTotal - prefix(id) : 0;
+    }
+
+    /** 已计入的时长 (给随机队列用，与这里的总数保持一致) */
+    public long millis(int id) {
+        return id < millis.length && present.get(id) ? millis[id] : 0;
+    }
+
+    /** 1h 05m / 4m 30s */
+    public static String format(long millis) {
+        long minutes = millis / 60_000;
+        if (minutes >= 60) return String.format("%dh %02dm", minutes / 60, minutes % 60);
+        return String.format("%dm %02ds", minutes, millis / 1000 % 60);
+    }
+
+    // ==========================================
+    //   树状数组 (下标 = ID + 1)
+    // ==========================================
+    private void set(int id, int value) {
+        long delta = value - millis[id];
+        if (delta == 0) return;
+        millis[id] = value;
+        libraryTotal += delta;
+        if (filter == null || filter.get(id)) filteredTotal += delta;
+        for (int i = id + 1; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    // ID <= id 的曲目时长之和
+    private long prefix(int id) {
+        long sum = 0;
+        for (int i = id + 1; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    // 扩容时按新长度 O(n) 重建
+    private void ensureCapacity(int id) {
+        if (id < millis.length) return;
+        int capacity = millis.length;
+        while (capacity <= id) capacity <<= 1;
+        millis = Arrays.copyOf(millis, capacity);
+        tree = new long[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            tree[i] += millis[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= capacity) tree[parent] += tree[i];
+        }
+    }
+
+    private static int duration(Track track) {
+        return (int) Math.min(track.getDurationMillis(), Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,112 @@
+import javafx.animation.Animation;
+import javafx.scene.media.AudioSpectrumListener;
+import javafx.scene.media.MediaPlayer;
+import javafx.stage.Stage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 省电模式：根据窗口是否最小化 / 是否有焦点、当前显示黑胶还是频谱，
+ * 决定频谱分析是否开启、频谱重绘帧率、黑胶旋转和列表滚动字幕是否运行。
+ * 看不见的东西就不算也不画，恢复时接着原来的状态继续。只在 FX 线程上使用。
+ */
+public class PowerManager {
+
+    private static final double SPECTRUM_INTERVAL = 0.04;
+    private static final double SPECTRUM_INTERVAL_UNFOCUSED = 0.1;
+    private static final int UNFOCUSED_FPS = 15;
+
+    private final SpectrumRenderer spectrum;
+    private final Animation vinylSpin;
+    private final AudioSpectrumListener spectrumListener;
+
+    private boolean iconified;
+    private boolean focused = true;
+    private boolean spectrumShown;
+    private boolean playing;
+    private MediaPlayer player;
+
+    // 滚动字幕由列表单元格登记，单元格回收后自动消失
+    private final Set<Animation> marquees = Collections.newSetFromMap(new WeakHashMap<>());
+    private final List<Animation> pausedMarquees = new ArrayList<>();
+
+    public PowerManager(SpectrumRenderer spectrum, Animation vinylSpin) {
+        this.spectrum = spectrum;
+        this.vinylSpin = vinylSpin;
+        this.spectrumListener = spectrum::update;
+    }
+
+    public void bind(Stage stage) {
+        iconified = stage.isIconified();
+        focused = stage.isFocused();
+        stage.iconifiedProperty().addListener((o, ov, nv) -> { iconified = nv; apply(); });
+        stage.focusedProperty().addListener((o, ov, nv) -> { focused = nv; apply(); });
+        apply();
+    }
+
+    public void setSpectrumShown(boolean shown) {
+        spectrumShown = shown;
+        apply();
+    }
+
+    public void setPlaying(boolean playing) {
+        this.playing = playing;
+        if (!playing) spectrum.clear(); // 柱子落下后频谱定时器自己停
+        apply();
+    }
+
+    /** 新播放器接管时调用，传 null 表示没有播放器 */
+    public void attach(MediaPlayer player) {
+        if (this.player != null && this.player != player) this.player.setAudioSpectrumListener(null);
+        this.player = player;
+        apply();
+    }
+
+    public void registerMarquee(Animation marquee) {
+        marquees.add(marquee);
+        if (iconified && marquee.getStatus() == Animation.Status.RUNNING) {
+            marquee.pause();
+            pausedMarquees.add(marquee);
+        }
+    }
+
+    private void apply() {
+        boolean visible = !iconified;
+
+        // 1. 频谱：只有显示频谱视图且窗口可见时才让播放器做分析
+        boolean analyse = visible && spectrumShown && player != null;
+        if (player != null) {
+            // 监听器为 null 时 MediaPlayer 会关闭频谱分析
+            player.setAudioSpectrumListener(analyse ? spectrumListener : null);
+            if (analyse) player.setAudioSpectrumInterval(focused ? SPECTRUM_INTERVAL : SPECTRUM_INTERVAL_UNFOCUSED);
+        }
+        if (visible && spectrumShown) {
+            spectrum.setMaxFps(focused ? 0 : UNFOCUSED_FPS);
+            spectrum.start();
+        } else {
+            spectrum.stop();
+        }
+
+        // 2. 黑胶旋转：正在播放且黑胶可见
+        boolean spin = playing && visible && !spectrumShown;
+        if (spin && vinylSpin.getStatus() != Animation.Status.RUNNING) vinylSpin.play();
+        else if (!spin && vinylSpin.getStatus() == Animation.Status.RUNNING) vinylSpin.pause();
+
+        // 3. 滚动字幕：最小化时暂停，恢复时只继续被这里暂停的那些
+        if (iconified) {
+            for (Animation a : marquees) {
+                if (a.getStatus() == Animation.Status.RUNNING) {
+                    a.pause();
+                    pausedMarquees.add(a);
+                }
+            }
+        } else if (!pausedMarquees.isEmpty()) {
+            for (Animation a : pausedMarquees) if (a.getStatus() == Animation.Status.PAUSED) a.play();
+            pausedMarquees.clear();
+        }
+    }
+}
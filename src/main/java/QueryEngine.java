@@ -0,0 +1,336 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 智能播放列表的查询引擎 (只在 FX 线程上使用)，结果是按曲目 ID 的 BitSet。
+ * <p>
+ * 文字字段 (艺人、专辑) 是 小写值 -> 曲目集合 的哈希索引，等值直接取集合，包含 (~) 只扫不重复的值；
+ * 数字字段是按 (值, ID) 排好的 long 数组，范围条件二分出一段直接置位。
+ * 曲目增删改只把 ID 记为待合并，下一次查询前拿掉旧条目、把这一批排好再归并进去，不整体重排。
+ * 单首曲目是否满足条件 (播放列表增量维护) 直接读按 ID 存的字段值，不走索引。
+ * 没有某个字段值的曲目 (比如没有年份) 不满足这个字段上的任何比较。
+ */
+public final class QueryEngine {
+
+    /** 数字字段索引。值须在 0 ~ Integer.MAX_VALUE 之间 */
+    public static final class NumberIndex {
+        private int[] values = new int[1024];
+        private final BitSet has = new BitSet();
+        private final BitSet dirty = new BitSet();
+        // 已合并的条目：值 << 32 | ID，升序
+        private long[] sorted = new long[1024];
+        private int size;
+
+        public void set(int id, long value) {
+            ensureCapacity(id);
+            int v = (int) Math.max(0, Math.min(value, Integer.MAX_VALUE));
+            if (has.get(id) && values[id] == v) return;
+            values[id] = v;
+            has.set(id);
+            dirty.set(id);
+        }
+
+        public void clear(int id) {
+            if (!has.get(id)) return;
+            has.clear(id);
+            dirty.set(id);
+        }
+
+        boolean test(int id, SmartQuery.Op op, long v) {
+            if (!has.get(id)) return false;
+            int x = values[id];
+            switch (op) {
+                case EQ: return x == v;
+                case NE: return x != v;
+                case LT: return x < v;
+                case LE: return x <= v;
+                case GT: return x > v;
+                case GE: return x >= v;
+                default: return false;
+            }
+        }
+
+        BitSet query(SmartQuery.Op op, long v) {
+            flush();
+            long max = Integer.MAX_VALUE;
+            switch (op) {
+                case EQ: return range(v, v);
+                case LT: return range(0, v - 1);
+                case LE: return range(0, v);
+                case GT: return range(v + 1, max);
+                case GE: return range(v, max);
+                case NE: {
+                    BitSet result = range(0, v - 1);
+                    result.or(range(v + 1, max));
+                    return result;
+                }
+                default: return new BitSet();
+            }
+        }
+
+        // 值在 [lo, hi] 之间的曲目
+        private BitSet range(long lo, long hi) {
+            BitSet result = new BitSet();
+            lo = Math.max(lo, 0);
+            hi = Math.min(hi, Integer.MAX_VALUE);
+            if (lo > hi) return result;
+            int from = lowerBound(lo << 32);
+            int to = hi == Integer.MAX_VALUE ? size : lowerBound((hi + 1) << 32);
+            for (int i = from; i < to; i++) result.set((int) sorted[i]);
+            return result;
+        }
+
+        private int lowerBound(long key) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < key) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // 拿掉改过的旧条目，改过且有值的排好后从后往前归并
+        private void flush() {
+            if (dirty.isEmpty()) return;
+            int w = 0;
+            for (int i = 0; i < size; i++) {
+                long e = sorted[i];
+                if (!dirty.get((int) e)) sorted[w++] = e;
+            }
+            size = w;
+            BitSet fresh = (BitSet) dirty.clone();
+            fresh.and(has);
+            long[] batch = new long[fresh.cardinality()];
+            int k = 0;
+            for (int id = fresh.nextSetBit(0); id >= 0; id = fresh.nextSetBit(id + 1)) batch[k++] = (long) values[id] << 32 | id;
+            Arrays.sort(batch);
+            if (size + k > sorted.length) sorted = Arrays.copyOf(sorted, Math.max(size + k, sorted.length * 2));
+            int i = size - 1, j = k - 1;
+            w = size + k - 1;
+            while (j >= 0) sorted[w--] = i >= 0 && sorted[i] > batch[j] ? sorted[i--] : batch[j--];
+            size += k;
+            dirty.clear();
+        }
+
+        private void ensureCapacity(int id) {
+            if (id >= values.length) values = Arrays.copyOf(values, Math.max(id + 1, values.length * 2));
+        }
+    }
+
+    /** 文字字段索引 (值已小写) */
+    private static final class TextIndex {
+        private final Map<String, BitSet> byValue = new HashMap<>();
+        private String[] values = new String[1024];
+
+        void set(int id, String v) {
+            if (id >= values.length) values = Arrays.copyOf(values, Math.max(id + 1, values.length * 2));
+            String old = values[id];
+            if (Objects.equals(old, v)) return;
+            if (old != null) {
+                BitSet ids = byValue.get(old);
+                ids.clear(id);
+                if (ids.isEmpty()) byValue.remove(old);
+            }
+            values[id] = v;
+            if (v != null) byValue.computeIfAbsent(v, k -> new BitSet()).set(id);
+        }
+
+        boolean test(int id, SmartQuery.Op op, String v) {
+            String x = id < values.length ? values[id] : null;
+            if (x == null) return false;
+            switch (op) {
+                case EQ: return x.equals(v);
+                case NE: return !x.equals(v);
+                case CONTAINS: return x.contains(v);
+                default: return false;
+            }
+        }
+
+        BitSet query(SmartQuery.Op op, String v) {
+            BitSet result = new BitSet();
+            if (op == SmartQuery.Op.EQ) {
+                BitSet ids = byValue.get(v);
+                if (ids != null) result.or(ids);
+                return result;
+            }
+            // 不同的值远少于曲目数，逐个值判断
+            for (Map.Entry<String, BitSet> e : byValue.entrySet()) {
+                boolean hit = op == SmartQuery.Op.CONTAINS ? e.getKey().contains(v) : !e.getKey().equals(v);
+                if (hit) result.or(e.getValue());
+            }
+            return result;
+        }
+    }
+
+    private final BitSet present = new BitSet();
+    private final TextIndex artist = new TextIndex();
+    private final TextIndex album = new TextIndex();
+    private final Map<String, NumberIndex> numbers = new HashMap<>();
+    private final Set<String> ageFields = new HashSet<>();
+    private final Set<String> datedFields = new HashSet<>(); // 值随日期变化的字段 (含日期字段)
+    private final NumberIndex year = numberField("year");
+    private final NumberIndex durationSeconds = numberField("duration");
+    private final NumberIndex trackNumber = numberField("track");
+    private final NumberIndex bitrate = numberField("bitrate");
+
+    /** 取 (没有就登记) 一个数字字段，字段名小写 */
+    public NumberIndex numberField(String name) {
+        return numbers.computeIfAbsent(name, k -> new NumberIndex());
+    }
+
+    /** 取 (没有就登记) 一个日期字段：存 epoch day，条件里写 "几天前"，如 lastplayed <= 30 */
+    public NumberIndex ageField(String name) {
+        ageFields.add(name);
+        datedFields.add(name);
+        return numberField(name);
+    }
+
+    /** 取 (没有就登记) 一个按时间窗口统计的数字字段，如最近 30 天的播放次数；换日时由登记方更新取值 */
+    public NumberIndex windowField(String name) {
+        datedFields.add(name);
+        return numberField(name);
+    }
+
+    public boolean isTextField(String name) { return name.equals("artist") || name.equals("album"); }
+
+    public boolean isNumberField(String name) { return numbers.containsKey(name); }
+
+    public void add(List<Track> tracks) {
+        for (Track t : tracks) {
+            present.set(t.getId());
+            index(t);
+        }
+    }
+
+    /** 标签更新后重建这些曲目的字段 */
+    public void update(List<Track> tracks) {
+        for (Track t : tracks) {
+            if (present.get(t.getId())) index(t);
+        }
+    }
+
+    public void remove(Track track) {
+        int id = track.getId();
+        if (!present.get(id)) return;
+        present.clear(id);
+        artist.set(id, null);
+        album.set(id, null);
+        for (NumberIndex index : numbers.values()) index.clear(id);
+    }
+
+    /** 满足条件的曲目 ID */
+    public BitSet evaluate(SmartQuery query) {
+        BitSet result = evaluate(query.getRoot());
+        result.and(present);
+        return result;
+    }
+
+    /** 条件里用到了日期字段或时间窗口字段：结果会随日期变化，换日时要重新求值 */
+    public boolean dependsOnDate(SmartQuery query) {
+        return dependsOnDate(query.getRoot());
+    }
+
+    private boolean dependsOnDate(SmartQuery.Node node) {
+        if (node instanceof SmartQuery.And) {
+            for (SmartQuery.Node child : ((SmartQuery.And) node).children) if (dependsOnDate(child)) return true;
+            return false;
+        }
+        if (node instanceof SmartQuery.Or) {
+            for (SmartQuery.Node child : ((SmartQuery.Or) node).children) if (dependsOnDate(child)) return true;
+            return false;
+        }
+        if (node instanceof SmartQuery.Not) return dependsOnDate(((SmartQuery.Not) node).child);
+        return datedFields.contains(((SmartQuery.Compare) node).field);
+    }
+
+    /** 单首曲目是否满足条件 */
+    public boolean matches(SmartQuery query, Track track) {
+        return present.get(track.getId()) && test(query.getRoot(), track.getId());
+    }
+
+    private void index(Track t) {
+        int id = t.getId();
+        TrackMetadata m = t.getMetadata();
+        artist.set(id, m != null && m.hasArtist() ? m.getArtist().toLowerCase(Locale.ROOT) : null);
+        album.set(id, m != null && !m.getAlbum().isEmpty() ? m.getAlbum().toLowerCase(Locale.ROOT) : null);
+        setOrClear(year, id, m == null ? 0 : m.getYear());
+        setOrClear(durationSeconds, id, t.getDurationMillis() / 1000);
+        setOrClear(trackNumber, id, m == null ? 0 : m.getTrackNumber());
+        setOrClear(bitrate, id, m == null ? 0 : m.getBitrate());
+    }
+
+    // 标签里 0 表示没有
+    private static void setOrClear(NumberIndex index, int id, long value) {
+        if (value > 0) index.set(id, value);
+        else index.clear(id);
+    }
+
+    private BitSet evaluate(SmartQuery.Node node) {
+        if (node instanceof SmartQuery.And) {
+            BitSet result = null;
+            for (SmartQuery.Node child : ((SmartQuery.And) node).children) {
+                BitSet r = evaluate(child);
+                if (result == null) result = r;
+                else result.and(r);
+                if (result.isEmpty()) break;
+            }
+            return result;
+        }
+        if (node instanceof SmartQuery.Or) {
+            BitSet result = new BitSet();
+            for (SmartQuery.Node child : ((SmartQuery.Or) node).children) result.or(evaluate(child));
+            return result;
+        }
+        if (node instanceof SmartQuery.Not) {
+            BitSet result = (BitSet) present.clone();
+            result.andNot(evaluate(((SmartQuery.Not) node).child));
+            return result;
+        }
+        SmartQuery.Compare c = (SmartQuery.Compare) node;
+        if (c.text != null) return text(c.field).query(c.op, c.text);
+        NumberIndex index = numbers.get(c.field);
+        if (index == null) return new BitSet();
+        return ageFields.contains(c.field) ? index.query(flip(c.op), today() - c.number) : index.query(c.op, c.number);
+    }
+
+    private boolean test(SmartQuery.Node node, int id) {
+        if (node instanceof SmartQuery.And) {
+            for (SmartQuery.Node child : ((SmartQuery.And) node).children) if (!test(child, id)) return false;
+            return true;
+        }
+        if (node instanceof SmartQuery.Or) {
+            for (SmartQuery.Node child : ((SmartQuery.Or) node).children) if (test(child, id)) return true;
+            return false;
+        }
+        if (node instanceof SmartQuery.Not) return !test(((SmartQuery.Not) node).child, id);
+        SmartQuery.Compare c = (SmartQuery.Compare) node;
+        if (c.text != null) return text(c.field).test(id, c.op, c.text);
+        NumberIndex index = numbers.get(c.field);
+        if (index == null) return false;
+        return ageFields.contains(c.field) ? index.test(id, flip(c.op), today() - c.number) : index.test(id, c.op, c.number);
+    }
+
+    // "几天前" 越小日期越大，比较方向反过来
+    private static SmartQuery.Op flip(SmartQuery.Op op) {
+        switch (op) {
+            case LT: return SmartQuery.Op.GT;
+            case LE: return SmartQuery.Op.GE;
+            case GT: return SmartQuery.Op.LT;
+            case GE: return SmartQuery.Op.LE;
+            default: return op;
+        }
+    }
+
+    private static long today() { return LocalDate.now().toEpochDay(); }
+
+    private TextIndex text(String field) { return field.equals("album") ? album : artist; }
+}
@@ -0,0 +1,182 @@
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * 曲库搜索索引：每首曲目一条预先小写化的检索键 (文件名 + 标题/艺人/专辑)，按曲目 ID 存成一列，
+ * 外加三字符 (trigram) 倒排表，表内 ID 升序。
+ * 删除和改键不动倒排表：present 就是墓碑，候选反正要用检索键验证子串，旧条目自然被滤掉；
+ * 过期条目多过有效条目时整体重建一次，摊下来每次删除 O(1)。
+ * 一两个字符的查询没有 trigram 可用，直接顺序扫检索键那一列。
+ * 所有读写都在同一个后台线程上串行执行，FX 线程只负责提交修改和接收结果集。
+ */
+public class SearchIndex {
+
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "search-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 以下字段只在 search-index 线程上访问
+    private String[] keys = new String[1024]; // 下标是曲目 ID，null 表示不在索引里
+    private final BitSet present = new BitSet();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private long liveEntries;  // 倒排表里有效的条目数
+    private long staleEntries; // 已删除 / 改过键的曲目留下的条目数 (上限估计)
+
+    /** 一个 trigram 对应的曲目 ID 列表 (升序)。新曲目 ID 最大，通常直接追加 */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        /** 已经在表里 (改键前留下的) 返回 false */
+        boolean add(int id) {
+            int at = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) at = -at - 1;
+            else if (at < size) return false;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+            return true;
+        }
+    }
+
+    public void add(List<Track> tracks) {
+        List<Object[]> snapshot = snapshot(tracks);
+        thread.execute(() -> { for (Object[] s : snapshot) index((Integer) s[0], (String) s[1]); });
+    }
+
+    /** 元数据更新后重建这些曲目的检索键 */
+    public void update(List<Track> tracks) {
+        List<Object[]> snapshot = snapshot(tracks);
+        thread.execute(() -> {
+            for (Object[] s : snapshot) {
+                int id = (Integer) s[0];
+                if (!present.get(id)) continue; // 已经删掉了
+                unindex(id);
+                index(id, (String) s[1]);
+            }
+        });
+    }
+
+    public void remove(Track track) {
+        int id = track.getId();
+        thread.execute(() -> unindex(id));
+    }
+
+    /**
+     * 异步查询，回调在 FX 线程执行。查询为空时结果为 null，表示不过滤。
+     */
+    public void query(String text, Consumer<BitSet> onResult) {
+        String q = normalize(text);
+        thread.execute(() -> {
+            BitSet result = q.isEmpty() ? null : evaluate(q);
+            Platform.runLater(() -> onResult.accept(result));
+        });
+    }
+
+    public void shutdown() { thread.shutdownNow(); }
+
+    // ---- 以下在 search-index 线程执行 ----
+
+    private BitSet evaluate(String q) {
+        BitSet result = new BitSet();
+        if (q.length() < 3) {
+            // 一两个字符没有 trigram 可用，按 ID 顺序扫预先小写好的检索键
+            for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+                if (keys[id].contains(q)) result.set(id);
+            }
+            return result;
+        }
+        // 取最短的倒排表作为候选，再逐个验证子串
+        Postings smallest = null;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            Postings p = postings.get(trigram(q, i));
+            if (p == null) return result;
+            if (smallest == null || p.size < smallest.size) smallest = p;
+        }
+        for (int i = 0; i < smallest.size; i++) {
+            int id = smallest.ids[i];
+            String key = keys[id];
+            if (key != null && key.contains(q)) result.set(id);
+        }
+        return result;
+    }
+
+    private void index(int id, String key) {
+        if (id >= keys.length) keys = Arrays.copyOf(keys, Math.max(id + 1, keys.length * 2));
+        keys[id] = key;
+        present.set(id);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            long tri = trigram(key, i);
+            if (!seen.add(tri)) continue;
+            if (!postings.computeIfAbsent(tri, k -> new Postings()).add(id)) staleEntries--; // 改键前留下的条目又有效了
+            liveEntries++;
+        }
+    }
+
+    // 只打墓碑，倒排表里的条目留到重建时再清
+    private void unindex(int id) {
+        if (!present.get(id)) return;
+        String key = keys[id];
+        keys[id] = null;
+        present.clear(id);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i + 3 <= key.length(); i++) seen.add(trigram(key, i));
+        liveEntries -= seen.size();
+        staleEntries += seen.size();
+        if (staleEntries > liveEntries && staleEntries > 100_000) rebuild();
+    }
+
+    // 按现有检索键重新建倒排表，ID 从小到大加入，全部走追加
+    private void rebuild() {
+        postings.clear();
+        liveEntries = 0;
+        staleEntries = 0;
+        for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+            present.clear(id);
+            index(id, keys[id]);
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    // 在 FX 线程上读取曲目字段，交给索引线程的只有不可变数据
+    private static List<Object[]> snapshot(List<Track> tracks) {
+        List<Object[]> list = new ArrayList<>(tracks.size());
+        for (Track t : tracks) list.add(new Object[] { t.getId(), searchKey(t) });
+        return list;
+    }
+
+    static String searchKey(Track track) {
+        StringBuilder sb = new StringBuilder(track.getName());
+        TrackMetadata m = track.getMetadata();
+        if (m != null) {
+            // 用不会出现在查询里的分隔符，避免跨字段拼出假匹配
+            if (m.hasTitle()) sb.append('\u0001').append(m.getTitle());
+            if (m.hasArtist()) sb.append('\u0001').append(m.getArtist());
+            if (!m.getAlbum().isEmpty()) sb.append('\u0001').append(m.getAlbum());
+        }
+        return normalize(sb.toString());
+    }
+
+    static String normalize(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+}
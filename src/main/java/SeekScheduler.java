@@ -0,0 +1,86 @@
+/**
+ * 跳转调度：拖动进度条产生的大量跳转请求合并成“最新目标”，
+ * 同一时间最多只有一次 seek 在执行；上一次落定 (播放位置到达目标附近或超时) 后才发下一次。
+ * 松手时提交最终位置，保证最后落在用户放手的地方。
+ * 目标离发出时的播放位置本来就在容差内的，看位置分不出到没到，只按超时算落定。
+ * 不依赖 FX 线程，时间由调用方传入，方便单独驱动。
+ */
+public class SeekScheduler {
+
+    public interface Seeker {
+        void seek(double millis);
+    }
+
+    private final Seeker seeker;
+    private final long settleNanos;
+    private final double toleranceMillis;
+
+    private double pending = Double.NaN;
+    private double inFlightTarget = Double.NaN;
+    private long inFlightSince;
+    private boolean inFlightNear; // 发出时已经在目标附近
+    private double position = Double.NaN; // 最近一次 pulse 看到的播放位置
+    private double preview = Double.NaN;
+    private int applied;
+
+    /**
+     * @param settleNanos     一次 seek 最长视为“执行中”的时间
+     * @param toleranceMillis 播放位置与目标相差多少以内算落定
+     */
+    public SeekScheduler(Seeker seeker, long settleNanos, double toleranceMillis) {
+        this.seeker = seeker;
+        this.settleNanos = settleNanos;
+        this.toleranceMillis = toleranceMillis;
+    }
+
+    /** 拖动中的请求：只记住最新目标 */
+    public void request(double targetMillis, long now) {
+        pending = targetMillis;
+        preview = targetMillis;
+        pump(now);
+    }
+
+    /** 松手 / 点击：最终位置，一定会被执行 */
+    public void commit(double targetMillis, long now) {
+        request(targetMillis, now);
+    }
+
+    /** 定期调用 (每帧)，传入当前播放位置，用来判断执行中的 seek 是否已落定 */
+    public void pulse(long now, double currentMillis) {
+        position = currentMillis;
+        if (!Double.isNaN(inFlightTarget)) {
+            boolean arrived = !inFlightNear && Math.abs(currentMillis - inFlightTarget) <= toleranceMillis;
+            if (arrived || now - inFlightSince >= settleNanos) inFlightTarget = Double.NaN;
+        }
+        pump(now);
+        if (isIdle()) preview = Double.NaN;
+    }
+
+    /** 换歌时丢弃所有状态 */
+    public void reset() {
+        pending = Double.NaN;
+        inFlightTarget = Double.NaN;
+        preview = Double.NaN;
+        position = Double.NaN;
+    }
+
+    public boolean isIdle() { return Double.isNaN(pending) && Double.isNaN(inFlightTarget); }
+
+    public boolean isInFlight() { return !Double.isNaN(inFlightTarget); }
+
+    /** 最近一次请求的目标，用于拖动时的预览；空闲时为 NaN */
+    public double getPreviewMillis() { return preview; }
+
+    /** 实际发给播放器的 seek 次数 */
+    public int getAppliedCount() { return applied; }
+
+    private void pump(long now) {
+        if (!Double.isNaN(inFlightTarget) || Double.isNaN(pending)) return;
+        inFlightTarget = pending;
+        inFlightSince = now;
+        inFlightNear = !(Math.abs(position - inFlightTarget) > toleranceMillis); // 位置未知 (NaN) 也只按超时
+        pending = Double.NaN;
+        applied++;
+        seeker.seek(inFlightTarget);
+    }
+}
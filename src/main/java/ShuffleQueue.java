@@ -0,0 +1,174 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * 随机播放队列：惰性 Fisher-Yates。pool[0, played) 是本轮已播的曲目，pool[played, size) 是未播的，
+ * 取下一首时只在未播区间里随机挑一个换到边界上，O(1)，不需要预先洗整张表。
+ * 中途加入的曲目直接追加到未播区间末尾，和其余未播曲目等概率被抽到；删除用末尾元素填洞。
+ * <p>
+ * 另有一个定长环形缓冲记录播放历史，"上一首" 沿历史往回走，往回走之后的 "下一首" 先沿历史往前。
+ * 本轮未播曲目的总时长随进出未播区间增量维护，只在新一轮开始时整体重算一次。
+ * 只在 FX 线程上使用。
+ */
+public class ShuffleQueue {
+
+    private static final int NONE = -1;
+
+    private final IntFunction<Track> resolver;
+    private final IntToLongFunction durations;
+    private final Random random = new Random();
+
+    // 排列：曲目 ID，以及每个 ID 在 pool 中的位置 (-1 表示不在队列里)
+    private int[] pool = new int[1024];
+    private int[] positions = new int[1024];
+    private int size;
+    private int played;
+    private int planned = NONE; // 已经选好 (预热用) 但还没播的下一首
+    private int lastPlayed = NONE;
+    private long unplayedMillis;
+
+    // 历史：ring[(head - 1 - back)] 是当前曲目，back > 0 表示正在回看
+    private final int[] ring;
+    private int head;
+    private int count;
+    private int back;
+
+    /** resolver 把 ID 换回曲目，曲目已删除时返回 null；durations 给出曲目 ID 的时长 (毫秒) */
+    public ShuffleQueue(IntFunction<Track> resolver, IntToLongFunction durations, int historyCapacity) {
+        this.resolver = resolver;
+        this.durations = durations;
+        this.ring = new int[Math.max(2, historyCapacity)];
+        Arrays.fill(positions, NONE);
+    }
+
+    public void add(List<Track> tracks) {
+        for (Track t : tracks) {
+            int id = t.getId();
+            if (id >= positions.length) {
+                int old = positions.length;
+                positions = Arrays.copyOf(positions, Math.max(id + 1, old * 2));
+                Arrays.fill(positions, old, positions.length, NONE);
+            }
+            if (positions[id] != NONE) continue;
+            if (size == pool.length) pool = Arrays.copyOf(pool, size * 2);
+            pool[size] = id;
+            positions[id] = size++;
+            unplayedMillis += durations.applyAsLong(id);
+        }
+    }
+
+    public void remove(Track track) {
+        int id = track.getId();
+        if (id >= positions.length || positions[id] == NONE) return;
+        int p = positions[id];
+        if (p >= played) unplayedMillis -= durations.applyAsLong(id);
+        if (p < played) {
+            // 先用已播区间的最后一个填洞，再把整个区间缩一格
+            move(played - 1, p);
+            p = --played;
+        }
+        move(--size, p);
+        positions[id] = NONE;
+        if (planned == id) planned = NONE;
+    }
+
+    /** 下一首 (不消耗)：回看中就是历史里的下一首，否则从未播区间里抽一首并记住 */
+    public Track peekNext() {
+        if (back > 0) {
+            Track t = resolver.apply(ring[slot(back - 1)]);
+            if (t != null) return t;
+            truncateForward();
+        }
+        if (planned != NONE && positions[planned] >= played) {
+            Track t = resolver.apply(planned);
+            if (t != null) return t;
+        }
+        planned = draw();
+        return planned == NONE ? null : resolver.apply(planned);
+    }
+
+    /** 回到上一首，没有可回的历史时返回 null */
+    public Track previous() {
+        for (int steps = back + 1; steps < count; steps++) {
+            Track t = resolver.apply(ring[slot(steps)]);
+            if (t != null) { back = steps; return t; }
+        }
+        return null;
+    }
+
+    /** 曲目开始播放 (不论是不是队列选的)，记历史并移进本轮已播区间 */
+    public void played(Track track) {
+        int id = track.getId();
+        if (back > 0 && ring[slot(back - 1)] == id) {
+            back--; // 沿历史往前
+        } else if (count == 0 || ring[slot(back)] != id) {
+            truncateForward();
+            ring[head] = id;
+            head = (head + 1) % ring.length;
+            if (count < ring.length) count++;
+        }
+        if (id < positions.length && positions[id] >= played) {
+            unplayedMillis -= durations.applyAsLong(id);
+            swap(positions[id], played++);
+        }
+        if (planned == id) planned = NONE;
+        lastPlayed = id;
+    }
+
+    /** 曲目时长变了 (需在 durations 返回新值之后调用) */
+    public void durationChanged(Track track, long delta) {
+        int id = track.getId();
+        if (id < positions.length && positions[id] >= played) unplayedMillis += delta;
+    }
+
+    public int getRemaining() { return size - played; }
+
+    /** 本轮还没播的曲目总时长 */
+    public long getRemainingMillis() { return unplayedMillis; }
+
+    // 从未播区间均匀抽取并换到边界上；一轮播完重新开始，但不让上一首紧接着再来一次
+    private int draw() {
+        if (size == 0) return NONE;
+        if (played >= size) {
+            played = 0;
+            unplayedMillis = 0;
+            for (int i = 0; i < size; i++) unplayedMillis += durations.applyAsLong(pool[i]);
+        }
+        int from = played;
+        if (size - played > 1 && lastPlayed != NONE && lastPlayed < positions.length && positions[lastPlayed] >= played) {
+            swap(positions[lastPlayed], played);
+            from = played + 1;
+        }
+        int j = from + random.nextInt(size - from);
+        swap(j, played);
+        return pool[played];
+    }
+
+    private void truncateForward() {
+        count -= back;
+        head = Math.floorMod(head - back, ring.length);
+        back = 0;
+    }
+
+    private int slot(int stepsBack) {
+        return Math.floorMod(head - 1 - stepsBack, ring.length);
+    }
+
+    // 把 from 位置的元素放到 to (覆盖 to 上原来的元素)
+    private void move(int from, int to) {
+        if (from == to) return;
+        int id = pool[from];
+        pool[to] = id;
+        positions[id] = to;
+    }
+
+    private void swap(int a, int b) {
+        if (a == b) return;
+        int x = pool[a], y = pool[b];
+        pool[a] = y; positions[y] = a;
+        pool[b] = x; positions[x] = b;
+    }
+}
@@ -0,0 +1,181 @@
+import javafx.application.Platform;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 保存下来的智能播放列表：名字 + 查询条件，成员是满足条件的曲目 ID 集合。
+ * <p>
+ * 成员在创建 / 读入时用 QueryEngine 的索引算一次，之后曲目增删、标签变化只对变了的曲目逐条重判，
+ * 不重新跑整条查询；用到日期或时间窗口字段 (lastplayed <= 30、recentplays >= 5 这类) 的列表在换日时整条重算一次。
+ * 列表和成员只在 FX 线程上访问；文件读写在后台线程上。
+ *
+ * 文件格式：UTF-8 文本，每行 名字 \t 查询。
+ */
+public class SmartPlaylists {
+
+    public static final class Playlist {
+        private final String name;
+        private final SmartQuery query;
+        private final BitSet members;
+
+        Playlist(String name, SmartQuery query, BitSet members) {
+            this.name = name;
+            this.query = query;
+            this.members = members;
+        }
+
+        public String getName() { return name; }
+
+        public SmartQuery getQuery() { return query; }
+
+        /** 当前成员 (会随曲库变化原地更新，需要快照时自己复制) */
+        public BitSet getMembers() { return members; }
+
+        public int size() { return members.cardinality(); }
+    }
+
+    private final Path file;
+    private final QueryEngine engine;
+    private final List<Playlist> playlists = new ArrayList<>();
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "smart-playlists");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SmartPlaylists(Path file, QueryEngine engine) {
+        this.file = file;
+        this.engine = engine;
+    }
+
+    /** 后台读入保存的列表，解析和求值回到 FX 线程 */
+    public void load() {
+        io.execute(() -> {
+            List<String[]> entries = new ArrayList<>();
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) entries.add(new String[] { line.substring(0, tab), line.substring(tab + 1) });
+                }
+            } catch (NoSuchFileException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Smart playlists not loaded: " + e.getMessage());
+                return;
+            }
+            Platform.runLater(() -> {
+                for (String[] entry : entries) {
+                    try {
+                        put(entry[0], SmartQuery.parse(entry[1], engine));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Smart playlist skipped '" + entry[0] + "': " + e.getMessage());
+                    }
+                }
+            });
+        });
+    }
+
+    public List<Playlist> getPlaylists() { return Collections.unmodifiableList(playlists); }
+
+    /** 新建 (同名的替换掉) 并保存；查询写错时抛 IllegalArgumentException */
+    public Playlist create(String name, String query) {
+        Playlist playlist = put(name.trim(), SmartQuery.parse(query, engine));
+        save();
+        return playlist;
+    }
+
+    public void delete(Playlist playlist) {
+        if (playlists.remove(playlist)) save();
+    }
+
+    /** 曲目新增或标签变了 (QueryEngine 已经更新过)，返回成员有变化的列表 */
+    public List<Playlist> tracksChanged(List<Track> tracks) {
+        List<Playlist> changed = new ArrayList<>();
+        for (Playlist p : playlists) {
+            boolean any = false;
+            for (Track track : tracks) {
+                boolean match = engine.matches(p.query, track);
+                if (match != p.members.get(track.getId())) {
+                    p.members.set(track.getId(), match);
+                    any = true;
+                }
+            }
+            if (any) changed.add(p);
+        }
+        return changed;
+    }
+
+    /** 日期变了：重算结果随日期变化的列表，返回成员有变化的 */
+    public List<Playlist> dayChanged() {
+        List<Playlist> changed = new ArrayList<>();
+        for (Playlist p : playlists) {
+            if (!engine.dependsOnDate(p.query)) continue;
+            BitSet members = engine.evaluate(p.query);
+            if (members.equals(p.members)) continue;
+            p.members.clear();
+            p.members.or(members);
+            changed.add(p);
+        }
+        return changed;
+    }
+
+    /** 曲目移出曲库 */
+    public void remove(Track track) {
+        for (Playlist p : playlists) p.members.clear(track.getId());
+    }
+
+    /** 等排队的保存写完 */
+    public void shutdown() {
+        io.shutdown();
+        try { io.awaitTermination(2, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    private Playlist put(String name, SmartQuery query) {
+        Playlist playlist = new Playlist(name, query, engine.evaluate(query));
+        for (int i = 0; i < playlists.size(); i++) {
+            if (playlists.get(i).name.equalsIgnoreCase(name)) {
+                playlists.set(i, playlist);
+                return playlist;
+            }
+        }
+        playlists.add(playlist);
+        return playlist;
+    }
+
+    // 在 FX 线程上拍下内容，后台写临时文件再替换
+    private void save() {
+        StringBuilder text = new StringBuilder();
+        for (Playlist p : playlists) {
+            text.append(p.name.replace('\t', ' ')).append('\t').append(p.query.getSource().replace('\n', ' ')).append('\n');
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+        io.execute(() -> {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.write(temp, data);
+                try {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                System.err.println("Smart playlists not saved: " + e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 智能播放列表的查询条件，例如 {@code artist = 周杰伦 AND year >= 2010 AND duration < 5m}。
+ * <p>
+ * 语法：条件之间用 AND / OR / NOT (或 && || !) 组合，可以加括号；单个条件是 字段 运算符 值。
+ * 文字字段 (artist, album) 支持 = != ~ (包含)，不区分大小写；
+ * 数字字段 (year, duration, track, bitrate 以及 QueryEngine 里另外登记的字段) 支持 = != < <= > >=；
+ * 播放历史登记了 plays、skips、lastplayed (几天前，lastplayed <= 30 即最近 30 天放过)
+ * 和 recentplays (最近 30 天的播放次数，"最近 30 天常听" 写成 recentplays >= 5；plays 是全部次数)。
+ * 值可以加引号，不加引号时一直读到下一个 AND / OR / 右括号为止 (中间可以有空格)。
+ * 时长写成 5m、4m30s、90s、1h 或 3:30，只写数字表示秒。
+ * 解析失败抛 IllegalArgumentException，消息里带出错位置。
+ */
+public final class SmartQuery {
+
+    public enum Op { EQ, NE, LT, LE, GT, GE, CONTAINS }
+
+    /** 条件树的节点，求值在 QueryEngine 里 */
+    public abstract static class Node { }
+
+    public static final class And extends Node {
+        public final List<Node> children;
+        And(List<Node> children) { this.children = children; }
+    }
+
+    public static final class Or extends Node {
+        public final List<Node> children;
+        Or(List<Node> children) { this.children = children; }
+    }
+
+    public static final class Not extends Node {
+        public final Node child;
+        Not(Node child) { this.child = child; }
+    }
+
+    /** 字段 运算符 值；数字字段的值已经换算好 (时长换成秒) */
+    public static final class Compare extends Node {
+        public final String field;
+        public final Op op;
+        public final String text;   // 文字字段：小写化后的值
+        public final long number;   // 数字字段
+
+        Compare(String field, Op op, String text, long number) {
+            this.field = field;
+            this.op = op;
+            this.text = text;
+            this.number = number;
+        }
+    }
+
+    private final String source;
+    private final Node root;
+
+    private SmartQuery(String source, Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    public String getSource() { return source; }
+
+    public Node getRoot() { return root; }
+
+    @Override public String toString() { return source; }
+
+    /** 解析查询，能用哪些字段由 engine 决定 */
+    public static SmartQuery parse(String text, QueryEngine engine) {
+        Parser p = new Parser(text, engine);
+        Node root = p.or();
+        p.skipSpaces();
+        if (p.pos < text.length()) throw p.error("unexpected '" + text.charAt(p.pos) + "'");
+        return new SmartQuery(text.trim(), root);
+    }
+
+    /** 5m / 4m30s / 90s / 1h / 3:30 / 200 (秒)，格式不对时返回 -1 */
+    static long parseSeconds(String s) {
+        s = s.trim().toLowerCase(Locale.ROOT);
+        if (s.isEmpty()) return -1;
+        try {
+            if (s.indexOf(':') >= 0) {
+                long total = 0;
+                for (String part : s.split(":", -1)) total = total * 60 + Long.parseLong(part);
+                return total;
+            }
+            long total = 0, value = -1;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    value = (value < 0 ? 0 : value * 10) + (c - '0');
+                } else {
+                    if (value < 0) return -1;
+                    if (c == 'h') total += value * 3600;
+                    else if (c == 'm') total += value * 60;
+                    else if (c == 's') total += value;
+                    else return -1;
+                    value = -1;
+                }
+            }
+            return value >= 0 ? total + value : total;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // ==========================================
+    //   递归下降解析
+    // ==========================================
+    private static final class Parser {
+        private final String text;
+        private final QueryEngine engine;
+        private int pos;
+
+        Parser(String text, QueryEngine engine) {
+            this.text = text;
+            this.engine = engine;
+        }
+
+        Node or() {
+            List<Node> children = new ArrayList<>();
+            children.add(and());
+            while (keyword("OR", "||")) children.add(and());
+            return children.size() == 1 ? children.get(0) : new Or(children);
+        }
+
+        Node and() {
+            List<Node> children = new ArrayList<>();
+            children.add(unary());
+            while (keyword("AND", "&&")) children.add(unary());
+            return children.size() == 1 ? children.get(0) : new And(children);
+        }
+
+        Node unary() {
+            if (keyword("NOT", "!")) return new Not(unary());
+            skipSpaces();
+            if (pos < text.length() && text.charAt(pos) == '(') {
+                pos++;
+                Node inner = or();
+                skipSpaces();
+                if (pos >= text.length() || text.charAt(pos) != ')') throw error("missing ')'");
+                pos++;
+                return inner;
+            }
+            return compare();
+        }
+
+        Node compare() {
+            skipSpaces();
+            int start = pos;
+            while (pos < text.length() && Character.isLetter(text.charAt(pos))) pos++;
+            String field = text.substring(start, pos).toLowerCase(Locale.ROOT);
+            if (field.isEmpty()) throw error("expected a field name");
+            boolean isText = engine.isTextField(field);
+            if (!isText && !engine.isNumberField(field)) { pos = start; throw error("unknown field '" + field + "'"); }
+
+            skipSpaces();
+            Op op = operator();
+            if (op == null) throw error("expected an operator after '" + field + "'");
+            String value = value();
+            if (value.isEmpty()) throw error("expected a value");
+
+            if (isText) {
+                if (op != Op.EQ && op != Op.NE && op != Op.CONTAINS) throw error(field + " only supports = != ~");
+                return new Compare(field, op, value.toLowerCase(Locale.ROOT), 0);
+            }
+            if (op == Op.CONTAINS) throw error(field + " does not support ~");
+            long number;
+            if (field.equals("duration")) {
+                number = parseSeconds(value);
+            } else {
+                try { number = Long.parseLong(value.trim()); } catch (NumberFormatException e) { number = -1; }
+            }
+            if (number < 0) throw error("bad value '" + value + "' for " + field);
+            return new Compare(field, op, null, number);
+        }
+
+        private Op operator() {
+            String[] symbols = { "!=", "<=", ">=", "==", "=", "<", ">", "~" };
+            for (String s : symbols) {
+                if (text.startsWith(s, pos)) {
+                    pos += s.length();
+                    switch (s) {
+                        case "!=": return Op.NE;
+                        case "<=": return Op.LE;
+                        case ">=": return Op.GE;
+                        case "<":  return Op.LT;
+                        case ">":  return Op.GT;
+                        case "~":  return Op.CONTAINS;
+                        default:   return Op.EQ;
+                    }
+                }
+            }
+            return null;
+        }
+
+        // 带引号的值，或者读到下一个 AND / OR / 右括号 / && / || 为止
+        private String value() {
+            skipSpaces();
+            if (pos < text.length() && (text.charAt(pos) == '"' || text.charAt(pos) == '\'')) {
+                char quote = text.charAt(pos);
+                int end = text.indexOf(quote, pos + 1);
+                if (end < 0) throw error("unterminated quote");
+                String v = text.substring(pos + 1, end);
+                pos = end + 1;
+                return v;
+            }
+            int start = pos;
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == ')' || text.startsWith("&&", pos) || text.startsWith("||", pos)) break;
+                if (Character.isWhitespace(c) && (atWord(pos + 1, "AND") || atWord(pos + 1, "OR"))) break;
+                pos++;
+            }
+            return text.substring(start, pos).trim();
+        }
+
+        private boolean keyword(String word, String symbol) {
+            skipSpaces();
+            if (text.startsWith(symbol, pos) && !(symbol.equals("!") && text.startsWith("!=", pos))) {
+                pos += symbol.length();
+                return true;
+            }
+            if (atWord(pos, word)) {
+                pos += word.length();
+                return true;
+            }
+            return false;
+        }
+
+        // pos 开始 (可跳过空白) 是不是一个完整的单词 word (不区分大小写)
+        private boolean atWord(int at, String word) {
+            while (at < text.length() && Character.isWhitespace(text.charAt(at))) at++;
+            if (!text.regionMatches(true, at, word, 0, word.length())) return false;
+            int end = at + word.length();
+            return end >= text.length() || !Character.isLetterOrDigit(text.charAt(end));
+        }
+
+        void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " (at " + (pos + 1) + ")");
+        }
+    }
+}
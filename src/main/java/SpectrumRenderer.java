@@ -0,0 +1,193 @@
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Paint;
+import javafx.scene.paint.Stop;
+
+/**
+ * Skyline 频谱渲染：柱子和倒影都画在同一块 Canvas 上，不再有 50 个 Rectangle 节点和 Reflection 特效。
+ * 频谱回调只把数据写进 target 数组，AnimationTimer 每帧做平滑、峰值保持并绘制，
+ * 整个过程只用预先分配好的基本类型数组，每帧不分配对象。
+ * 柱子落定 (暂停、停止或没有新数据) 后定时器自己停下，下一次有数据时再启动。
+ */
+public final class SpectrumRenderer {
+
+    private static final double FLOOR_DB = -60;
+    private static final double GAP = 3;
+    private static final double MIN_BAR = 5;
+    private static final double REFLECTION_FRACTION = 0.4;
+    private static final double REFLECTION_OPACITY = 0.3;
+    private static final double PEAK_HEIGHT = 2;
+
+    private final Canvas canvas;
+    private final int bands;
+    private final double baseline;
+    private final double maxBar;
+
+    // 频谱回调写 target，动画帧读 target 写 display / peaks
+    private final double[] target;
+    private final double[] display;
+    private final double[] peaks;
+    private final double[] peakHold;
+    private boolean dirty;
+
+    private double attack = 0.6;    // 上升平滑系数
+    private double release = 0.15;  // 下降平滑系数
+    private double peakHoldSeconds = 0.4;
+    private double peakFallPerSecond = 160;
+
+    private Paint barPaint = Color.web("#1DB954");
+    private Paint peakPaint = barPaint;
+    private Paint reflectionPaint;
+    private long lastFrame;
+    private long minFrameNanos;
+    private boolean running; // 是否允许绘制 (由省电模式决定)
+    private boolean ticking; // 定时器是否在跑
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override public void handle(long now) { frame(now); }
+    };
+
+    public SpectrumRenderer(double width, double height, int bands) {
+        this.canvas = new Canvas(width, height);
+        this.bands = bands;
+        this.baseline = height * 0.75;
+        this.maxBar = baseline - 10;
+        this.target = new double[bands];
+        this.display = new double[bands];
+        this.peaks = new double[bands];
+        this.peakHold = new double[bands];
+        setColor(Color.web("#1DB954"));
+    }
+
+    public Canvas getCanvas() { return canvas; }
+
+    public int getBands() { return bands; }
+
+    public void setSmoothing(double attack, double release) {
+        this.attack = attack;
+        this.release = release;
+    }
+
+    public void setPeakHold(double holdSeconds, double fallPixelsPerSecond) {
+        this.peakHoldSeconds = holdSeconds;
+        this.peakFallPerSecond = fallPixelsPerSecond;
+    }
+
+    /** 限制重绘帧率，0 表示跟随屏幕刷新 */
+    public void setMaxFps(int fps) {
+        minFrameNanos = fps <= 0 ? 0 : 1_000_000_000L / fps;
+    }
+
+    public void setColor(Color color) {
+        barPaint = color;
+        peakPaint = color.brighter();
+        // 倒影渐变用绝对坐标，所有柱子共用一个 Paint
+        double reflectionDepth = maxBar * REFLECTION_FRACTION;
+        reflectionPaint = new LinearGradient(0, baseline, 0, baseline + reflectionDepth, false, CycleMethod.NO_CYCLE,
+                new Stop(0, Color.color(color.getRed(), color.getGreen(), color.getBlue(), REFLECTION_OPACITY)),
+                new Stop(1, Color.color(color.getRed(), color.getGreen(), color.getBlue(), 0)));
+        wake();
+    }
+
+    /** AudioSpectrumListener 回调 (FX 线程)，只拷贝数据 */
+    public void update(double timestamp, double duration, float[] magnitudes, float[] phases) {
+        int n = Math.min(bands, magnitudes.length);
+        for (int i = 0; i < n; i++) {
+            double mag = magnitudes[i] - FLOOR_DB;
+            if (mag < 0) mag = 0;
+            double h = mag * 3.0 + MIN_BAR;
+            target[i] = Math.min(h, maxBar);
+        }
+        wake();
+    }
+
+    /** 播放停止时让柱子自然落下 */
+    public void clear() {
+        for (int i = 0; i < bands; i++) target[i] = 0;
+        wake();
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        wake();
+    }
+
+    public void stop() {
+        if (!running) return;
+        running = false;
+        idle();
+    }
+
+    public boolean isRunning() { return running; }
+
+    private void frame(long now) {
+        if (lastFrame != 0 && now - lastFrame < minFrameNanos) return;
+        double dt = lastFrame == 0 ? 0.016 : Math.min((now - lastFrame) / 1e9, 0.1);
+        lastFrame = now;
+        if (!dirty) { idle(); return; }
+
+        boolean moving = false;
+        for (int i = 0; i < bands; i++) {
+            double t = target[i];
+            double d = display[i];
+            d += (t - d) * (t > d ? attack : release);
+            if (Math.abs(t - d) < 0.5) d = t; else moving = true;
+            display[i] = d;
+
+            if (d >= peaks[i]) {
+                peaks[i] = d;
+                peakHold[i] = peakHoldSeconds;
+            } else if (peakHold[i] > 0) {
+                peakHold[i] -= dt;
+                moving = true;
+            } else {
+                peaks[i] = Math.max(d, peaks[i] - peakFallPerSecond * dt);
+                if (peaks[i] > d) moving = true;
+            }
+        }
+        draw();
+        // 数据不再变化就停止重绘，直到下一次频谱回调
+        dirty = moving;
+        if (!moving) idle();
+    }
+
+    // 有东西要画：允许绘制时把定时器叫起来
+    private void wake() {
+        dirty = true;
+        if (!running || ticking) return;
+        ticking = true;
+        lastFrame = 0;
+        timer.start();
+    }
+
+    private void idle() {
+        if (!ticking) return;
+        ticking = false;
+        timer.stop();
+    }
+
+    private void draw() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double w = canvas.getWidth();
+        g.clearRect(0, 0, w, canvas.getHeight());
+        double barW = (w - GAP * (bands - 1)) / bands;
+        if (barW < 1) barW = 1;
+        for (int i = 0; i < bands; i++) {
+            double x = i * (barW + GAP);
+            double h = Math.max(display[i], MIN_BAR);
+            g.setFill(barPaint);
+            g.fillRoundRect(x, baseline - h, barW, h, 4, 4);
+            g.setFill(reflectionPaint);
+            g.fillRoundRect(x, baseline + 1, barW, h * REFLECTION_FRACTION, 4, 4);
+            if (peaks[i] > display[i] + PEAK_HEIGHT) {
+                g.setFill(peakPaint);
+                g.fillRect(x, baseline - peaks[i] - PEAK_HEIGHT, barW, PEAK_HEIGHT);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import javafx.collections.ObservableList;
+import javafx.scene.Scene;
+import javafx.scene.effect.DropShadow;
+import javafx.scene.effect.Effect;
+import javafx.scene.effect.Glow;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Paint;
+import javafx.scene.paint.Stop;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主题引擎。界面规则写在一张固定的基础样式表里，全部引用 -echo-* 查找色；
+ * 每个主题只编译一张定义这些查找色的小样式表并缓存。切换主题就是替换场景里那一张表，
+ * 样式表数量不增长，单元格也不用重建。CSS 表达不了的特效和黑胶配色每个主题只创建一次。
+ */
+public class ThemeEngine {
+
+    public static final class Theme {
+        public final String name;
+        public final Color accent;
+        public final Effect titleEffect;
+        public final Effect artistEffect;
+        public final Effect playEffect;
+        public final Paint discFill;
+        public final Effect discEffect;
+        public final Paint vinylTextFill;
+        public final Paint labelFill;
+        private final String variables;
+        private String stylesheet;
+
+        Theme(String name, String accent, String variables, Effect titleEffect, Effect artistEffect, Effect playEffect,
+              Paint discFill, Effect discEffect, Paint vinylTextFill, Paint labelFill) {
+            this.name = name;
+            this.accent = Color.web(accent);
+            this.variables = variables;
+            this.titleEffect = titleEffect;
+            this.artistEffect = artistEffect;
+            this.playEffect = playEffect;
+            this.discFill = discFill;
+            this.discEffect = discEffect;
+            this.vinylTextFill = vinylTextFill;
+            this.labelFill = labelFill;
+        }
+
+        // 第一次用到时才编译，之后一直复用同一个 URI
+        String stylesheet() {
+            if (stylesheet == null) stylesheet = toDataUri(".root, .context-menu, .combo-box-popup {" + variables + "}");
+            return stylesheet;
+        }
+    }
+
+    private static final String BASE_CSS =
+            ".root { -fx-background-color: -echo-bg-root; }" +
+            ".left-panel { -fx-background-color: -echo-bg-left; -fx-border-color: transparent; }" +
+            ".list-title { -fx-text-fill: -echo-accent; }" +
+            ".title-label { -fx-text-fill: -echo-text-main; }" +
+            ".artist-label, .time-label, .vol-icon { -fx-text-fill: -echo-text-sub; }" +
+            ".search-field { -fx-background-color: transparent; -fx-text-fill: -echo-text-main; -fx-prompt-text-fill: -echo-prompt; }" +
+            ".themed-slider { -fx-control-inner-background: -echo-slider-track; -fx-accent: -echo-accent; -fx-background-color: transparent; }" +
+            // 曲库列表
+            ".track-cell { -fx-padding: 8 15 8 15; -fx-background-radius: 8; -fx-background-insets: 0; -fx-background-color: transparent; }" +
+            ".list-view .track-cell:filled:hover { -fx-background-color: -echo-row-hover; }" +
+            ".list-view .track-cell:filled:selected { -fx-background-color: -echo-row-selected; -fx-font-weight: bold; }" +
+            ".track-text { -fx-fill: -echo-text-main; }" +
+            ".track-cell:missing .track-text { -fx-opacity: 0.4; -fx-strikethrough: true; }" +
+            ".group-header { -fx-text-fill: -echo-accent; -fx-font-size: 11px; -fx-font-weight: bold; -fx-padding: 6 0 2 0; }" +
+            // 按钮
+            ".icon-button { -fx-background-color: transparent; -fx-text-fill: -echo-text-main; -fx-font-size: 24px; -fx-border-color: transparent; -fx-border-radius: 8; -fx-background-radius: 8; -fx-cursor: hand; }" +
+            ".icon-button:hover { -fx-text-fill: -echo-accent; -fx-scale-x: 1.1; -fx-scale-y: 1.1; }" +
+            ".import-button { -fx-background-color: transparent; -fx-text-fill: -echo-text-sub; -fx-font-size: 12px; -fx-font-weight: bold; -fx-border-color: -echo-import-border; -fx-border-radius: 8; -fx-background-radius: 8; -fx-cursor: hand; }" +
+            ".import-button:hover { -fx-text-fill: -echo-accent; -fx-border-color: -echo-accent; -fx-scale-x: 1.1; -fx-scale-y: 1.1; }" +
+            ".play-button { -fx-background-color: -echo-play-bg; -fx-text-fill: -echo-play-text; -fx-background-radius: 100; -fx-min-width: 65px; -fx-min-height: 65px; -fx-cursor: hand; -fx-font-size: 36px; -fx-padding: 0 0 0 4; }" +
+            ".play-button:playing { -fx-font-size: 32px; -fx-padding: 0; }" +
+            ".play-button:hover { -fx-scale-x: 1.1; -fx-scale-y: 1.1; }" +
+            // 主题下拉框
+            ".theme-selector { -fx-background-color: -echo-combo-bg; -fx-border-color: -echo-combo-border; -fx-background-radius: 6; -fx-border-radius: 6; }" +
+            ".theme-selector > .list-cell { -fx-text-fill: -echo-combo-text; -fx-background-color: transparent; }" +
+            ".combo-box-popup > .list-view { -fx-background-color: -echo-combo-bg; }" +
+            ".combo-box-popup > .list-view .list-cell { -fx-background-color: -echo-combo-bg; -fx-text-fill: -echo-combo-text; -fx-padding: 8 10 8 10; }" +
+            ".combo-box-popup > .list-view .list-cell:hover { -fx-background-color: -echo-combo-hover; }" +
+            // 右键菜单
+            ".context-menu { -fx-background-color: -echo-menu-bg; -fx-background-radius: 8; -fx-border-radius: 8; -fx-border-color: -echo-menu-border; -fx-border-width: 1; -fx-effect: dropshadow(three-pass-box, rgba(0,0,0,0.2), 10, 0, 0, 4); }" +
+            ".menu-item .label { -fx-text-fill: -echo-menu-text; }" +
+            ".menu-item:focused { -fx-background-color: -echo-menu-hover; }" +
+            ".menu-item:focused .label { -fx-text-fill: -echo-menu-text; }";
+
+    private static final String BASE_STYLESHEET = toDataUri(BASE_CSS);
+
+    private final Map<String, Theme> themes = new LinkedHashMap<>();
+    private Theme current;
+
+    public ThemeEngine() {
+        add(new Theme("Spotify Dark", "#1DB954",
+                vars("linear-gradient(to bottom, #121212, #181818)", "#000000", "#FFFFFF", "#B3B3B3", "#1DB954", "#404040",
+                        "#282828", "#FFFFFF", "#404040", "#3E3E3E", "#282828", "#FFFFFF", "#404040", "#333333",
+                        "#FFFFFF", "#000000", "#666", "rgba(255,255,255,0.08)", "#333333", "#3A3A3C"),
+                null, null, new DropShadow(10, Color.rgb(255, 255, 255, 0.2)),
+                Color.web("#121212"), new DropShadow(15, Color.rgb(255, 255, 255, 0.05)), Color.web("#AAAAAA"),
+                gradient("#1DB954", "#191414")));
+        add(new Theme("Apple Clean", "#FA2D48",
+                vars("linear-gradient(to bottom right, #FFFFFF, #F2F2F7)", "rgba(245, 245, 247, 0.8)", "#1C1C1E", "#8E8E93", "#FA2D48", "#E5E5EA",
+                        "#FFFFFF", "#1C1C1E", "#D1D1D6", "#F2F2F7", "#FFFFFF", "#000000", "#F2F2F7", "#D1D1D6",
+                        "linear-gradient(to bottom right, #FF2D55, #FF5E3A)", "white", "#999", "rgba(0,0,0,0.05)", "#E5E5EA", "#C7C7CC"),
+                null, null, new DropShadow(15, Color.rgb(255, 45, 85, 0.4)),
+                Color.web("#2C2C2E"), new DropShadow(20, Color.rgb(0, 0, 0, 0.15)), Color.web("#E5E5EA"),
+                gradient("#FF5E3A", "#FF2D55")));
+        add(new Theme("Cyberpunk", "#00f3ff",
+                vars("linear-gradient(to bottom right, #0b0b19, #1a1a3d)", "#13132b", "#00f3ff", "#ff0099", "#00f3ff", "#2a2a40",
+                        "#2a2a40", "#00f3ff", "#ff0099", "#3d3d5c", "#1a1a3d", "#00f3ff", "#ff0099", "#00f3ff",
+                        "#00f3ff", "#000000", "#666", "rgba(255,255,255,0.08)", "rgba(0, 243, 255, 0.2)", "#3A3A3C"),
+                new Glow(0.8), new DropShadow(10, Color.web("#ff0099")), new DropShadow(15, Color.web("#00f3ff")),
+                Color.BLACK, new DropShadow(20, Color.web("#00f3ff")), Color.web("#00f3ff"),
+                gradient("#00f3ff", "#ff0099")));
+        add(new Theme("Dynamic Blue", "#38bdf8",
+                vars("linear-gradient(to bottom, #0f172a, #1e293b)", "#0f172a", "#e0f2fe", "#94a3b8", "#38bdf8", "#334155",
+                        "#1e293b", "#ffffff", "#38bdf8", "#334155", "#1e293b", "#e0f2fe", "#334155", "#38bdf8",
+                        "#38bdf8", "#000000", "#666", "rgba(255,255,255,0.08)", "#333333", "#3A3A3C"),
+                null, null, null,
+                Color.web("#020617"), new DropShadow(20, Color.web("#38bdf8")), Color.web("#e0f2fe"),
+                gradient("#7dd3fc", "#0ea5e9")));
+    }
+
+    public List<String> names() { return new ArrayList<>(themes.keySet()); }
+
+    public Theme getCurrent() { return current; }
+
+    /** 切换主题：只替换场景里的那一张主题样式表，未知名称按 Dynamic Blue 处理 */
+    public Theme apply(Scene scene, String name) {
+        Theme theme = themes.getOrDefault(name, themes.get("Dynamic Blue"));
+        ObservableList<String> sheets = scene.getStylesheets();
+        if (!sheets.contains(BASE_STYLESHEET)) sheets.add(0, BASE_STYLESHEET);
+        int slot = current == null ? -1 : sheets.indexOf(current.stylesheet());
+        if (slot >= 0) sheets.set(slot, theme.stylesheet());
+        else sheets.add(theme.stylesheet());
+        current = theme;
+        return theme;
+    }
+
+    private void add(Theme theme) { themes.put(theme.name, theme); }
+
+    private static String vars(String bgRoot, String bgLeft, String textMain, String textSub, String accent, String sliderTrack,
+                               String comboBg, String comboText, String comboBorder, String comboHover,
+                               String menuBg, String menuText, String menuHover, String menuBorder,
+                               String playBg, String playText, String prompt, String rowHover, String rowSelected, String importBorder) {
+        return "-echo-bg-root: " + bgRoot + "; -echo-bg-left: " + bgLeft + "; -echo-text-main: " + textMain + "; -echo-text-sub: " + textSub + ";" +
+                "-echo-accent: " + accent + "; -echo-slider-track: " + sliderTrack + ";" +
+                "-echo-combo-bg: " + comboBg + "; -echo-combo-text: " + comboText + "; -echo-combo-border: " + comboBorder + "; -echo-combo-hover: " + comboHover + ";" +
+                "-echo-menu-bg: " + menuBg + "; -echo-menu-text: " + menuText + "; -echo-menu-hover: " + menuHover + "; -echo-menu-border: " + menuBorder + ";" +
+                "-echo-play-bg: " + playBg + "; -echo-play-text: " + playText + "; -echo-prompt: " + prompt + ";" +
+                "-echo-row-hover: " + rowHover + "; -echo-row-selected: " + rowSelected + "; -echo-import-border: " + importBorder + ";";
+    }
+
+    private static LinearGradient gradient(String from, String to) {
+        return new LinearGradient(0, 0, 1, 1, true, CycleMethod.NO_CYCLE, new Stop(0, Color.web(from)), new Stop(1, Color.web(to)));
+    }
+
+    static String toDataUri(String css) {
+        return "data:text/css;base64," + Base64.getEncoder().encodeToString(css.getBytes(StandardCharsets.UTF_8));
+    }
+}
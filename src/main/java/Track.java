@@ -0,0 +1,53 @@
+import java.io.File;
+
+/**
+ * 曲库中的一首曲目。只是指向 TrackStore 中一行的句柄，路径和标签都在用到时才解码；
+ * ID 在曲库生命周期内稳定，同一首曲目始终是同一个 Track 对象。
+ */
+public final class Track {
+
+    private final TrackStore store;
+    private final int id;
+
+    // 在曲库播放顺序中的位置，由 TrackRegistry 维护
+    int index = -1;
+
+    Track(TrackStore store, int id) {
+        this.store = store;
+        this.id = id;
+    }
+
+    public int getId() { return id; }
+
+    public File getFile() { return new File(store.path(id)); }
+
+    public String getPathKey() { return store.pathKey(id); }
+
+    public String getName() { return store.name(id); }
+
+    public int getIndex() { return index; }
+
+    /** 标签信息，后台解析完成前为 null。每次调用都会新建对象，只读一两个字段时用专门的 getter */
+    public TrackMetadata getMetadata() { return store.metadata(id); }
+
+    public void setMetadata(TrackMetadata metadata) { store.setMetadata(id, metadata); }
+
+    /** 时长 (毫秒)，后台还没算出来时为 0 */
+    public long getDurationMillis() { return store.durationMillis(id); }
+
+    // 启动核对时没找到文件 (FX 线程读写)
+    public boolean isMissing() { return store.isMissing(id); }
+
+    public void setMissing(boolean missing) { store.setMissing(id, missing); }
+
+    /** 有标签标题就用标题，否则用去掉扩展名的文件名 */
+    public String getDisplayTitle() {
+        String title = store.title(id);
+        if (title != null) return title;
+        String name = getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    @Override public String toString() { return getName(); }
+}
@@ -0,0 +1,212 @@
+import javafx.animation.Animation;
+import javafx.animation.Interpolator;
+import javafx.animation.ParallelTransition;
+import javafx.animation.TranslateTransition;
+import javafx.application.Platform;
+import javafx.collections.transformation.FilteredList;
+import javafx.css.PseudoClass;
+import javafx.geometry.Pos;
+import javafx.geometry.VPos;
+import javafx.scene.Node;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.VBox;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.util.Duration;
+
+import java.util.Arrays;
+
+/**
+ * 曲库列表单元格。节点、滚动字幕动画和鼠标事件都在构造时建好，updateItem 只换内容；
+ * 右键菜单整张列表共用一个，弹出前把当前行的曲目放进菜单的 userData。
+ * 颜色、悬停和选中样式都交给主题样式表（track-cell / track-text），换主题时单元格不用重建。
+ * 开启封面时左边多一个小缩略图，异步取图，单元格换了曲目就取消旧请求。
+ * 曲库按艺人/专辑/年份分组时，每组第一行上方多一行组名 (和上一行比较，不另插表头行)。
+ */
+public final class TrackListCell extends ListCell<Track> {
+
+    private static final double GAP = 60;
+    private static final double MARQUEE_SPEED = 25.0; // 像素/秒
+    private static final Font FONT = Font.font(16);
+    private static final PseudoClass MISSING = PseudoClass.getPseudoClass("missing");
+    private static final int ART_SIZE = 28;
+    private static final double ART_GAP = 8;
+
+    /** 按曲目 ID 缓存的文字宽度，整张列表共用 */
+    public static final class WidthCache {
+        private float[] widths = new float[1024];
+
+        WidthCache() { Arrays.fill(widths, Float.NaN); }
+
+        double get(Track track, Text measure) {
+            int id = track.getId();
+            if (id >= widths.length) {
+                int old = widths.length;
+                widths = Arrays.copyOf(widths, Math.max(id + 1, old * 2));
+                Arrays.fill(widths, old, widths.length, Float.NaN);
+            }
+            float w = widths[id];
+            if (Float.isNaN(w)) {
+                w = (float) measure.getLayoutBounds().getWidth();
+                widths[id] = w;
+            }
+            return w;
+        }
+    }
+
+    public static WidthCache newWidthCache() { return new WidthCache(); }
+
+    /** 曲目的缺失标记变了以后，只刷新屏幕上现有的几个单元格 */
+    public static void refreshMissing(ListView<Track> lv) {
+        for (Node node : lv.lookupAll(".track-cell")) {
+            if (node instanceof TrackListCell) {
+                TrackListCell cell = (TrackListCell) node;
+                Track item = cell.getItem();
+                cell.pseudoClassStateChanged(MISSING, item != null && item.isMissing());
+            }
+        }
+    }
+
+    private final Text text1 = new Text();
+    private final Text text2 = new Text();
+    private final Pane container = new Pane(text1, text2);
+    private final Rectangle clip = new Rectangle();
+    private final TranslateTransition tt1 = new TranslateTransition(Duration.ONE, text1);
+    private final TranslateTransition tt2 = new TranslateTransition(Duration.ONE, text2);
+    private final ParallelTransition marquee = new ParallelTransition(tt1, tt2);
+
+    private final ContextMenu sharedMenu;
+    private final WidthCache widthCache;
+    private final PowerManager power;
+    private final ArtworkCache artwork;
+    private final ImageView art;
+    private final LibrarySortView groups;
+    private final Label groupHeader = new Label();
+    private final Node graphic;
+    private ArtworkCache.Request artRequest;
+
+    /** artwork 为 null 时不显示封面，groups 为 null 时不显示分组标题 */
+    public TrackListCell(ListView<Track> lv, ContextMenu sharedMenu, WidthCache widthCache, PowerManager power, ArtworkCache artwork, LibrarySortView groups) {
+        this.sharedMenu = sharedMenu;
+        this.widthCache = widthCache;
+        this.power = power;
+        this.artwork = artwork;
+        this.groups = groups;
+
+        getStyleClass().add("track-cell");
+        text1.getStyleClass().add("track-text"); text2.getStyleClass().add("track-text");
+        text1.setFont(FONT); text2.setFont(FONT);
+        text1.setTextOrigin(VPos.CENTER); text2.setTextOrigin(VPos.CENTER);
+        double artWidth = artwork == null ? 0 : ART_SIZE + ART_GAP;
+        container.prefWidthProperty().bind(lv.widthProperty().subtract(40 + artWidth));
+        container.setPrefHeight(30);
+        clip.widthProperty().bind(container.widthProperty()); clip.heightProperty().bind(container.heightProperty());
+        container.setClip(clip);
+        text1.layoutYProperty().bind(container.heightProperty().divide(2)); text2.layoutYProperty().bind(container.heightProperty().divide(2));
+        text2.setVisible(false);
+
+        tt1.setInterpolator(Interpolator.LINEAR);
+        tt2.setInterpolator(Interpolator.LINEAR);
+        marquee.setCycleCount(Animation.INDEFINITE);
+
+        Node row;
+        if (artwork != null) {
+            art = new ImageView();
+            art.setFitWidth(ART_SIZE); art.setFitHeight(ART_SIZE);
+            art.setSmooth(true);
+            HBox box = new HBox(ART_GAP, art, container);
+            box.setAlignment(Pos.CENTER_LEFT);
+            row = box;
+        } else {
+            art = null;
+            row = container;
+        }
+        if (groups != null) {
+            groupHeader.getStyleClass().add("group-header");
+            groupHeader.setVisible(false); groupHeader.setManaged(false);
+            graphic = new VBox(groupHeader, row);
+        } else {
+            graphic = row;
+        }
+
+        setOnContextMenuRequested(e -> sharedMenu.setUserData(getItem()));
+    }
+
+    @Override
+    protected void updateItem(Track item, boolean empty) {
+        super.updateItem(item, empty);
+        resetMarquee();
+        pseudoClassStateChanged(MISSING, !empty && item != null && item.isMissing());
+        if (artRequest != null) { artRequest.cancel(); artRequest = null; }
+
+        if (empty || item == null) {
+            setText(null); setGraphic(null);
+            setContextMenu(null);
+            if (art != null) art.setImage(null);
+        } else {
+            setText(null); text1.setText(item.getName()); text2.setText(item.getName());
+            if (art != null) {
+                // 已缓存时同步回调，否则先空着，取到后仍是这首才放上去
+                art.setImage(null);
+                artRequest = artwork.request(item, ART_SIZE * 2, image -> { if (getItem() == item) art.setImage(image); });
+            }
+            updateGroupHeader(item);
+            setGraphic(graphic);
+            setContextMenu(sharedMenu);
+            if (isSelected()) Platform.runLater(this::startMarquee);
+        }
+    }
+
+    // 只在曲库视图里分组 (查重视图不分)，和上一行组名不同时显示
+    private void updateGroupHeader(Track item) {
+        if (groups == null) return;
+        String group = null;
+        ListView<Track> lv = getListView();
+        if (lv != null && lv.getItems() instanceof FilteredList && ((FilteredList<?>) lv.getItems()).getSource() == groups) {
+            group = groups.groupOf(item);
+            int index = getIndex();
+            if (group != null && index > 0 && index <= lv.getItems().size()
+                    && group.equals(groups.groupOf(lv.getItems().get(index - 1)))) group = null;
+        }
+        groupHeader.setText(group);
+        groupHeader.setVisible(group != null); groupHeader.setManaged(group != null);
+    }
+
+    @Override
+    public void updateSelected(boolean selected) {
+        boolean changed = selected != isSelected();
+        super.updateSelected(selected);
+        if (!changed || isEmpty()) return;
+        if (selected) Platform.runLater(this::startMarquee);
+        else resetMarquee();
+    }
+
+    private void resetMarquee() {
+        marquee.stop();
+        text1.setTranslateX(0); text2.setTranslateX(0); text2.setVisible(false);
+    }
+
+    private void startMarquee() {
+        Track item = getItem();
+        if (item == null || !isSelected()) return;
+        double textW = widthCache.get(item, text1);
+        double cellW = container.getWidth();
+        if (cellW == 0) cellW = container.getPrefWidth();
+        if (textW > cellW && cellW > 0) {
+            text2.setVisible(true);
+            double cycleDistance = textW + GAP;
+            Duration d = Duration.seconds(cycleDistance / MARQUEE_SPEED);
+            tt1.setFromX(0); tt1.setToX(-cycleDistance); tt1.setDuration(d);
+            tt2.setFromX(cycleDistance); tt2.setToX(0); tt2.setDuration(d);
+            marquee.playFromStart();
+            if (power != null) power.registerMarquee(marquee);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * 从标签中读出的曲目信息。字符串字段缺失时为空串，数字字段缺失时为 0。
+ */
+public final class TrackMetadata {
+
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final int trackNumber;
+    private final int year;
+    private final long durationMillis;
+    private final int bitrate; // kbps
+
+    public TrackMetadata(String title, String artist, String album, int trackNumber, int year, long durationMillis, int bitrate) {
+        this.title = title == null ? "" : title.trim();
+        this.artist = artist == null ? "" : artist.trim();
+        this.album = album == null ? "" : album.trim();
+        this.trackNumber = trackNumber;
+        this.year = year;
+        this.durationMillis = durationMillis;
+        this.bitrate = bitrate;
+    }
+
+    public String getTitle() { return title; }
+
+    public String getArtist() { return artist; }
+
+    public String getAlbum() { return album; }
+
+    public int getTrackNumber() { return trackNumber; }
+
+    public int getYear() { return year; }
+
+    public long getDurationMillis() { return durationMillis; }
+
+    public int getBitrate() { return bitrate; }
+
+    public boolean hasTitle() { return !title.isEmpty(); }
+
+    public boolean hasArtist() { return !artist.isEmpty(); }
+}
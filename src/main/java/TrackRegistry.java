@@ -0,0 +1,233 @@
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 曲库注册表：按播放顺序保存曲目，曲目数据本身在按列存放的 TrackStore 里。
+ * 路径索引是开放寻址的 int 表 (只存 ID 和路径哈希)，ID 索引直接是数组下标，
+ * 让添加去重和查找都不再线性扫描整个列表，也不再为每首曲目多存一份路径字符串。
+ * 删除要压缩播放顺序，成批删时用 removeAll 一遍做完。
+ */
+public class TrackRegistry {
+
+    private final TrackStore store = new TrackStore();
+    private final List<Track> order = new ArrayList<>();
+    private Track[] byId = new Track[1024];
+    // 内容与已有曲目相同的其他路径 (导入策略 LINK)，只用于去重，不单独入库
+    private final Map<String, Track> aliases = new HashMap<>();
+    private final View view = new View();
+
+    // 路径哈希表：slots 存 ID + 1 (0 为空，-1 为已删除)，hashes 存对应路径键的 hashCode
+    private int[] slots = new int[2048];
+    private int[] hashes = new int[2048];
+    private int used; // 含已删除的槽位
+
+    // 规范化绝对路径：去掉 . / .. ，Windows 下忽略大小写
+    public static String pathKey(File file) {
+        return TrackStore.key(file.toPath().toAbsolutePath().normalize().toString());
+    }
+
+    /** 添加曲目，已存在则返回 null */
+    public Track add(File file) {
+        Track track = append(file);
+        if (track != null) view.added(track.index, track.index + 1);
+        return track;
+    }
+
+    private Track append(File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        String key = TrackStore.key(path.toString());
+        if (find(key) != null || aliases.containsKey(key)) return null;
+        Path parent = path.getParent();
+        Path fileName = path.getFileName();
+        if (parent == null || fileName == null) return null;
+
+        int id = store.add(parent.toString(), fileName.toString());
+        Track track = new Track(store, id);
+        if (id >= byId.length) byId = Arrays.copyOf(byId, Math.max(id + 1, byId.length * 2));
+        byId[id] = track;
+        insert(key.hashCode(), id);
+        track.index = order.size();
+        order.add(track);
+        return track;
+    }
+
+    /** 批量添加，返回真正新增的曲目 (顺序与曲库一致)，列表视图只收到一次变更通知 */
+    public List<Track> addAll(Collection<File> files) {
+        int from = order.size();
+        List<Track> added = new ArrayList<>(files.size());
+        for (File f : files) {
+            Track t = append(f);
+            if (t != null) added.add(t);
+        }
+        if (!added.isEmpty()) view.added(from, order.size());
+        return added;
+    }
+
+    /**
+     * 移出一首曲目。路径和 ID 索引是 O(1)，但曲库顺序是连续数组：要整体前移并重排后面曲目的位置，
+     * 代价是 O(n - index)。一次删很多首用 removeAll。
+     */
+    public boolean remove(Track track) {
+        return track != null && !removeAll(List.of(track)).isEmpty();
+    }
+
+    /**
+     * 批量移出，返回真正移出的曲目 (按原曲库顺序)。先逐首从索引里拿掉并打上删除标记，
+     * 再对曲库顺序做一遍压缩、顺带重排位置：k 首总共 O(n + k log k)，列表视图只收到一次变更通知。
+     */
+    public List<Track> removeAll(Collection<Track> tracks) {
+        int[] positions = new int[tracks.size()];
+        int k = 0;
+        for (Track track : tracks) {
+            if (track == null || track.index < 0) continue;
+            delete(track.getPathKey().hashCode(), track.getId());
+            byId[track.getId()] = null;
+            positions[k++] = track.index;
+            track.index = -1; // 删除标记，同一首传两次也只删一次
+        }
+        if (k == 0) return Collections.emptyList();
+        Arrays.sort(positions, 0, k);
+        List<Track> removed = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) removed.add(order.get(positions[i]));
+        // 从第一个空位开始压缩，后面的曲目前移并更新位置
+        int w = positions[0];
+        for (int i = w; i < order.size(); i++) {
+            Track t = order.get(i);
+            if (t.index < 0) continue;
+            t.index = w;
+            order.set(w++, t);
+        }
+        order.subList(w, order.size()).clear();
+        if (!aliases.isEmpty()) {
+            Set<Track> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+            gone.addAll(removed);
+            aliases.values().removeIf(gone::contains);
+        }
+        view.removed(positions, removed);
+        return removed;
+    }
+
+    /** 把 file 记为 target 的别名，之后再导入同一路径会被当作已存在 */
+    public boolean link(File file, Track target) {
+        String key = pathKey(file);
+        if (target == null || target.index < 0 || find(key) != null) return false;
+        aliases.put(key, target);
+        return true;
+    }
+
+    public Track byPath(File file) { return find(pathKey(file)); }
+
+    public Track byId(int id) { return id >= 0 && id < byId.length ? byId[id] : null; }
+
+    public boolean contains(File file) {
+        String key = pathKey(file);
+        return find(key) != null || aliases.containsKey(key);
+    }
+
+    public Track get(int index) { return order.get(index); }
+
+    public int size() { return order.size(); }
+
+    public boolean isEmpty() { return order.isEmpty(); }
+
+    public List<Track> tracks() { return Collections.unmodifiableList(order); }
+
+    /** 与曲库顺序一致的只读可观察列表，直接给 ListView / FilteredList 用，不另存一份 */
+    public ObservableList<Track> view() { return view; }
+
+    /** 曲目数据列的估算堆占用 (字节) */
+    public long estimateStoreBytes() {
+        return store.estimateBytes() + 16 + 4L * slots.length * 2 + 16 + 4L * byId.length;
+    }
+
+    // ==========================================
+    //   路径哈希表 (线性探测)
+    // ==========================================
+    private Track find(String key) {
+        int h = key.hashCode();
+        int mask = slots.length - 1;
+        for (int i = mix(h) & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0) return null;
+            if (s > 0 && hashes[i] == h) {
+                Track t = byId[s - 1];
+                if (t != null && store.pathKey(s - 1).equals(key)) return t;
+            }
+        }
+    }
+
+    private void insert(int h, int id) {
+        if ((used + 1) * 4 > slots.length * 3) rehash();
+        int mask = slots.length - 1;
+        int i = mix(h) & mask;
+        while (slots[i] > 0) i = (i + 1) & mask;
+        if (slots[i] == 0) used++;
+        slots[i] = id + 1;
+        hashes[i] = h;
+    }
+
+    private void delete(int h, int id) {
+        int mask = slots.length - 1;
+        for (int i = mix(h) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (slots[i] == id + 1) { slots[i] = -1; return; }
+        }
+    }
+
+    // 扩容并清掉已删除的槽位
+    private void rehash() {
+        int live = 0;
+        for (int s : slots) if (s > 0) live++;
+        int capacity = slots.length;
+        while ((live + 1) * 2 > capacity) capacity <<= 1;
+        int[] oldSlots = slots, oldHashes = hashes;
+        slots = new int[capacity];
+        hashes = new int[slots.length];
+        used = 0;
+        int mask = slots.length - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            if (oldSlots[j] <= 0) continue;
+            int i = mix(oldHashes[j]) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = oldSlots[j];
+            hashes[i] = oldHashes[j];
+            used++;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** 曲库顺序的可观察视图：不复制元素，只把注册表的增删转成变更通知 */
+    private final class View extends ObservableListBase<Track> {
+        @Override public Track get(int index) { return order.get(index); }
+
+        @Override public int size() { return order.size(); }
+
+        void added(int from, int to) {
+            beginChange();
+            nextAdd(from, to);
+            endChange();
+        }
+
+        // positions 升序，是删除前的位置；逐个换算成前面已删完之后的位置
+        void removed(int[] positions, List<Track> tracks) {
+            beginChange();
+            for (int i = 0; i < tracks.size(); i++) nextRemove(positions[i] - i, tracks.get(i));
+            endChange();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 按列存放的曲目数据。每首曲目只占各列里的一个 int 槽位：
+ * 目录路径去重后存一份，文件名和标签标题以 UTF-8 写进分页字节池，艺人和专辑按字符串去重。
+ * Track 只是 (store, id) 句柄，字段在用到时才解码。
+ * <p>
+ * 只在 FX 线程上写。各列按页分配、页不搬家，页表是 volatile 的，
+ * 所以拿到 Track 的其他线程 (标签读取、核对、查重) 可以直接读它的路径。
+ */
+public final class TrackStore {
+
+    private static final boolean CASE_INSENSITIVE_FS =
+            System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    static final int NONE = -1;
+    private static final int FLAG_METADATA = 1;
+    private static final int FLAG_MISSING = 2;
+
+    // 每首曲目一格
+    private final IntColumn dir = new IntColumn();
+    private final IntColumn name = new IntColumn();
+    private final IntColumn flags = new IntColumn();
+    private final IntColumn title = new IntColumn();
+    private final IntColumn artist = new IntColumn();
+    private final IntColumn album = new IntColumn();
+    private final IntColumn duration = new IntColumn();
+    private final IntColumn numbers = new IntColumn(); // 音轨号 << 16 | 年份
+    private final IntColumn bitrate = new IntColumn();
+
+    private final StringPool strings = new StringPool();
+    private final Interner dirs = new Interner();
+    private final Interner tags = new Interner();
+    private int size;
+
+    /** 新增一首曲目，返回它的 ID (从 0 开始连续分配，删除后不复用) */
+    int add(String directory, String fileName) {
+        int id = size++;
+        dir.set(id, dirs.intern(directory));
+        name.set(id, strings.add(fileName));
+        flags.set(id, 0);
+        return id;
+    }
+
+    int size() { return size; }
+
+    // ==========================================
+    //   路径
+    // ==========================================
+    String name(int id) { return strings.get(name.get(id)); }
+
+    String directory(int id) { return dirs.get(dir.get(id)); }
+
+    String path(int id) {
+        String d = directory(id);
+        return d.endsWith(File.separator) ? d + name(id) : d + File.separator + name(id);
+    }
+
+    String pathKey(int id) { return key(path(id)); }
+
+    static String key(String normalizedPath) {
+        return CASE_INSENSITIVE_FS ? normalizedPath.toLowerCase(Locale.ROOT) : normalizedPath;
+    }
+
+    // ==========================================
+    //   标签
+    // ==========================================
+    TrackMetadata metadata(int id) {
+        if ((flags.get(id) & FLAG_METADATA) == 0) return null;
+        int n = numbers.get(id);
+        return new TrackMetadata(text(title.get(id)), tags.get(artist.get(id)), tags.get(album.get(id)),
+                n >>> 16, n & 0xFFFF, duration.get(id) & 0xFFFFFFFFL, bitrate.get(id));
+    }
+
+    void setMetadata(int id, TrackMetadata m) {
+        if (m == null) { flags.set(id, flags.get(id) & ~FLAG_METADATA); return; }
+        title.set(id, m.hasTitle() ? strings.add(m.getTitle()) : NONE);
+        artist.set(id, m.hasArtist() ? tags.intern(m.getArtist()) : NONE);
+        album.set(id, m.getAlbum().isEmpty() ? NONE : tags.intern(m.getAlbum()));
+        duration.set(id, (int) Math.min(m.getDurationMillis(), 0xFFFFFFFFL));
+        numbers.set(id, (Math.min(m.getTrackNumber(), 0xFFFF) << 16) | Math.min(m.getYear(), 0xFFFF));
+        bitrate.set(id, m.getBitrate());
+        flags.set(id, flags.get(id) | FLAG_METADATA);
+    }
+
+    /** 时长 (毫秒)，还没读到标签时为 0 */
+    long durationMillis(int id) {
+        return (flags.get(id) & FLAG_METADATA) == 0 ? 0 : duration.get(id) & 0xFFFFFFFFL;
+    }
+
+    /** 标签标题，没有时为 null (不构造整个 TrackMetadata) */
+    String title(int id) {
+        if ((flags.get(id) & FLAG_METADATA) == 0) return null;
+        int h = title.get(id);
+        return h == NONE ? null : strings.get(h);
+    }
+
+    boolean isMissing(int id) { return (flags.get(id) & FLAG_MISSING) != 0; }
+
+    void setMissing(int id, boolean missing) {
+        int f = flags.get(id);
+        flags.set(id, missing ? f | FLAG_MISSING : f & ~FLAG_MISSING);
+    }
+
+    private String text(int handle) { return handle == NONE ? "" : strings.get(handle); }
+
+    /** 估算这些列占用的堆字节数 (不含 Track 句柄) */
+    long estimateBytes() {
+        return dir.bytes() + name.bytes() + flags.bytes() + title.bytes() + artist.bytes() + album.bytes()
+                + duration.bytes() + numbers.bytes() + bitrate.bytes() + strings.bytes();
+    }
+
+    // ==========================================
+    //   存储结构
+    // ==========================================
+
+    /** 分页 int 列，扩容只追加新页 */
+    private static final class IntColumn {
+        private static final int PAGE_BITS = 12;
+        private static final int PAGE = 1 << PAGE_BITS;
+        private volatile int[][] pages = new int[8][];
+
+        int get(int i) { return pages[i >>> PAGE_BITS][i & (PAGE - 1)]; }
+
+        void set(int i, int value) {
+            int p = i >>> PAGE_BITS;
+            int[][] table = pages;
+            if (p >= table.length || table[p] == null) {
+                if (p >= table.length) table = Arrays.copyOf(table, Math.max(p + 1, table.length * 2));
+                if (table[p] == null) table[p] = new int[PAGE];
+                pages = table; // 发布新页
+            }
+            table[p][i & (PAGE - 1)] = value;
+        }
+
+        long bytes() {
+            long b = 16 + 4L * pages.length;
+            for (int[] page : pages) if (page != null) b += 16 + 4L * PAGE;
+            return b;
+        }
+    }
+
+    /**
+     * 只追加的 UTF-8 字符串池。句柄 = 页号 << 16 | 页内偏移，字符串不跨页，
+     * 前面 1~2 字节存长度。
+     */
+    private static final class StringPool {
+        private static final int PAGE = 1 << 16;
+        private static final int MAX_BYTES = 0x7FFF;
+        private volatile byte[][] pages = new byte[4][];
+        private int page = -1;
+        private int pos = PAGE;
+
+        int add(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            int len = Math.min(bytes.length, MAX_BYTES);
+            int need = len + (len < 0x80 ? 1 : 2);
+            if (pos + need > PAGE) {
+                page++;
+                byte[][] table = pages;
+                if (page >= table.length) table = Arrays.copyOf(table, table.length * 2);
+                table[page] = new byte[PAGE];
+                pages = table;
+                pos = 0;
+            }
+            byte[] p = pages[page];
+            int handle = (page << 16) | pos;
+            if (len < 0x80) {
+                p[pos++] = (byte) len;
+            } else {
+                p[pos++] = (byte) (0x80 | (len >>> 8));
+                p[pos++] = (byte) len;
+            }
+            System.arraycopy(bytes, 0, p, pos, len);
+            pos += len;
+            return handle;
+        }
+
+        String get(int handle) {
+            byte[] p = pages[handle >>> 16];
+            int at = handle & 0xFFFF;
+            int len = p[at++] & 0xFF;
+            if ((len & 0x80) != 0) len = ((len & 0x7F) << 8) | (p[at++] & 0xFF);
+            return new String(p, at, len, StandardCharsets.UTF_8);
+        }
+
+        long bytes() {
+            long b = 16 + 4L * pages.length;
+            for (byte[] page : pages) if (page != null) b += 16 + PAGE;
+            return b;
+        }
+    }
+
+    /** 字符串去重表 (目录、艺人、专辑)，数量远少于曲目数 */
+    private static final class Interner {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private volatile String[] values = new String[64];
+        private int count;
+
+        int intern(String s) {
+            Integer id = ids.get(s);
+            if (id != null) return id;
+            String[] table = values;
+            if (count == table.length) table = Arrays.copyOf(table, count * 2);
+            table[count] = s;
+            values = table;
+            ids.put(s, count);
+            return count++;
+        }
+
+        String get(int id) { return id == NONE ? "" : values[id]; }
+    }
+}
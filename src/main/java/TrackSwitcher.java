@@ -0,0 +1,150 @@
+import javafx.application.Platform;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 切歌协调器：Media / MediaPlayer 在后台线程创建，FX 线程不再被阻塞。
+ * 连续快速切歌时只保留最新的一次请求：正在准备的那首完成后若已过期就直接释放，
+ * 期间堆积的请求合并成一次。另外统计从请求到真正出声的延迟。除 prepare 任务外，所有方法都在 FX 线程调用。
+ */
+public class TrackSwitcher {
+
+    public interface Listener {
+        /** 最新请求的播放器已创建好 */
+        void onPrepared(Track track, MediaPlayer player);
+
+        void onFailed(Track track, Exception error);
+    }
+
+    private final Listener listener;
+    private final ExecutorService preparer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "track-switcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 每次请求加一，后台任务据此判断自己是否已过期
+    private final AtomicLong generation = new AtomicLong();
+    private boolean inFlight;
+    private Track pending;
+    private long requestedAt;
+
+    // --- 切歌到出声的延迟统计 ---
+    private long lastLatencyNanos;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+    private int measured;
+    private int superseded;
+
+    public TrackSwitcher(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 请求切到 track。warmed 是预热好的播放器，有的话直接交付。
+     */
+    public void request(Track track, MediaPlayer warmed) {
+        long gen = generation.incrementAndGet();
+        requestedAt = System.nanoTime();
+        if (warmed != null) {
+            pending = null;
+            listener.onPrepared(track, warmed);
+            return;
+        }
+        // 已有任务在跑：只记住最新的一首，等它结束再说
+        if (inFlight) {
+            pending = track;
+            return;
+        }
+        start(track, gen);
+    }
+
+    /** 是否有切歌请求还没落地 */
+    public boolean isBusy() { return inFlight || pending != null; }
+
+    /** 放弃所有未完成的请求 */
+    public void cancel() {
+        generation.incrementAndGet();
+        pending = null;
+    }
+
+    public void shutdown() {
+        cancel();
+        preparer.shutdownNow();
+    }
+
+    /** 预热用：在同一个后台线程上创建 track 的播放器，回到 FX 线程交给 onCreated (失败时为 null) */
+    public void create(Track track, Consumer<MediaPlayer> onCreated) {
+        preparer.execute(() -> {
+            MediaPlayer player = null;
+            try {
+                player = new MediaPlayer(new Media(track.getFile().toURI().toString()));
+            } catch (Exception e) {
+                System.err.println("Preload failed " + track.getFile() + ": " + e.getMessage());
+            }
+            MediaPlayer created = player;
+            Platform.runLater(() -> onCreated.accept(created));
+        });
+    }
+
+    private void start(Track track, long gen) {
+        inFlight = true;
+        preparer.execute(() -> {
+            MediaPlayer player = null;
+            Exception error = null;
+            // 排队期间就被后续请求取代的，不用再创建
+            if (gen == generation.get()) {
+                try {
+                    player = new MediaPlayer(new Media(track.getFile().toURI().toString()));
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            MediaPlayer prepared = player;
+            Exception failure = error;
+            Platform.runLater(() -> finish(track, gen, prepared, failure));
+        });
+    }
+
+    private void finish(Track track, long gen, MediaPlayer player, Exception error) {
+        inFlight = false;
+        if (gen != generation.get()) {
+            if (player != null) player.dispose();
+            superseded++;
+            Track next = pending;
+            pending = null;
+            if (next != null) start(next, generation.get());
+            return;
+        }
+        if (error != null) listener.onFailed(track, error);
+        else if (player != null) listener.onPrepared(track, player);
+    }
+
+    /** 播放器真正开始出声时调用 (MediaPlayer 的 onPlaying) */
+    public void markAudible() {
+        if (requestedAt == 0) return;
+        long latency = System.nanoTime() - requestedAt;
+        requestedAt = 0;
+        lastLatencyNanos = latency;
+        totalLatencyNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        measured++;
+    }
+
+    /** 还没有测到过时为 0 */
+    public int getMeasuredCount() { return measured; }
+
+    public long getLastLatencyMillis() { return lastLatencyNanos / 1_000_000; }
+
+    public long getAverageLatencyMillis() { return measured == 0 ? 0 : totalLatencyNanos / measured / 1_000_000; }
+
+    public long getMaxLatencyMillis() { return maxLatencyNanos / 1_000_000; }
+
+    /** 准备好时已被后续请求取代、直接释放掉的播放器个数 */
+    public int getSupersededCount() { return superseded; }
+}
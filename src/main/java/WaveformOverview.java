@@ -0,0 +1,341 @@
+import javafx.application.Platform;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * WAV 波形概览：每个桶记 min / max / RMS，从细到粗多级 (每级合并 4 个桶)。
+ * <p>
+ * 生成时把 data 块按桶对齐切成若干段，每段单独内存映射、在 ForkJoin 池里并行扫描，
+ * 堆上只有结果数组，几 GB 的录音也不会整个读进内存。结果量化成每桶 3 字节，
+ * 写进缓存目录里的小文件 (以 路径 + 大小 + 修改时间 校验)，下次直接读。
+ * <p>
+ * 请求在 waveform 线程上串行处理，新的请求会让还没做完的旧请求中途放弃。
+ *
+ * 缓存文件格式：
+ *   int magic, int version, utf pathKey, long size, long mtime, int levels
+ *   levels × { int bucketFrames, int count, count × { byte min, byte max, byte rms } }
+ *   int crc32 (之前所有字节)
+ */
+public class WaveformOverview {
+
+    /** 一首曲目的波形，levels[0] 最细。min / max 为 -127..127，rms 为 0..255 */
+    public static final class Waveform {
+        final int[] bucketFrames;
+        final byte[][] levels;
+
+        Waveform(int[] bucketFrames, byte[][] levels) {
+            this.bucketFrames = bucketFrames;
+            this.levels = levels;
+        }
+
+        public int levelCount() { return levels.length; }
+
+        public int bucketCount(int level) { return levels[level].length / 3; }
+
+        /** 桶数不少于 buckets 的最粗一级 (都不够时返回最细的一级) */
+        public int levelFor(int buckets) {
+            for (int level = levels.length - 1; level > 0; level--) {
+                if (bucketCount(level) >= buckets) return level;
+            }
+            return 0;
+        }
+
+        public float min(int level, int bucket) { return levels[level][bucket * 3] / 127f; }
+
+        public float max(int level, int bucket) { return levels[level][bucket * 3 + 1] / 127f; }
+
+        public float rms(int level, int bucket) { return (levels[level][bucket * 3 + 2] & 0xFF) / 255f; }
+    }
+
+    private static final int MAGIC = 0x45574156; // "EWAV"
+    private static final int VERSION = 1;
+    private static final int MIN_BUCKET_FRAMES = 256;
+    private static final int MAX_BUCKETS = 1 << 16;   // 最细一级的桶数上限
+    private static final int MIN_LEVEL_BUCKETS = 256;  // 最粗一级不少于这么多桶
+    private static final int FACTOR = 4;
+    private static final long CHUNK_BYTES = 32L * 1024 * 1024; // 每段映射的大小
+
+    private final Path cacheDir;
+    private final AtomicLong latest = new AtomicLong();
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "waveform");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public WaveformOverview(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public static boolean supports(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".wav");
+    }
+
+    /** 取 track 的波形，onReady 在 FX 线程上回调；期间又有新请求 (或 cancel) 时不回调 */
+    public void request(Track track, Consumer<Waveform> onReady) {
+        long generation = latest.incrementAndGet();
+        File file = track.getFile();
+        String pathKey = track.getPathKey();
+        thread.execute(() -> {
+            if (latest.get() != generation) return;
+            Waveform w = load(file, pathKey, generation);
+            if (w != null) Platform.runLater(() -> { if (latest.get() == generation) onReady.accept(w); });
+        });
+    }
+
+    public void cancel() { latest.incrementAndGet(); }
+
+    public void shutdown() {
+        cancel();
+        thread.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    private Waveform load(File file, String pathKey, long generation) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            long size = attrs.size();
+            long mtime = attrs.lastModifiedTime().toMillis();
+            Path cache = cacheDir.resolve(cacheName(pathKey));
+            Waveform w = readCache(cache, pathKey, size, mtime);
+            if (w != null) return w;
+            w = generate(file, generation);
+            if (w != null) writeCache(cache, pathKey, size, mtime, w);
+            return w;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Waveform skipped " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ==========================================
+    //   生成
+    // ==========================================
+    private Waveform generate(File file, long generation) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DurationScanner.WavFormat f = DurationScanner.wavFormat(ch);
+            if (f == null || sampleKind(f) < 0) return null;
+            long frames = f.dataLength / f.blockAlign;
+            if (frames == 0) return null;
+            int bucket = MIN_BUCKET_FRAMES;
+            while ((frames + bucket - 1) / bucket > MAX_BUCKETS) bucket <<= 1;
+            int count = (int) ((frames + bucket - 1) / bucket);
+
+            float[] min = new float[count];
+            float[] max = new float[count];
+            float[] meanSquare = new float[count];
+            int perChunk = (int) Math.max(1, CHUNK_BYTES / ((long) bucket * f.blockAlign));
+            int chunks = (count + perChunk - 1) / perChunk;
+            int bucketFrames = bucket;
+            pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+                int from = c * perChunk;
+                int to = Math.min(count, from + perChunk);
+                scan(ch, f, frames, bucketFrames, from, to, min, max, meanSquare, generation);
+            })).join();
+            if (latest.get() != generation) return null;
+
+            // 逐级合并成更粗的桶
+            List<float[][]> levels = new ArrayList<>();
+            List<Integer> sizes = new ArrayList<>();
+            levels.add(new float[][] { min, max, meanSquare });
+            sizes.add(bucket);
+            while (levels.get(levels.size() - 1)[0].length > MIN_LEVEL_BUCKETS * FACTOR) {
+                float[][] fine = levels.get(levels.size() - 1);
+                int n = (fine[0].length + FACTOR - 1) / FACTOR;
+                float[][] coarse = { new float[n], new float[n], new float[n] };
+                for (int i = 0; i < n; i++) {
+                    int a = i * FACTOR, b = Math.min(fine[0].length, a + FACTOR);
+                    float lo = 1, hi = -1, sq = 0;
+                    for (int j = a; j < b; j++) {
+                        lo = Math.min(lo, fine[0][j]);
+                        hi = Math.max(hi, fine[1][j]);
+                        sq += fine[2][j];
+                    }
+                    coarse[0][i] = lo;
+                    coarse[1][i] = hi;
+                    coarse[2][i] = sq / (b - a);
+                }
+                levels.add(coarse);
+                sizes.add(sizes.get(sizes.size() - 1) * FACTOR);
+            }
+
+            byte[][] packed = new byte[levels.size()][];
+            int[] bucketSizes = new int[levels.size()];
+            for (int l = 0; l < packed.length; l++) {
+                float[][] level = levels.get(l);
+                byte[] out = new byte[level[0].length * 3];
+                for (int i = 0; i < level[0].length; i++) {
+                    out[i * 3] = (byte) Math.round(level[0][i] * 127);
+                    out[i * 3 + 1] = (byte) Math.round(level[1][i] * 127);
+                    out[i * 3 + 2] = (byte) Math.round(Math.sqrt(level[2][i]) * 255);
+                }
+                packed[l] = out;
+                bucketSizes[l] = sizes.get(l);
+            }
+            return new Waveform(bucketSizes, packed);
+        }
+    }
+
+    // 扫描桶 [from, to)：这段数据单独映射，所有声道的采样混在一起统计
+    private void scan(FileChannel ch, DurationScanner.WavFormat f, long frames, int bucketFrames, int from, int to,
+                      float[] min, float[] max, float[] meanSquare, long generation) {
+        if (latest.get() != generation) return;
+        long firstFrame = (long) from * bucketFrames;
+        long lastFrame = Math.min(frames, (long) to * bucketFrames);
+        int kind = sampleKind(f);
+        int sampleBytes = f.bitsPerSample / 8;
+        try {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                    f.dataOffset + firstFrame * f.blockAlign, (lastFrame - firstFrame) * f.blockAlign);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            int pos = 0;
+            for (int b = from; b < to; b++) {
+                if (latest.get() != generation) return;
+                long n = Math.min(bucketFrames, lastFrame - (long) b * bucketFrames);
+                float lo = 1, hi = -1;
+                double sq = 0;
+                for (long i = 0; i < n; i++, pos += f.blockAlign) {
+                    for (int c = 0, p = pos; c < f.channels; c++, p += sampleBytes) {
+                        float v = sample(buf, p, kind);
+                        if (v < lo) lo = v;
+                        if (v > hi) hi = v;
+                        sq += v * v;
+                    }
+                }
+                min[b] = lo;
+                max[b] = hi;
+                meanSquare[b] = (float) (sq / (n * f.channels));
+            }
+        } catch (IOException e) {
+            System.err.println("Waveform chunk skipped: " + e.getMessage());
+        }
+    }
+
+    // 采样格式：8/16/24/32 位整数 PCM 用位数表示，32 位浮点用 0，不支持的返回 -1
+    private static int sampleKind(DurationScanner.WavFormat f) {
+        int bits = f.bitsPerSample;
+        if (f.blockAlign < f.channels * (bits / 8)) return -1;
+        if (f.formatTag == DurationScanner.WavFormat.PCM && (bits == 8 || bits == 16 || bits == 24 || bits == 32)) return bits;
+        if (f.formatTag == DurationScanner.WavFormat.FLOAT && bits == 32) return 0;
+        return -1;
+    }
+
+    private static float sample(ByteBuffer buf, int p, int kind) {
+        switch (kind) {
+            case 16: return buf.getShort(p) / 32768f;
+            case 8: return ((buf.get(p) & 0xFF) - 128) / 128f;
+            case 24: return ((buf.get(p) & 0xFF) | (buf.get(p + 1) & 0xFF) << 8 | buf.get(p + 2) << 16) / 8388608f;
+            case 32: return buf.getInt(p) / 2147483648f;
+            default: return Math.max(-1f, Math.min(1f, buf.getFloat(p)));
+        }
+    }
+
+    // ==========================================
+    //   缓存文件
+    // ==========================================
+    private static String cacheName(String pathKey) {
+        long h = 0xcbf29ce484222325L; // FNV-1a 64
+        for (byte b : pathKey.getBytes(StandardCharsets.UTF_8)) { h ^= b & 0xFF; h *= 0x100000001b3L; }
+        return String.format("%016x.wave", h);
+    }
+
+    private static Waveform readCache(Path cache, String pathKey, long size, long mtime) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(cache);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            if (bytes.length < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            if ((int) crc.getValue() != buf.getInt(bytes.length - 4)) return null;
+            byte[] key = new byte[Short.toUnsignedInt(buf.getShort())];
+            buf.get(key);
+            // 缓存名是路径哈希，碰撞或文件变了都当作没有缓存
+            if (!pathKey.equals(new String(key, StandardCharsets.UTF_8)) || buf.getLong() != size || buf.getLong() != mtime) return null;
+            int count = buf.getInt();
+            int[] bucketFrames = new int[count];
+            byte[][] levels = new byte[count][];
+            for (int l = 0; l < count; l++) {
+                bucketFrames[l] = buf.getInt();
+                levels[l] = new byte[Math.multiplyExact(buf.getInt(), 3)];
+                buf.get(levels[l]);
+            }
+            return count == 0 ? null : new Waveform(bucketFrames, levels);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 先写临时文件再原子替换，写到一半退出不会留下坏缓存
+    private void writeCache(Path cache, String pathKey, long size, long mtime, Waveform w) {
+        Path temp = cache.resolveSibling(cache.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(cacheDir);
+            CRC32 crc = new CRC32();
+            try (OutputStream os = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new OutputStream() {
+                     @Override public void write(int b) throws IOException { crc.update(b); os.write(b); }
+                     @Override public void write(byte[] b, int off, int len) throws IOException { crc.update(b, off, len); os.write(b, off, len); }
+                 }, 1 << 16))) {
+                byte[] key = pathKey.getBytes(StandardCharsets.UTF_8);
+                key = key.length <= 0xFFFF ? key : Arrays.copyOf(key, 0xFFFF);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeShort(key.length);
+                out.write(key);
+                out.writeLong(size);
+                out.writeLong(mtime);
+                out.writeInt(w.levels.length);
+                for (int l = 0; l < w.levels.length; l++) {
+                    out.writeInt(w.bucketFrames[l]);
+                    out.writeInt(w.bucketCount(l));
+                    out.write(w.levels[l]);
+                }
+                out.flush();
+                os.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+            }
+            try {
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Waveform cache not saved " + cache + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+/**
+ * 进度条背后的波形概览。Canvas 铺满所在的容器但不参与布局，
+ * 只在波形、颜色或尺寸变化时重画一次：每一列像素取对应桶的 min/max 画峰值，RMS 画在中间更实的一层。
+ */
+public final class WaveformRenderer {
+
+    private static final double PEAK_OPACITY = 0.22;
+    private static final double RMS_OPACITY = 0.45;
+
+    private final Canvas canvas = new Canvas();
+    private WaveformOverview.Waveform waveform;
+    private Color peakColor;
+    private Color rmsColor;
+
+    /** host 是进度条所在的容器，Canvas 放在它的最底层 */
+    public WaveformRenderer(Region host) {
+        canvas.setManaged(false);
+        canvas.setMouseTransparent(true);
+        canvas.widthProperty().bind(host.widthProperty());
+        canvas.heightProperty().bind(host.heightProperty());
+        canvas.widthProperty().addListener((o, ov, nv) -> draw());
+        canvas.heightProperty().addListener((o, ov, nv) -> draw());
+        setColor(Color.web("#1DB954"));
+    }
+
+    public Canvas getCanvas() { return canvas; }
+
+    public void setWaveform(WaveformOverview.Waveform waveform) {
+        this.waveform = waveform;
+        draw();
+    }
+
+    public void clear() {
+        if (waveform == null) return;
+        waveform = null;
+        draw();
+    }
+
+    public void setColor(Color color) {
+        peakColor = Color.color(color.getRed(), color.getGreen(), color.getBlue(), PEAK_OPACITY);
+        rmsColor = Color.color(color.getRed(), color.getGreen(), color.getBlue(), RMS_OPACITY);
+        draw();
+    }
+
+    private void draw() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        int w = (int) canvas.getWidth();
+        double h = canvas.getHeight();
+        g.clearRect(0, 0, canvas.getWidth(), h);
+        if (waveform == null || w <= 0 || h <= 0) return;
+
+        int level = waveform.levelFor(w);
+        int buckets = waveform.bucketCount(level);
+        double mid = h / 2;
+        double half = h / 2 - 1;
+        for (int x = 0; x < w; x++) {
+            int from = (int) ((long) x * buckets / w);
+            int to = Math.max(from + 1, (int) ((long) (x + 1) * buckets / w));
+            float lo = 1, hi = -1, rms = 0;
+            for (int b = from; b < to && b < buckets; b++) {
+                lo = Math.min(lo, waveform.min(level, b));
+                hi = Math.max(hi, waveform.max(level, b));
+                rms = Math.max(rms, waveform.rms(level, b));
+            }
+            if (hi < lo) continue;
+            g.setFill(peakColor);
+            g.fillRect(x, mid - hi * half, 1, Math.max(1, (hi - lo) * half));
+            g.setFill(rmsColor);
+            g.fillRect(x, mid - rms * half, 1, Math.max(1, 2 * rms * half));
+        }
+    }
+}
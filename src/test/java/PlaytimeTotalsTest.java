@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 25 万首曲目上 PlaytimeTotals 的前缀和与逐首累加对照，删掉一批曲目后再查 "这首之后还有多久"。
+ */
+class PlaytimeTotalsTest {
+
+    private static final int N = 250_000;
+
+    @Test
+    void playtimeTotalsMatchBruteForceAt250k() {
+        TrackRegistry library = new TrackRegistry();
+        List<File> files = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) files.add(new File("/music/Artist " + i / 120 + "/Album " + i / 12 + "/t" + i + ".mp3"));
+        List<Track> tracks = library.addAll(files);
+        for (int i = 0; i < N; i++) {
+            tracks.get(i).setMetadata(new TrackMetadata("Title " + i, "Artist " + i / 120, "Album " + i / 12, i % 12 + 1, 1970 + i % 50, 120_000 + i % 240_000, 320));
+        }
+        PlaytimeTotals totals = new PlaytimeTotals();
+        totals.add(library.tracks());
+        Random random = new Random(7);
+        List<Track> gone = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) gone.add(library.get(random.nextInt(library.size())));
+        for (Track t : library.removeAll(gone)) totals.remove(t);
+
+        long[] suffix = new long[library.size() + 1];
+        for (int i = library.size() - 1; i >= 0; i--) suffix[i] = suffix[i + 1] + library.get(i).getDurationMillis();
+        assertEquals(suffix[0], totals.getLibraryMillis());
+        long start = System.nanoTime();
+        for (int k = 0; k < 10_000; k++) {
+            int i = random.nextInt(library.size());
+            assertEquals(suffix[i + 1], totals.getMillisAfter(library.get(i)));
+        }
+        System.out.printf("getMillisAfter at %d tracks: %.2f us%n", library.size(), (System.nanoTime() - start) / 1e3 / 10_000);
+    }
+}
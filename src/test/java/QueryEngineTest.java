@@ -0,0 +1,177 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 智能播放列表查询：10 万首合成曲目上和逐首判断的结果对照，增量维护后再对照一次，并测查询延迟。
+ */
+class QueryEngineTest {
+
+    private static final int N = 100_000;
+    private static final String[] ARTISTS = new String[2000];
+
+    private static TrackRegistry library;
+    private static QueryEngine engine;
+    private static Random random;
+
+    @BeforeAll
+    static void buildLibrary() {
+        for (int i = 0; i < ARTISTS.length; i++) ARTISTS[i] = (i % 3 == 0 ? "歌手 " : "Artist ") + i;
+        random = new Random(7);
+        library = new TrackRegistry();
+        engine = new QueryEngine();
+        List<File> files = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) files.add(new File("/music/d" + i / 1000 + "/t" + i + ".mp3"));
+        List<Track> tracks = library.addAll(files);
+        for (Track t : tracks) tag(t);
+        engine.add(tracks);
+    }
+
+    @Test
+    void randomQueriesMatchBruteForce() {
+        for (int i = 0; i < 150; i++) check(randomQuery(3));
+    }
+
+    @Test
+    void incrementalUpdatesMatchBruteForce() {
+        List<Track> changed = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Track t = library.get(random.nextInt(library.size()));
+            tag(t);
+            changed.add(t);
+        }
+        engine.update(changed);
+        List<Track> gone = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) gone.add(library.get(random.nextInt(library.size())));
+        for (Track t : library.removeAll(gone)) engine.remove(t);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) files.add(new File("/music/new/t" + i + ".mp3"));
+        List<Track> added = library.addAll(files);
+        for (Track t : added) tag(t);
+        engine.add(added);
+        for (int i = 0; i < 150; i++) check(randomQuery(3));
+    }
+
+    @Test
+    void dateQueriesAreReevaluatedOnDayChange() {
+        engine.ageField("lastplayed");
+        assertTrue(engine.dependsOnDate(SmartQuery.parse("year >= 2000 AND NOT (lastplayed <= 30 OR track = 1)", engine)));
+        assertFalse(engine.dependsOnDate(SmartQuery.parse("year >= 2000 OR artist ~ 12", engine)));
+    }
+
+    @Test
+    void queryLatencyOnLargeLibrary() {
+        String[] queries = {
+                "artist = Artist 301 AND year >= 2010 AND duration < 5m",
+                "year >= 2010 AND duration < 5m",
+                "year >= 2000 AND year < 2010 OR bitrate = 128",
+                "album ~ 12",
+                "NOT artist ~ 歌手 AND track <= 3",
+        };
+        for (String q : queries) {
+            SmartQuery query = SmartQuery.parse(q, engine);
+            for (int i = 0; i < 20; i++) engine.evaluate(query); // 预热
+            long[] samples = new long[50];
+            int hits = 0;
+            for (int i = 0; i < samples.length; i++) {
+                long start = System.nanoTime();
+                hits = engine.evaluate(query).cardinality();
+                samples[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(samples);
+            double median = samples[samples.length / 2] / 1e6;
+            System.out.printf("%-56s %6d hits  median %.2f ms%n", q, hits, median);
+            // 一帧之内：远大于实测 (亚毫秒)，只防止退化成逐首扫描
+            assertTrue(median < 16, q + " took " + median + " ms");
+        }
+    }
+
+    // ==========================================
+    //   合成数据和逐首判断
+    // ==========================================
+    private static void tag(Track t) {
+        int artist = random.nextInt(ARTISTS.length);
+        boolean noYear = random.nextInt(20) == 0;
+        t.setMetadata(new TrackMetadata("t", random.nextInt(50) == 0 ? "" : ARTISTS[artist], "Album " + artist % 300,
+                random.nextInt(15), noYear ? 0 : 1970 + random.nextInt(55), 60_000 + random.nextInt(480_000), random.nextBoolean() ? 320 : 128));
+    }
+
+    private static String randomCompare() {
+        switch (random.nextInt(6)) {
+            case 0: return "artist = " + ARTISTS[random.nextInt(ARTISTS.length)];
+            case 1: return "album ~ \"" + random.nextInt(30) + "\"";
+            case 2: return "year " + new String[] { "<", ">=", "=", "!=", "<=", ">" }[random.nextInt(6)] + " " + (1965 + random.nextInt(65));
+            case 3: return "duration < " + (1 + random.nextInt(9)) + "m" + (random.nextBoolean() ? "30s" : "");
+            case 4: return "track >= " + random.nextInt(16);
+            default: return "bitrate != 128";
+        }
+    }
+
+    private static String randomQuery(int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) return (random.nextInt(6) == 0 ? "NOT " : "") + randomCompare();
+        String op = random.nextBoolean() ? " AND " : " || ";
+        return "(" + randomQuery(depth - 1) + op + randomQuery(depth - 1) + (random.nextBoolean() ? op + randomQuery(depth - 1) : "") + ")";
+    }
+
+    private static void check(String q) {
+        SmartQuery query = SmartQuery.parse(q, engine);
+        BitSet expected = new BitSet();
+        for (Track t : library.tracks()) if (brute(query.getRoot(), t)) expected.set(t.getId());
+        assertEquals(expected, engine.evaluate(query), q);
+        for (int k = 0; k < 200; k++) {
+            Track t = library.get(random.nextInt(library.size()));
+            assertEquals(expected.get(t.getId()), engine.matches(query, t), q);
+        }
+    }
+
+    private static boolean brute(SmartQuery.Node node, Track t) {
+        if (node instanceof SmartQuery.And) {
+            for (SmartQuery.Node c : ((SmartQuery.And) node).children) if (!brute(c, t)) return false;
+            return true;
+        }
+        if (node instanceof SmartQuery.Or) {
+            for (SmartQuery.Node c : ((SmartQuery.Or) node).children) if (brute(c, t)) return true;
+            return false;
+        }
+        if (node instanceof SmartQuery.Not) return !brute(((SmartQuery.Not) node).child, t);
+        SmartQuery.Compare c = (SmartQuery.Compare) node;
+        TrackMetadata m = t.getMetadata();
+        if (c.text != null) {
+            String v = c.field.equals("artist") ? m.getArtist() : m.getAlbum();
+            if (v.isEmpty()) return false;
+            v = v.toLowerCase(Locale.ROOT);
+            switch (c.op) {
+                case EQ: return v.equals(c.text);
+                case NE: return !v.equals(c.text);
+                default: return v.contains(c.text);
+            }
+        }
+        long x;
+        switch (c.field) {
+            case "year": x = m.getYear(); break;
+            case "duration": x = t.getDurationMillis() / 1000; break;
+            case "track": x = m.getTrackNumber(); break;
+            default: x = m.getBitrate();
+        }
+        if (x <= 0) return false;
+        switch (c.op) {
+            case EQ: return x == c.number;
+            case NE: return x != c.number;
+            case LT: return x < c.number;
+            case LE: return x <= c.number;
+            case GT: return x > c.number;
+            default: return x >= c.number;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用合成的拖动事件驱动 SeekScheduler：模拟播放器执行 seek 需要一段时间，
+ * 检查同一时间最多只有一次 seek 在执行，且最后落在松手的位置。
+ */
+class SeekSchedulerTest {
+
+    private static final long MS = 1_000_000L;
+
+    /** 模拟播放器：seek 要过 latency 才到位，到位前再收到 seek 就算重叠 */
+    private static final class FakePlayer implements SeekScheduler.Seeker {
+        final List<Double> seeks = new ArrayList<>();
+        double position;
+        double target = Double.NaN;
+        long doneAt;
+        long now;
+        long latency;
+        int overlaps;
+
+        @Override public void seek(double millis) {
+            if (!Double.isNaN(target)) overlaps++;
+            seeks.add(millis);
+            target = millis;
+            doneAt = now + latency;
+        }
+
+        void advance(long to) {
+            now = to;
+            if (!Double.isNaN(target) && now >= doneAt) {
+                position = target;
+                target = Double.NaN;
+            }
+        }
+    }
+
+    @Test
+    void thousandsOfDragEventsKeepOneSeekInFlightAndLandOnRelease() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            FakePlayer player = new FakePlayer();
+            SeekScheduler scheduler = new SeekScheduler(player, 500 * MS, 50);
+            long now = 0;
+            double duration = 300_000;
+            int events = 2000 + random.nextInt(3000);
+            double last = 0;
+            for (int i = 0; i < events; i++) {
+                // 拖动事件间隔 0~4 毫秒，每帧 (约 16 毫秒) 调一次 pulse，seek 耗时 5~120 毫秒
+                now += random.nextInt(4 * (int) MS + 1);
+                player.latency = (5 + random.nextInt(116)) * MS;
+                player.advance(now);
+                last = Math.max(0, Math.min(duration, last + random.nextGaussian() * 2000));
+                scheduler.request(last, now);
+                if (i % 5 == 0) scheduler.pulse(now, player.position);
+                assertEquals(0, player.overlaps, "seek issued while another was in flight");
+            }
+            double release = random.nextDouble() * duration;
+            scheduler.commit(release, now);
+            for (int frame = 0; frame < 1000 && !scheduler.isIdle(); frame++) {
+                now += 16 * MS;
+                player.advance(now);
+                scheduler.pulse(now, player.position);
+            }
+            player.advance(now + 1000 * MS);
+
+            assertTrue(scheduler.isIdle());
+            assertEquals(0, player.overlaps);
+            assertEquals(release, player.seeks.get(player.seeks.size() - 1), 0.0);
+            assertEquals(release, player.position, 0.0);
+            assertEquals(player.seeks.size(), scheduler.getAppliedCount());
+            assertTrue(player.seeks.size() < events / 2, "drag events were not coalesced: " + player.seeks.size());
+        }
+    }
+
+    @Test
+    void stuckSeekTimesOutAndLatestTargetStillWins() {
+        FakePlayer player = new FakePlayer();
+        player.latency = Long.MAX_VALUE / 2; // 永远不到位
+        SeekScheduler scheduler = new SeekScheduler(player, 200 * MS, 50);
+        long now = 0;
+        for (int i = 0; i < 5000; i++) {
+            now += MS;
+            scheduler.request(1000 + i, now);
+            scheduler.pulse(now, player.position);
+        }
+        // 每次执行中至少要等满 settleNanos 才发下一次
+        assertTrue(player.seeks.size() <= 5000 / 200 + 1, "too many seeks: " + player.seeks.size());
+        scheduler.commit(12_345, now);
+        for (int frame = 0; frame < 100; frame++) {
+            now += 16 * MS;
+            scheduler.pulse(now, player.position);
+        }
+        assertEquals(12_345, player.seeks.get(player.seeks.size() - 1), 0.0);
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    void resetDropsPendingTarget() {
+        FakePlayer player = new FakePlayer();
+        player.latency = 100 * MS;
+        SeekScheduler scheduler = new SeekScheduler(player, 500 * MS, 50);
+        scheduler.request(1000, 0);
+        scheduler.request(2000, MS);
+        assertTrue(scheduler.isInFlight());
+        scheduler.reset();
+        assertTrue(scheduler.isIdle());
+        scheduler.pulse(2 * MS, player.position);
+        assertEquals(List.of(1000.0), player.seeks);
+        assertFalse(Double.isFinite(scheduler.getPreviewMillis()));
+    }
+}
@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 25 万首曲目的堆占用基准：列式 TrackStore 对比之前每首一个对象的模型。
+ * 堆占用用多次 GC 后的 used heap 差值估算，数字会打印出来，断言只留足余量。
+ */
+class TrackStoreFootprintTest {
+
+    private static final int N = 250_000;
+
+    private static String path(int i) {
+        int artist = i / 120, album = i / 12;
+        return "/mnt/nas/music/Artist " + artist + "/Album " + album + " (Deluxe Edition)/" + String.format("%02d", i % 12 + 1) + " - Title " + i + ".mp3";
+    }
+
+    private static TrackMetadata tags(int i) {
+        return new TrackMetadata("Title " + i, "Artist " + i / 120, "Album " + i / 12 + " (Deluxe Edition)", i % 12 + 1, 1970 + i % 50, 120_000 + i % 240_000, 320);
+    }
+
+    @Test
+    void heapPerTrackAt250kIsAFractionOfTheObjectModel() {
+        for (boolean withTags : new boolean[] { false, true }) {
+            long before = usedHeap();
+            Object baseline = fileListModel(withTags);
+            long baselineBytes = usedHeap() - before;
+            keep(baseline);
+            baseline = null;
+
+            before = usedHeap();
+            TrackRegistry library = registry(withTags);
+            long storeBytes = usedHeap() - before;
+            assertEquals(N, library.size());
+
+            System.out.printf("%s: object model %d B/track, track store %d B/track (%.1fx)%n", withTags ? "with tags" : "no tags",
+                    baselineBytes / N, storeBytes / N, (double) baselineBytes / storeBytes);
+            keep(library);
+            assertTrue(storeBytes / N < (withTags ? 250 : 160), "track store too large: " + storeBytes / N + " B/track");
+            assertTrue(baselineBytes > 4 * storeBytes, "expected at least 4x smaller: " + baselineBytes + " vs " + storeBytes);
+        }
+    }
+
+    private static TrackRegistry registry(boolean withTags) {
+        TrackRegistry library = new TrackRegistry();
+        List<File> files = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) files.add(new File(path(i)));
+        List<Track> tracks = library.addAll(files);
+        if (withTags) for (int i = 0; i < N; i++) tracks.get(i).setMetadata(tags(i));
+        return library;
+    }
+
+    // 列式存储之前的模型：每首一个 Track 对象 (File、路径键、标签对象)，按路径和 ID 的 HashMap 索引，
+    // 外加列表视图里的一份名字
+    private static final class ObjectTrack {
+        final int id;
+        final File file;
+        final String pathKey;
+        volatile TrackMetadata metadata;
+        int index;
+        boolean missing;
+
+        ObjectTrack(int id, File file) {
+            this.id = id;
+            this.file = file;
+            this.pathKey = file.toPath().toAbsolutePath().normalize().toString();
+        }
+    }
+
+    private static Object fileListModel(boolean withTags) {
+        List<ObjectTrack> order = new ArrayList<>();
+        Map<String, ObjectTrack> byPath = new HashMap<>();
+        Map<Integer, ObjectTrack> byId = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < N; i++) {
+            ObjectTrack t = new ObjectTrack(i, new File(path(i)));
+            t.index = i;
+            if (withTags) t.metadata = tags(i);
+            order.add(t);
+            byPath.put(t.pathKey, t);
+            byId.put(i, t);
+            names.add(t.file.getName());
+        }
+        return new Object[] { order, byPath, byId, names };
+    }
+
+    private static volatile Object sink;
+
+    private static void keep(Object o) { sink = o; sink = null; }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try { Thread.sleep(20); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+}